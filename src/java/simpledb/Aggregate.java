@@ -1,11 +1,19 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min), grouped by a single column or not at all. Any number of aggregates,
+ * each over a single column, are computed in one pass over the child by a
+ * {@link HashAggregator}.
+ * <p>
+ * If the child is a SeqScan of a HeapFile big enough, its pages are split
+ * into ranges that the threads of a fork-join pool aggregate at the same
+ * time, each into a partial HashAggregator of its own; the partials are then
+ * merged, AVG from the sum and count of each partial group.
  */
 public class Aggregate extends Operator {
 
@@ -14,11 +22,6 @@ public class Aggregate extends Operator {
     /**
      * Constructor.
      * 
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
-     * 
-     * 
      * @param child
      *            The OpIterator that is feeding us tuples.
      * @param afield
@@ -31,40 +34,93 @@ public class Aggregate extends Operator {
      */
 
     private OpIterator it;
-    private int afield;
+    private int[] afields;
     private int gfield;
-    private Aggregator.Op aop;
-    private Aggregator aggregator;
-    private TupleDesc child_td;
+    private Aggregator.Op[] aops;
+    private HashAggregator aggregator;
+    private long memoryBudget = (long) HashAggregator.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private transient int workers;  //the partial aggregates merged at the last open()
+    private transient volatile boolean stopped;  //set when a partial aggregate failed, the others stop early
+
+    /** Pages each thread of a parallel aggregate reads at least */
+    static final int MIN_WORKER_PAGES = 16;
     private TupleDesc td;
-    private Type gbfieldtype;
-    private Type afieldtype;
     private OpIterator opIterator;
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
-	// some code goes here
-        this.it=child;
-        this.afield= afield;
+        this(child, new int[]{afield}, gfield, new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Constructor for several aggregates computed together.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afields
+     *            The column over which each aggregate is computed.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     * @throws IllegalArgumentException
+     *             if an aggregate other than COUNT is over a column that is
+     *             not an int
+     */
+    public Aggregate(OpIterator child, int[] afields, int gfield, Aggregator.Op[] aops) {
+        if (afields.length != aops.length || aops.length == 0)
+            throw new IllegalArgumentException("one field per aggregate is needed");
+        this.it = child;
+        this.afields = afields;
         this.gfield = gfield;
-        this.aop = aop;
-        child_td = child.getTupleDesc();
-        afieldtype = child_td.getFieldType(afield);
-        gbfieldtype = gfield == Aggregator.NO_GROUPING? null : child_td.getFieldType(gfield);
-        if(afieldtype == Type.INT_TYPE){
-            aggregator = new IntegerAggregator(gfield, gbfieldtype, afield, aop);
-        }else if(afieldtype == Type.STRING_TYPE){
-            aggregator = new StringAggregator(gfield, gbfieldtype, afield, aop);
+        this.aops = aops;
+        this.td = makeTupleDesc();
+    }
+
+    /** @return the schema of the output, checking the aggregates against the child's */
+    private TupleDesc makeTupleDesc() {
+        TupleDesc child_td = it.getTupleDesc();
+        ArrayList<Type> types = new ArrayList<>();
+        ArrayList<String> names = new ArrayList<>();
+        if(gfield != Aggregator.NO_GROUPING){
+            types.add(child_td.getFieldType(gfield));
+            names.add(child_td.getFieldName(gfield));
         }
-        Type[] types;
-        String[] names;
-        String aname = child_td.getFieldName(afield);
-        if(gfield == Aggregator.NO_GROUPING){
-            types = new Type[]{Type.INT_TYPE};
-            names = new String[]{aname};
-        }else{
-            types = new Type[]{gbfieldtype, Type.INT_TYPE};
-            names = new String[]{child_td.getFieldName(gfield),aname};
+        for(int i = 0; i < afields.length; i++){
+            if(child_td.getFieldType(afields[i]) != Type.INT_TYPE && aops[i] != Aggregator.Op.COUNT){
+                throw new IllegalArgumentException(aops[i] + " over a column that is not an int");
+            }
+            String aname = child_td.getFieldName(afields[i]);
+            types.add(Type.INT_TYPE);
+            names.add(aname);
+            if(aops[i] == Aggregator.Op.SUM_COUNT){  //the sum, then the count
+                types.add(Type.INT_TYPE);
+                names.add(aname);
+            }
         }
-        this.td = new TupleDesc(types, names);
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+    }
+
+    /**
+     * Set the bytes of memory the groups may take before they are spilled to
+     * disk. Takes effect at the next open().
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /**
+     * Set the most threads that aggregate a child that is a SeqScan of a
+     * HeapFile, each over a range of its pages. With 1 the child is read on
+     * the calling thread. Takes effect at the next open().
+     */
+    public void setParallelism(int threads) {
+        this.parallelism = threads;
+    }
+
+    /** @return the partial aggregates merged at the last open(), 1 if the child was read on one thread */
+    int workers() {
+        return workers;
     }
 
     /**
@@ -89,28 +145,49 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * @return the aggregate field
+     * @return the aggregate field, of the first aggregate if there are several
      * */
     public int aggregateField() {
 	// some code goes here
-	return afield;
+	return afields[0];
     }
 
     /**
      * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     *         tuples, of the first aggregate if there are several
      * */
     public String aggregateFieldName() {
 	// some code goes here
-	return it.getTupleDesc().getFieldName(afield);
+	return aggregateFieldName(0);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the aggregate operator, of the first aggregate if there
+     *         are several
      * */
     public Aggregator.Op aggregateOp() {
 	// some code goes here
-	return aop;
+	return aops[0];
+    }
+
+    /** @return the number of aggregates computed */
+    public int numAggregates() {
+        return aops.length;
+    }
+
+    /** @return the field of aggregate i */
+    public int aggregateField(int i) {
+        return afields[i];
+    }
+
+    /** @return the name of the field of aggregate i */
+    public String aggregateFieldName(int i) {
+        return it.getTupleDesc().getFieldName(afields[i]);
+    }
+
+    /** @return the operator of aggregate i */
+    public Aggregator.Op aggregateOp(int i) {
+        return aops[i];
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -121,22 +198,132 @@ public class Aggregate extends Operator {
 	    TransactionAbortedException {
 	// some code goes here
         super.open();
-        it.open();
-        while(it.hasNext()){
-            aggregator.mergeTupleIntoGroup(it.next());
+        aggregator = null;
+        workers = 1;
+        if(it instanceof SeqScan && parallelism > 1){
+            DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) it).getTableId());
+            if(file instanceof HeapFile){
+                int pages = ((HeapFile) file).numPages();
+                int n = Math.min(parallelism, pages / MIN_WORKER_PAGES);
+                if(n > 1){
+                    aggregator = aggregateInParallel((SeqScan) it, pages, n);
+                }
+            }
+        }
+        if(aggregator == null){
+            aggregator = aggregate(it, memoryBudget);
         }
-        it.close();
         opIterator = aggregator.iterator();
         opIterator.open();
 
     }
 
+    private HashAggregator newAggregator(long budget) {
+        Type groupType = gfield == Aggregator.NO_GROUPING ? null : it.getTupleDesc().getFieldType(gfield);
+        HashAggregator agg = new HashAggregator(gfield, groupType, afields, aops);
+        agg.setMemoryBudget(budget);
+        return agg;
+    }
+
+    /** @return the groups of every tuple of child */
+    private HashAggregator aggregate(OpIterator child, long budget)
+            throws DbException, TransactionAbortedException {
+        HashAggregator agg = newAggregator(budget);
+        boolean done = false;
+        try {
+            child.setReuseTuples(true);  //the aggregator keeps no tuple it is given
+            child.open();
+            TupleBatch batch;
+            while(!stopped && (batch=child.nextBatch())!=null){  //the child's rows come in batches
+                agg.mergeBatch(batch);
+            }
+            done = true;
+            return agg;
+        } finally {
+            child.close();
+            if(!done)
+                agg.clear();  //drop the spill files of a failed aggregate
+        }
+    }
+
+    /** Aggregates a range of the pages of the child, on a thread of the pool. */
+    private class Partial extends RecursiveTask<HashAggregator> {
+        private static final long serialVersionUID = 1L;
+
+        private final SeqScan scan;
+        private final long budget;
+
+        Partial(SeqScan scan, long budget) {
+            this.scan = scan;
+            this.budget = budget;
+        }
+
+        protected HashAggregator compute() {
+            try {
+                return aggregate(scan, budget);
+            } catch (DbException | TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * @return the groups of every tuple of scan, aggregated by n threads over
+     *         n ranges of its pages, which share the memory budget. If one
+     *         range fails the others are stopped and waited for, and every
+     *         partial aggregate is dropped, before the failure is thrown.
+     */
+    private HashAggregator aggregateInParallel(SeqScan scan, int pages, int n)
+            throws DbException, TransactionAbortedException {
+        ForkJoinPool pool = new ForkJoinPool(n);
+        ArrayList<Partial> partials = new ArrayList<>();
+        HashAggregator result = newAggregator(memoryBudget);
+        stopped = false;
+        boolean done = false;
+        try {
+            for(int i = 0; i < n; i++){
+                int first = (int) ((long) pages * i / n);
+                int end = i == n - 1 ? Integer.MAX_VALUE : (int) ((long) pages * (i + 1) / n);  //the last one reads to the end
+                Partial task = new Partial(scan.split(first, end), memoryBudget / n);
+                partials.add(task);
+                pool.execute(task);
+            }
+            for(Partial task : partials){
+                HashAggregator partial = task.join();
+                result.merge(partial);
+                partial.clear();
+            }
+            done = true;
+        } catch (RuntimeException e) {
+            for(Throwable c = e; c != null; c = c.getCause()){
+                if(c instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) c;
+                if(c instanceof DbException)
+                    throw (DbException) c;
+            }
+            throw e;
+        } finally {
+            if(!done){
+                stopped = true;  //the other tasks stop at their next batch
+                result.clear();
+                for(Partial task : partials){
+                    task.quietlyJoin();  //no task may still hold pages or spill files after this
+                    if(!task.isCompletedAbnormally())
+                        task.getRawResult().clear();
+                }
+            }
+            pool.shutdown();
+        }
+        workers = n;
+        return result;
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * field is the field by which we are grouping, and the following fields
+     * are the results of the aggregates, two for SUM_COUNT: the sum and the
+     * count. If there is no group by field, the result tuple contains only
+     * the aggregates. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
@@ -153,9 +340,9 @@ public class Aggregate extends Operator {
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * this will have the aggregate columns only. If there is a group by
+     * field, the first field will be the group by field, and the following
+     * ones the aggregate value columns.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -171,7 +358,12 @@ public class Aggregate extends Operator {
     public void close() {
 	// some code goes here
         super.close();
-        opIterator.close();
+        if (opIterator != null)
+            opIterator.close();
+        if (aggregator != null)
+            aggregator.clear();
+        opIterator = null;
+        aggregator = null;
     }
 
     @Override
@@ -184,13 +376,7 @@ public class Aggregate extends Operator {
     public void setChildren(OpIterator[] children) {
 	// some code goes here
         this.it = children[0];
-        Type fieldType = this.it.getTupleDesc().getFieldType(afield);
-        Type groupType = gfield==Aggregator.NO_GROUPING? null : this.it.getTupleDesc().getFieldType(gfield);
-        if(fieldType == Type.INT_TYPE){
-            this.aggregator=new IntegerAggregator(gfield, groupType,afield,aop);
-        }else{
-            this.aggregator=new StringAggregator(gfield, groupType, afield,aop);
-        }
+        this.td = makeTupleDesc();
     }
     
 }
@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * AggregateHashTable holds the groups of a hash aggregation: a key per group,
+ * either an int or the bytes of a string, and a fixed number of long
+ * accumulators, without a Field, boxed value or array object per group.
+ * <p>
+ * Groups are numbered in the order they were added. Keys live in an
+ * open-addressing table with linear probing whose slots hold the hash and
+ * number of a group; int keys, string keys and accumulators are packed into
+ * arrays by group number.
+ */
+class AggregateHashTable {
+
+    private static final int EMPTY = -1;
+
+    private final boolean stringKeys;
+    private final long[] init;  //the accumulators of a new group
+    private final int width;
+    private int[] slotHashes;
+    private int[] slotGroups;  //EMPTY if the slot is free
+    private int groups;
+    private int[] intKeys;
+    private byte[] keyBytes = null;  //the string keys, one after the other
+    private int[] keyEnds = null;  //where the string key of each group ends in keyBytes
+    private long[] accumulators;
+
+    /**
+     * @param stringKeys true if the keys are strings rather than ints
+     * @param init the accumulators of a group when it is added
+     */
+    AggregateHashTable(boolean stringKeys, long[] init) {
+        this.stringKeys = stringKeys;
+        this.init = init;
+        this.width = init.length;
+        allocate(16);
+        if (stringKeys) {
+            keyBytes = new byte[256];
+            keyEnds = new int[16];
+        } else {
+            intKeys = new int[16];
+        }
+        accumulators = new long[16 * width];
+    }
+
+    private void allocate(int slots) {
+        slotHashes = new int[slots];
+        slotGroups = new int[slots];
+        Arrays.fill(slotGroups, EMPTY);
+    }
+
+    /** @return the hash of a string key */
+    static int hash(byte[] key) {
+        return Arrays.hashCode(key);
+    }
+
+    /** @return the slot of the int key: the one holding it, or the free one it would go in */
+    private int slot(int key) {
+        int mask = slotHashes.length - 1;
+        int s = JoinHashTable.mix(key) & mask;
+        while (slotGroups[s] != EMPTY && (slotHashes[s] != key || intKeys[slotGroups[s]] != key))
+            s = (s + 1) & mask;
+        return s;
+    }
+
+    /** @return the slot of the string key with the given hash */
+    private int slot(byte[] key, int hash) {
+        int mask = slotHashes.length - 1;
+        int s = JoinHashTable.mix(hash) & mask;
+        while (slotGroups[s] != EMPTY && (slotHashes[s] != hash || !keyEquals(slotGroups[s], key)))
+            s = (s + 1) & mask;
+        return s;
+    }
+
+    private boolean keyEquals(int group, byte[] key) {
+        int start = group == 0 ? 0 : keyEnds[group - 1];
+        if (keyEnds[group] - start != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++)
+            if (keyBytes[start + i] != key[i])
+                return false;
+        return true;
+    }
+
+    /** @return the group of an int key, added if it is new */
+    int group(int key) {
+        int s = slot(key);
+        if (slotGroups[s] != EMPTY)
+            return slotGroups[s];
+        int g = add(s, key);
+        if (g == intKeys.length)
+            intKeys = Arrays.copyOf(intKeys, 2 * g);
+        intKeys[g] = key;
+        return g;
+    }
+
+    /** @return the group of a string key with the given hash, added if it is new */
+    int group(byte[] key, int hash) {
+        int s = slot(key, hash);
+        if (slotGroups[s] != EMPTY)
+            return slotGroups[s];
+        int g = add(s, hash);
+        if (g == keyEnds.length)
+            keyEnds = Arrays.copyOf(keyEnds, 2 * g);
+        int start = g == 0 ? 0 : keyEnds[g - 1];
+        if (start + key.length > keyBytes.length)
+            keyBytes = Arrays.copyOf(keyBytes, Math.max(2 * keyBytes.length, start + key.length));
+        System.arraycopy(key, 0, keyBytes, start, key.length);
+        keyEnds[g] = start + key.length;
+        return g;
+    }
+
+    /** Add a group in free slot s, growing the table if it is half full. */
+    private int add(int s, int hash) {
+        int g = groups++;
+        slotHashes[s] = hash;
+        slotGroups[s] = g;
+        if ((g + 1) * width > accumulators.length)
+            accumulators = Arrays.copyOf(accumulators, 2 * accumulators.length);
+        System.arraycopy(init, 0, accumulators, g * width, width);
+        if (2 * groups > slotHashes.length)
+            grow();
+        return g;
+    }
+
+    /** Double the slots. */
+    private void grow() {
+        int[] oldHashes = slotHashes;
+        int[] oldGroups = slotGroups;
+        allocate(2 * oldHashes.length);
+        int mask = slotHashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldGroups[i] != EMPTY) {
+                int s = JoinHashTable.mix(oldHashes[i]) & mask;
+                while (slotGroups[s] != EMPTY)
+                    s = (s + 1) & mask;
+                slotHashes[s] = oldHashes[i];
+                slotGroups[s] = oldGroups[i];
+            }
+        }
+    }
+
+    /**
+     * @return the accumulators of every group: those of group g start at
+     *         g * width(). The array changes when a group is added.
+     */
+    long[] accumulators() {
+        return accumulators;
+    }
+
+    /** @return the number of accumulators of a group */
+    int width() {
+        return width;
+    }
+
+    /** @return the number of groups */
+    int size() {
+        return groups;
+    }
+
+    /** @return the int key of a group */
+    int intKey(int group) {
+        return intKeys[group];
+    }
+
+    /** @return the string key of a group */
+    byte[] stringKey(int group) {
+        int start = group == 0 ? 0 : keyEnds[group - 1];
+        return Arrays.copyOfRange(keyBytes, start, keyEnds[group]);
+    }
+
+    /** @return the key of a group as a field of the given type */
+    Field key(int group, Type type) {
+        if (!stringKeys)
+            return new IntField(intKeys[group]);
+        return new StringField(new String(stringKey(group)), Type.STRING_LEN, type);
+    }
+
+    /** @return roughly the bytes a group with a key of keyLength bytes takes */
+    static long groupBytes(int width, int keyLength) {
+        return 8L * width + 2 * 8 + 4 + keyLength;  //accumulators, two slots at half load, the key
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+/**
+ * BufferAccessStrategy keeps a bulk operation that touches every page of a
+ * big table once, such as a full {@link SeqScan} or a bulk {@link Insert},
+ * from flushing the rest of the BufferPool.
+ * <p>
+ * The pages such an operation reads on a miss go through a small ring of
+ * frames of its own: once the ring is full, the next page it reads replaces
+ * the oldest page of the ring rather than the page the replacement policy
+ * would give up, and pages it finds in the pool are not promoted. A ring page
+ * is only reused while it is clean and nobody else has asked for it since;
+ * otherwise it stays in the pool like any other page and the BufferPool
+ * evicts a page as usual.
+ * <p>
+ * A strategy belongs to one operation and must not be shared between
+ * operations running at the same time. Its ring is only touched under the
+ * BufferPool's monitor.
+ */
+public class BufferAccessStrategy {
+
+    /** Frames in a ring at most, i.e. 128KB with the default page size */
+    public static final int DEFAULT_RING_SIZE = 32;
+
+    private final PageId[] ring;
+    private int next = 0;  //the slot to reuse next, guarded by the BufferPool
+
+    /**
+     * @param ringSize number of frames the operation may cycle through, at least 1
+     */
+    public BufferAccessStrategy(int ringSize) {
+        if (ringSize < 1)
+            throw new IllegalArgumentException("ring size must be positive");
+        this.ring = new PageId[ringSize];
+    }
+
+    /**
+     * Strategy for scanning every page of a file with the given number of
+     * pages. A file that fits in the BufferPool is left to the pool, so that
+     * a second scan of it is served from memory.
+     *
+     * @return a new strategy with a ring of a quarter of the pool, up to
+     *         {@link #DEFAULT_RING_SIZE} frames, or null if the file fits in
+     *         the pool or the pool is too small for a ring
+     */
+    public static BufferAccessStrategy forScan(int filePages) {
+        BufferPool pool = Database.getBufferPool();
+        int size = Math.min(DEFAULT_RING_SIZE, pool.numPages / 4);
+        if (filePages <= pool.numPages || size < 2)
+            return null;
+        return new BufferAccessStrategy(size);
+    }
+
+    public int getRingSize() {
+        return ring.length;
+    }
+
+    /** @return the page in the slot the next page read goes to, or null if the slot is empty */
+    PageId oldest() {
+        return ring[next];
+    }
+
+    /**
+     * Put pid into the next slot.
+     * @return the page that was in the slot before, or null
+     */
+    PageId add(PageId pid) {
+        PageId old = ring[next];
+        ring[next] = pid;
+        next = (next + 1) % ring.length;
+        return old;
+    }
+}
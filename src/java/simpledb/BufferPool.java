@@ -1,11 +1,11 @@
 package simpledb;
 
-import javafx.print.PageLayout;
-
 import java.io.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -37,186 +37,269 @@ public class BufferPool {
     public int numPages;
     public ConcurrentHashMap<PageId,Page> idToPage;
 
-    private  LinkedList<Page> recentUsedPages;
-
-    private class Lock{
-        public static final int SHARE = 0;  //0 stands for shared lock,
-        // Multiple transactions can have a shared lock on an object before reading
-        public static final int EXCLUSIVE = 1;  //1 stands for exclusive lock,
-        // Only one transaction may have an exclusive lock on an object before writing
-        private TransactionId tid;
-        private int type;
-
-        public Lock(TransactionId tid, int type){
-            this.tid =  tid;
-            this.type = type;
-        }
-        public TransactionId getTid() {
-            return tid;
-        }
-        public int getType() {
-            return type;
+    private final ReplacementPolicy policy;  //decides which page evictPage() gives up, guarded by this
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong prefetched = new AtomicLong(0);
+    // pages being read from disk right now; others wanting them wait instead of reading them again
+    private final ConcurrentHashMap<PageId, CountDownLatch> pendingReads =
+            new ConcurrentHashMap<PageId, CountDownLatch>();
+
+    // pages each transaction may have dirtied: those it fetched READ_WRITE and those
+    // handed back by insertTuple/deleteTuple. Commit and abort only visit these
+    // instead of scanning the whole pool.
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> dirtiedPages =
+            new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    // under NO STEAL only clean pages may leave the pool; a page the cleaner
+    // is still writing is not clean on disk yet
+    private final ReplacementPolicy.EvictionFilter cleanPages = new ReplacementPolicy.EvictionFilter() {
+        public boolean canEvict(PageId pid) {
+            Page page = idToPage.get(pid);
+            if (page == null)
+                return true;
+            PageCleaner c = cleaner;
+            return page.isDirty() == null && (c == null || !c.isWriting(pid));
         }
+    };
 
-        public void setType(int type) {
-            this.type = type;
+    private final ReplacementPolicy.EvictionFilter anyPage = new ReplacementPolicy.EvictionFilter() {
+        public boolean canEvict(PageId pid) {
+            return true;
         }
+    };
+
+    private volatile boolean steal = false;
+    // uncommitted pages evictPage() wrote to disk, per transaction; an abort
+    // has to roll these back from the log
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> stolenPages =
+            new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    private volatile PageCleaner cleaner;  //null unless startCleaner() was called
+
+    // pages that came in through a BufferAccessStrategy's ring and may be
+    // reused by it; a getPage() without a strategy takes a page out of here
+    private final ConcurrentHashMap<PageId, BufferAccessStrategy> ringPages =
+            new ConcurrentHashMap<PageId, BufferAccessStrategy>();
+
+    private LockManager manager;
+
+    public BufferPool(int numPages) {
+        // some code goes here
+        this(numPages, new LruPolicy());
     }
 
-    private class LockManager{
-        private ConcurrentHashMap<PageId,ConcurrentHashMap<TransactionId,Lock>> pageLocks;
-        //use concurrentHashMap instead of HashMap cuz it's safer than the latter
-        //when facing multiple threads
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * in the order chosen by the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy a fresh policy instance, owned by this buffer pool from now on
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this.numPages=numPages;
+        idToPage=new ConcurrentHashMap<>(numPages);
+        this.policy = policy;  //used to evict page
+        manager = new LockManager(); //create a lock manager
+    }
 
-        public LockManager(){
-            pageLocks = new ConcurrentHashMap<PageId,ConcurrentHashMap<TransactionId,Lock>>();
-        }
+    /**
+     * Switch between NO STEAL (the default) and STEAL buffer management.
+     * <p>
+     * Under NO STEAL a dirty page never leaves the pool before its
+     * transaction commits, so a transaction may dirty at most numPages pages.
+     * Under STEAL, when no clean page can be evicted, evictPage() logs the
+     * before and after image of a dirty page with {@link LogFile#logWrite},
+     * forces the log and writes the page out. Aborting such a transaction
+     * then rolls the stolen pages back with {@link LogFile#rollback}, so its
+     * BEGIN record must have been logged, i.e. it must have been started
+     * through {@link Transaction#start}.
+     */
+    public void setSteal(boolean steal) {
+        this.steal = steal;
+    }
 
-        public synchronized boolean acqureLock(PageId pid,TransactionId tid,int lockType)
-                throws TransactionAbortedException {
-            if(pageLocks.get(pid)==null){  // no exsisting locks, create newPageLock and return ture
-                Lock newLock = new Lock(tid,lockType);
-                ConcurrentHashMap<TransactionId,Lock> newPageLock = new ConcurrentHashMap<>();
-                newPageLock.put(tid,newLock);
-                pageLocks.put(pid,newPageLock);
-                return true;
-            }
-            //if there's locks already
-            ConcurrentHashMap<TransactionId,Lock> nowPageLock = pageLocks.get(pid);
-
-            if(nowPageLock.get(tid)==null){   //no locks from tid
-                if(nowPageLock.size()>1){  //exists locks from other transactions
-                    if(lockType == Lock.SHARE){
-                        Lock newLock = new Lock(tid,lockType); //if requring a read lock
-                        nowPageLock.put(tid,newLock);
-                        pageLocks.put(pid,nowPageLock);
-                        return true;
-                    }
-                    else{  //requiring a write lock
-                        return false;
-                    }
-                }
-                else if(nowPageLock.size()==1){  //only one other lock,could be a read or write lock
-                    Lock existLock = null;
-                    for(Lock lock:nowPageLock.values())
-                        existLock = lock;
-                    if(existLock.getType() == Lock.SHARE){  // if it is a read lock
-                        if(lockType == Lock.SHARE){// require a read lock too, return true
-                            Lock newLock = new Lock(tid,lockType);
-                            nowPageLock.put(tid,newLock);
-                            pageLocks.put(pid,nowPageLock);
-                            return true;
-                        }
-                        else if(lockType == Lock.EXCLUSIVE){
-                            return false;
-                        }
-                    }
-                    else if(existLock.getType() == Lock.EXCLUSIVE){ //some transaction is writing this page
-                        return false;
-                    }
-                }
-            }
-            else{
-                Lock preLock = nowPageLock.get(tid);
-                if(preLock.getType() == Lock.SHARE){  //if previous lock is a read lock
-                    if(lockType == Lock.SHARE){ //and require a read lock too
-                        return true;
-                    }
-                    else{ // if want a write lock
-                        if(nowPageLock.size() == 1){ // if only this tid hold a lock,we could update it
-                            preLock.setType(Lock.EXCLUSIVE);
-                            nowPageLock.put(tid,preLock);
-                            return true;
-                        }
-                        else{
-                            throw new TransactionAbortedException();
-                        }
-                    }
-                }
+    /** @return true if evictPage() may write out uncommitted pages */
+    public boolean isSteal() {
+        return steal;
+    }
 
-                else if(preLock.getType() == Lock.EXCLUSIVE){ //the previous one is a write lock
-                    //means no other locks on this page
-                    return true;
-                }
-            }
-            return false;
-        }
+    /**
+     * Start a background {@link PageCleaner} that writes dirty pages back
+     * until cleanFraction of the frames are clean, so that evictPage() does
+     * not have to write pages itself. Since the pages it writes belong to
+     * running transactions, this also turns on STEAL mode.
+     *
+     * @param cleanFraction fraction of the frames to keep clean, in [0, 1]
+     * @param ioThreads number of threads writing pages
+     * @return the running cleaner, for its metrics
+     */
+    public synchronized PageCleaner startCleaner(double cleanFraction, int ioThreads) {
+        if (cleaner != null)
+            throw new IllegalStateException("cleaner already running");
+        steal = true;
+        cleaner = new PageCleaner(this, cleanFraction, ioThreads);
+        return cleaner;
+    }
 
-        public synchronized boolean holdsLock(TransactionId tid,PageId pid){
-            if(pageLocks.get(pid) == null){
-                return false;
-            }
-            ConcurrentHashMap<TransactionId,Lock> nowPageLock = pageLocks.get(pid);
-            if(nowPageLock.get(tid) == null){
-                return false;
-            }
-            return true;
+    /**
+     * Stop the background cleaner, if any, after its queued writes have landed.
+     * STEAL mode stays on.
+     */
+    public void stopCleaner() {
+        PageCleaner c = cleaner;
+        if (c != null) {
+            c.shutdown();  //not under this monitor, the cleaner thread may be waiting for it
+            cleaner = null;
         }
+    }
 
-        public  synchronized boolean releaseLock(TransactionId tid,PageId pid){
-            if(holdsLock(tid,pid)){
-                ConcurrentHashMap<TransactionId,Lock> nowPageLock = pageLocks.get(pid);
-                nowPageLock.remove(tid);
-                if(nowPageLock.size() == 0){
-                    pageLocks.remove(pid);
-                }
-                this.notifyAll();
-                return true;
+    /** @return the running background cleaner, or null */
+    public PageCleaner getCleaner() {
+        return cleaner;
+    }
 
-            }
+    /** @return the replacement policy this buffer pool evicts with */
+    public ReplacementPolicy getReplacementPolicy() {
+        return policy;
+    }
+
+    /** @return the number of getPage() calls served from the cache */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of getPage() calls that had to read the page from disk */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of pages read ahead by the {@link Prefetcher} that made it into the pool */
+    public long getPrefetchCount() {
+        return prefetched.get();
+    }
+
+    /**
+     * Install a page read ahead of a scan, without any lock. The page is
+     * dropped if it is cached already, if a page was written since it was read
+     * (so it might be stale), or if making room would mean writing a dirty
+     * page.
+     *
+     * @param page the page read from disk
+     * @param writesBefore {@link DbFileChannel#getWriteCount()} before the read
+     * @param strategy the ring of the scan the page is read for, or null
+     * @return true if the page was installed
+     */
+    synchronized boolean installPrefetched(Page page, long writesBefore, BufferAccessStrategy strategy) {
+        PageId pid = page.getId();
+        if (idToPage.containsKey(pid) || DbFileChannel.getWriteCount() != writesBefore)
             return false;
+        if (idToPage.size() >= numPages && !reuseRingFrame(strategy)) {
+            PageId victim = policy.chooseVictim(cleanPages);
+            if (victim == null)
+                return false;
+            idToPage.remove(victim);
+            ringPages.remove(victim);
         }
+        idToPage.put(pid, page);
+        policy.pageAdded(pid);
+        addToRing(pid, strategy);
+        prefetched.incrementAndGet();
+        return true;
+    }
 
-        public synchronized boolean TransactonCommitted(TransactionId tid){ // when a transaction completes,release all the locks
-            for(PageId pid : pageLocks.keySet()){
-                releaseLock(tid,pid);
-            }
-            return true;
+    private synchronized void recordHit(PageId pid) {
+        if (idToPage.containsKey(pid)) {
+            policy.pageAccessed(pid);
+            ringPages.remove(pid);  //wanted outside the bulk operation, keep it
         }
-
     }
 
-    private LockManager manager;
-
-    public BufferPool(int numPages) {
-        // some code goes here
-        this.numPages=numPages;
-        idToPage=new ConcurrentHashMap<>(numPages);
-        recentUsedPages = new LinkedList<Page>();  //used to evict page
-        manager = new LockManager(); //create a lock manager
+    /**
+     * Free the frame of the oldest page in strategy's ring, if that page is
+     * still the ring's, clean and cached.
+     * @return true if a frame was freed
+     */
+    private synchronized boolean reuseRingFrame(BufferAccessStrategy strategy) {
+        if (strategy == null)
+            return false;
+        PageId old = strategy.oldest();
+        if (old == null || ringPages.get(old) != strategy || !idToPage.containsKey(old)
+                || !cleanPages.canEvict(old))
+            return false;
+        ringPages.remove(old);
+        idToPage.remove(old);
+        policy.pageRemoved(old);
+        return true;
     }
 
+    private synchronized void addToRing(PageId pid, BufferAccessStrategy strategy) {
+        if (strategy == null)
+            return;
+        ringPages.put(pid, strategy);
+        PageId old = strategy.add(pid);
+        if (old != null && !old.equals(pid))
+            ringPages.remove(old, strategy);  //could not be reused, an ordinary page from now on
+    }
 
-    private synchronized void moveToHead(PageId pid){
+    private void recordWrite(TransactionId tid, PageId pid) {
+        addToSet(dirtiedPages, tid, pid);
+    }
 
-        String thread = Thread.currentThread().getName();
-        //System.out.println("modify from "+thread);
-        for(int i = 0;i<recentUsedPages.size();i++){
-            Page page = recentUsedPages.get(i);
-            if(page.getId().equals(pid)) {
-                recentUsedPages.remove(i);
-                recentUsedPages.add(0,page);    //find the required page,and put it at the top as the recent used page
-                break;
-            }
+    private static void addToSet(ConcurrentHashMap<TransactionId, Set<PageId>> sets, TransactionId tid, PageId pid) {
+        Set<PageId> set = sets.get(tid);
+        if (set == null) {
+            set = ConcurrentHashMap.newKeySet();
+            Set<PageId> raced = sets.putIfAbsent(tid, set);
+            if (raced != null)
+                set = raced;
         }
-        //System.out.println("done from "+thread);
+        set.add(pid);
     }
 
-    private synchronized void addRecentUsed(Page page){
-        recentUsedPages.add(0,page);
+    /**
+     * Put a page into the pool, evicting another one first if the pool is full.
+     * If a version of the page is cached already, the cached one is replaced.
+     */
+    private synchronized void cachePage(Page page) throws DbException {
+        PageId pid = page.getId();
+        if (idToPage.containsKey(pid)) {
+            idToPage.put(pid, page);
+            policy.pageAccessed(pid);
+            return;
+        }
+        addPage(page, null);
     }
 
-    private synchronized void delRecentUsed(PageId pid){
-
-        for(int i = 0;i<recentUsedPages.size();i++){
-            Page page = recentUsedPages.get(i);
-            if(pid.equals(page.getId())) {
-                recentUsedPages.remove(i);
-                break;
-            }
+    /**
+     * Put a page that is not cached into the pool. If the pool is full, the
+     * oldest page of strategy's ring makes room or else a page is evicted.
+     */
+    private synchronized void addPage(Page page, BufferAccessStrategy strategy) throws DbException {
+        PageId pid = page.getId();
+        if (idToPage.size() >= numPages && !reuseRingFrame(strategy)) {
+            evictPage();
+        }
+        idToPage.put(pid, page);
+        policy.pageAdded(pid);
+        addToRing(pid, strategy);
+    }
 
+    /**
+     * Install a page just read from disk, unless another thread got there first.
+     * @return the page that ended up in the pool
+     */
+    private synchronized Page installPage(Page newPage, BufferAccessStrategy strategy) throws DbException {
+        Page cached = idToPage.get(newPage.getId());
+        if (cached != null) {
+            if (strategy == null)
+                recordHit(cached.getId());
+            return cached;
         }
+        addPage(newPage, strategy);
+        return newPage;
     }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -234,7 +317,8 @@ public class BufferPool {
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
-     * transaction.
+     * transaction. If waiting for the lock would deadlock, the youngest
+     * transaction on the cycle is aborted instead.
      * <p>
      * The retrieved page should be looked up in the buffer pool.  If it
      * is present, it should be returned.  If it is not present, it should
@@ -247,40 +331,108 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)}
+     * on behalf of a bulk operation: a page read from disk goes through
+     * strategy's ring, and a cached page is not promoted.
+     *
+     * @param strategy the ring of the operation, or null for an ordinary access
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferAccessStrategy strategy)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        int lockType = (perm == Permissions.READ_ONLY)? Lock.SHARE : Lock.EXCLUSIVE;
-        //only READ_ONLY stands for a shared lock
-        long begin = System.currentTimeMillis();
-        boolean ifAcquired = false;
-        while (!ifAcquired){
-            ifAcquired = manager.acqureLock(pid,tid,lockType);
-            long rightNow = System.currentTimeMillis();
-            if(rightNow - begin > 500) {  //timeout policy
-                //System.out.println("time out"+begin+"  "+rightNow);
-                throw new TransactionAbortedException();
-            }
-        }
+        manager.acquireLock(tid,pid,perm);  //blocks until granted, throws if chosen as a deadlock victim
+        if(perm == Permissions.READ_WRITE)
+            recordWrite(tid,pid);  //only a write lock lets the caller dirty the page
 
 //----------------before lab4 -----------------------------------------
-        if(idToPage.containsKey(pid)){    //if Page pid does exist, return the page
-            int index = 0;          //if the Page exists, then the list recentUsedPages must contain it too
-            //moveToHead(pid);
-            return idToPage.get(pid);
+        CountDownLatch reading;
+        while (true) {
+            Page page = idToPage.get(pid);
+            if(page != null){    //if Page pid does exist, return the page
+                hits.incrementAndGet();
+                if(strategy == null)
+                    recordHit(pid);
+                return page;
+            }
+            reading = startRead(pid);
+            if(reading != null)
+                break;
+            awaitRead(pid);  //a scan's read-ahead or another thread is reading it already
         }
-        else {
+        try {
+            Page page = idToPage.get(pid);
+            if(page != null){    //installed before we registered
+                hits.incrementAndGet();
+                if(strategy == null)
+                    recordHit(pid);
+                return page;
+            }
+            misses.incrementAndGet();
             DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
             Page newPage =  file.readPage(pid);  //use the abstract class Page
-            if(idToPage.size() >= numPages){
-                // Using LRU algorithm to evict the last used Page
-                evictPage();
+            //When there's no valid page in BufferPool, find it in the disk and put it into BufferPool
+            return installPage(newPage, strategy);
+        } finally {
+            endRead(pid, reading);
+        }
+    }
+
+    /** @return a latch to count down once pid is read, or null if somebody else reads it */
+    private CountDownLatch startRead(PageId pid) {
+        CountDownLatch mine = new CountDownLatch(1);
+        return pendingReads.putIfAbsent(pid, mine) == null ? mine : null;
+    }
+
+    private void endRead(PageId pid, CountDownLatch reading) {
+        pendingReads.remove(pid, reading);
+        reading.countDown();
+    }
+
+    private void awaitRead(PageId pid) {
+        CountDownLatch other = pendingReads.get(pid);
+        if (other == null)
+            return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                other.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
             }
-            idToPage.put(pid,newPage);  //When there's no valid page in BufferPool, find it in the disk and put it into BufferPool
-            //recentUsedPages.add(0,newPage);  //add the new Page to the top of the list
-            addRecentUsed(newPage);
-            String t = Thread.currentThread().getName();
-            //System.out.println("add from"+t);
-            return newPage;
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Read a page ahead of a scan and install it, without any lock.
+     *
+     * @return the cached or newly installed page, or null if it is being read
+     *         already or the read had to be dropped
+     * @see #installPrefetched
+     */
+    Page prefetchPage(DbFile file, PageId pid, BufferAccessStrategy strategy) {
+        Page cached = idToPage.get(pid);
+        if (cached != null)
+            return cached;
+        CountDownLatch reading = startRead(pid);
+        if (reading == null)
+            return null;
+        try {
+            cached = idToPage.get(pid);
+            if (cached != null)
+                return cached;
+            long writes = DbFileChannel.getWriteCount();
+            Page page = file.readPage(pid);
+            return installPrefetched(page, writes, strategy) ? page : null;
+        } finally {
+            endRead(pid, reading);
         }
     }
 
@@ -307,7 +459,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        manager.TransactonCommitted(tid);
+        manager.releaseAllLocks(tid);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -336,18 +488,22 @@ public class BufferPool {
             }
         }
         else{ //recovery
-            for(Page page : idToPage.values()){
-                PageId pid = page.getId();
-                if(tid.equals(page.isDirty())){    //if tid has modified this page,we try to recover it
+            if(stolenPages.remove(tid) != null){
+                // some of tid's updates are already on disk, undo them from the log first
+                Database.getLogFile().rollback(tid);
+            }
+            Set<PageId> dirtied = dirtiedPages.remove(tid);
+            for(PageId pid : dirtied == null ? Collections.<PageId>emptySet() : dirtied){
+                Page page = idToPage.get(pid);
+                if(page != null && tid.equals(page.isDirty())){    //if tid has modified this page,we try to recover it
                     int tableId = pid.getTableId();
                     DbFile file = Database.getCatalog().getDatabaseFile(tableId);
                     Page recoverPage = file.readPage(pid);   //reload the page
-                    idToPage.put(pid,recoverPage);
-                    recentUsedPages.add(0,recoverPage);  //reput it
+                    idToPage.put(pid,recoverPage);  //the policy already tracks pid, so just swap the frame
                 }
             }
         }
-        manager.TransactonCommitted(tid);
+        manager.releaseAllLocks(tid);
     }
 
     /**
@@ -366,21 +522,27 @@ public class BufferPool {
      * @param t the tuple to add
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        insertTuple(tid, tableId, t, null);
+    }
+
+    /**
+     * Add a tuple to the specified table like {@link #insertTuple(TransactionId, int, Tuple)}
+     * as part of a bulk insert. The pages a HeapFile searches for free space
+     * go through strategy's ring.
+     *
+     * @param strategy the ring of the bulk insert, or null
+     */
+    public void insertTuple(TransactionId tid, int tableId, Tuple t, BufferAccessStrategy strategy)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         DbFile table =  Database.getCatalog().getDatabaseFile(tableId);  //modified in lab5, use DbFile instead of HeapFile
-        ArrayList<Page> affectedPages = table.insertTuple(tid,t);
+        ArrayList<Page> affectedPages = strategy != null && table instanceof HeapFile
+                ? ((HeapFile) table).insertTuple(tid, t, strategy) : table.insertTuple(tid, t);
         for(Page page : affectedPages){
             page.markDirty(true, tid);
-            if (idToPage.size() == numPages) {
-                evictPage();          //when bufferpool is full, evict page
-            }
-            if(idToPage.containsKey(page.getId())){  //if map contains the page already ,we connot simply add page to the list
-                delRecentUsed(page.getId());
-            }
-            idToPage.put(page.getId(), page);
-
-            recentUsedPages.add(0,page);
+            recordWrite(tid, page.getId());
+            cachePage(page);  //evicts a clean page first when the bufferpool is full
         }
         // not necessary for lab1
     }
@@ -406,14 +568,8 @@ public class BufferPool {
         ArrayList<Page> affectedPages = table.deleteTuple(tid,t);
         for(Page page : affectedPages){
             page.markDirty(true, tid);
-            if (idToPage.size() == numPages) {
-                evictPage();
-            }
-            if(idToPage.containsKey(page.getId())){  //if map contains the page already ,we connot simply add page to the list
-               delRecentUsed(page.getId());
-            }
-            idToPage.put(page.getId(), page);
-            recentUsedPages.add(0,page);
+            recordWrite(tid, page.getId());
+            cachePage(page);  //evicts a clean page first when the bufferpool is full
         }
         // not necessary for lab1
     }
@@ -426,12 +582,14 @@ public class BufferPool {
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
-        for(Map.Entry<PageId , Page> entry : idToPage.entrySet()){
-            Page page = entry.getValue();
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for(Page page : idToPage.values()){
             if(page.isDirty()!=null){
-                flushPage(page.getId());
+                dirty.add(page);
             }
         }
+        flushPages(dirty);
+        // keep dirtiedPages, committing transactions still have to refresh the before images
         // not necessary for lab1
 
     }
@@ -447,8 +605,10 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        awaitWriteBack(pid);  //a late background write would overwrite whatever the caller writes next
         idToPage.remove(pid);   // delete this page
-        delRecentUsed(pid);
+        policy.pageRemoved(pid);
+        ringPages.remove(pid);
     }
 
     /**
@@ -458,23 +618,111 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         Page dirty_page =idToPage.get(pid);
-        DbFile table =  Database.getCatalog().getDatabaseFile(pid.getTableId());
-        table.writePage(dirty_page);  //write any dirty page to disk and mark it as not dirty, while leaving it in the BufferPool
-        dirty_page.markDirty(false, null);
+        if(dirty_page != null)
+            flushPages(Collections.singletonList(dirty_page));
         // not necessary for lab1
     }
 
+    /**
+     * Write ahead: log an UPDATE record for every dirty page, force the log
+     * once, then write the pages and mark them clean while leaving them in
+     * the BufferPool.
+     */
+    private synchronized void flushPages(List<Page> pages) throws IOException {
+        LogFile log = Database.getLogFile();
+        boolean logged = false;
+        for(Page page : pages){
+            TransactionId dirtier = page.isDirty();
+            if(dirtier != null){
+                log.logWrite(dirtier, page.getBeforeImage(), page);
+                logged = true;
+            }
+        }
+        if(logged)
+            log.force();
+        for(Page page : pages){
+            awaitWriteBack(page.getId());  //an older background write must not land after ours
+            DbFile table =  Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            table.writePage(page);  //write any dirty page to disk and mark it as not dirty
+            page.markDirty(false, null);
+        }
+    }
+
     /** Write all pages of the specified transaction to disk.
+     * Called when tid commits, so the written pages also become the before
+     * images later transactions are rolled back to.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        stolenPages.remove(tid);
+        Set<PageId> dirtied = dirtiedPages.remove(tid);
+        if(dirtied == null)
+            return;
+        ArrayList<Page> pages = new ArrayList<Page>();
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for(PageId pid : dirtied){
+            Page page = idToPage.get(pid);
+            if(page == null)
+                continue;  //evicted since, or discarded
+            pages.add(page);
+            if(tid.equals(page.isDirty()))
+                dirty.add(page);
+        }
+        flushPages(dirty);
+        for(Page page : pages){
+            awaitWriteBack(page.getId());  //the cleaner may have written tid's last version
+            page.setBeforeImage();
+        }
+    }
+
+    private void awaitWriteBack(PageId pid) {
+        PageCleaner c = cleaner;
+        if(c != null)
+            c.awaitWrite(pid);
+    }
+
+    /**
+     * One round of the background cleaner: log dirty pages in PageId order
+     * and queue them for writing until cleaner's fraction of the frames is
+     * clean. The pages are marked clean right away; while their write is in
+     * flight evictPage() passes them over.
+     */
+    synchronized void writeBackDirtyPages(PageCleaner c) throws IOException {
+        int clean = numPages - idToPage.size();  //free frames count as clean
+        ArrayList<Page> dirty = new ArrayList<Page>();
         for(Page page : idToPage.values()){
-            PageId pid = page.getId();
-            if(tid.equals(page.isDirty())){
-                flushPage(pid);
+            if(page.isDirty() != null){
+                if(!c.isWriting(page.getId()))
+                    dirty.add(page);
+            } else if(!c.isWriting(page.getId())){
+                clean++;
             }
         }
+        int wanted = (int) Math.ceil(c.getCleanFraction() * numPages) - clean;
+        if(wanted <= 0 || dirty.isEmpty())
+            return;
+        Collections.sort(dirty, new Comparator<Page>() {
+            public int compare(Page a, Page b) {
+                PageId p = a.getId(), q = b.getId();
+                if (p.getTableId() != q.getTableId())
+                    return p.getTableId() < q.getTableId() ? -1 : 1;
+                return Integer.compare(p.getPageNumber(), q.getPageNumber());
+            }
+        });
+        List<Page> batch = dirty.subList(0, Math.min(wanted, dirty.size()));
+
+        LogFile log = Database.getLogFile();
+        for(Page page : batch){
+            log.logWrite(page.isDirty(), page.getBeforeImage(), page);
+        }
+        log.force();  //write ahead
+        for(Page page : batch){
+            TransactionId dirtier = page.isDirty();
+            c.writeBack(Database.getCatalog().getDatabaseFile(page.getId().getTableId()), page);
+            page.markDirty(false, null);
+            addToSet(stolenPages, dirtier, page.getId());
+        }
     }
 
     /**
@@ -484,21 +732,29 @@ public class BufferPool {
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        int length = recentUsedPages.size()-1;
-        while (recentUsedPages.get(length).isDirty()!=null){  //NO STEAL policy
-            length--;  //if it is a dirty page,do not evict it
-            if(length<0)
-                throw new DbException("all pages are dirty");
+        PageId victim = policy.chooseVictim(cleanPages);  //a clean page costs no I/O
+        if(victim == null && steal)
+            victim = policy.chooseVictim(anyPage);
+        if(victim == null)
+            throw new DbException("all pages are dirty");  //NO STEAL policy, never evict a dirty page
+        PageCleaner c = cleaner;
+        if(c != null){
+            c.wakeUp();  //frames are being taken, keep ahead of the next evictions
+            c.awaitWrite(victim);
         }
-        Page page = recentUsedPages.remove(length);
-        /*Page page = recentUsedPages.removeLast();  //find the last used page
-        try{
-            flushPage(page.getId());    //flush this page to the disk
-        }catch (IOException e){
-            e.printStackTrace();
-        }*/
-        discardPage(page.getId());   //remove it from the BufferPool
-
+        Page page = idToPage.get(victim);
+        TransactionId dirtier = page == null ? null : page.isDirty();
+        if(dirtier != null){
+            try {
+                flushPage(victim);  //logs the before image and forces the log first
+            } catch (IOException e) {
+                policy.pageAdded(victim);  //still cached
+                throw new DbException("could not steal page " + victim + ": " + e.getMessage());
+            }
+            addToSet(stolenPages, dirtier, victim);
+        }
+        idToPage.remove(victim);   //remove it from the BufferPool, the policy has already forgotten it
+        ringPages.remove(victim);
     }
 
 }
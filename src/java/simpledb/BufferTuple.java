@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * BufferTuple is a Tuple that does not hold Field objects but points at a
+ * tuple serialized in a byte buffer, such as a slot of a HeapPage or a
+ * SlottedHeapPage. Fields
+ * are read from the buffer when asked for, and getInt() and getStringBytes()
+ * read them without creating a Field at all.
+ * <p>
+ * A BufferTuple is a flyweight: an iterator that was allowed to reuse tuples
+ * (see {@link OpIterator#setReuseTuples}) points the same BufferTuple at
+ * every row it returns, so a scan allocates nothing per row. Callers that
+ * want to keep a row past the next call take a {@link #copy()}. A
+ * BufferTuple is read-only.
+ * <p>
+ * A BufferTuple can show only some columns of the tuples it points at; the
+ * others are skipped over and never decoded.
+ */
+public class BufferTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TupleDesc recordTd;  //of the serialized tuples
+    private final int[] columns;  //the fields of recordTd this tuple shows
+    private final int[] fieldOffsets;  //where each field of recordTd starts, relative to offset
+    private final int[] columnOffsets;  //where each field shown starts, if fixedLength
+    private final boolean fixedLength;  //else fieldOffsets are worked out for every tuple
+    private byte[] data;
+    private int offset;
+    private PageId pid;
+    private int slot;
+
+    /**
+     * @param td the schema of the tuples this BufferTuple will point at
+     */
+    public BufferTuple(TupleDesc td) {
+        this(td, null);
+    }
+
+    /**
+     * @param td the schema of the tuples this BufferTuple will point at
+     * @param columns the fields of td that this tuple has, in order, or null
+     *            for all of them
+     */
+    public BufferTuple(TupleDesc td, int[] columns) {
+        super(columns == null ? td : td.project(columns));
+        this.recordTd = td;
+        this.columns = columns;
+        fieldOffsets = new int[td.numFields()];
+        fixedLength = td.isFixedLength();
+        for (int i = 1; i < fieldOffsets.length; i++)
+            fieldOffsets[i] = fieldOffsets[i - 1] + td.getFieldType(i - 1).getLen();
+        columnOffsets = new int[getTupleDesc().numFields()];
+        for (int i = 0; i < columnOffsets.length; i++)
+            columnOffsets[i] = fieldOffsets[column(i)];
+    }
+
+    /** @return the field of the serialized tuple that field i of this one is */
+    private int column(int i) {
+        return columns == null ? i : columns[i];
+    }
+
+    /**
+     * @return where each field of this tuple starts within a serialized
+     *         tuple, for a fixed-length TupleDesc
+     */
+    int[] getColumnOffsets() {
+        return columnOffsets;
+    }
+
+    /**
+     * Point this tuple at the one serialized at data[offset].
+     *
+     * @param pid the page the tuple is on, or null if it is not on a page
+     * @param slot the slot of the tuple on pid
+     */
+    public void reset(byte[] data, int offset, PageId pid, int slot) {
+        this.data = data;
+        this.offset = offset;
+        this.pid = pid;
+        this.slot = slot;
+        if (!fixedLength) {
+            for (int i = 1; i < fieldOffsets.length; i++)
+                fieldOffsets[i] = fieldOffsets[i - 1] + recordTd.getFieldType(i - 1).getLen(data, offset + fieldOffsets[i - 1]);
+        }
+    }
+
+    /** @return the RecordId of the tuple pointed at, or null if it is not on a page */
+    public RecordId getRecordId() {
+        return pid == null ? null : new RecordId(pid, slot);
+    }
+
+    public void setRecordId(RecordId rid) {
+        throw new UnsupportedOperationException("BufferTuple is read-only");
+    }
+
+    public void setField(int i, Field f) {
+        throw new UnsupportedOperationException("BufferTuple is read-only");
+    }
+
+    public void resetTupleDesc(TupleDesc td) {
+        throw new UnsupportedOperationException("BufferTuple is read-only");
+    }
+
+    public Field getField(int i) {
+        return getTupleDesc().getFieldType(i).parse(data, offset + fieldOffsets[column(i)]);
+    }
+
+    public int getInt(int i) {
+        return Type.readInt(data, offset + fieldOffsets[column(i)]);
+    }
+
+    public byte[] getStringBytes(int i) {
+        int start = offset + fieldOffsets[column(i)];
+        return Arrays.copyOfRange(data, start + 4, start + 4 + Type.readInt(data, start));
+    }
+
+    public Iterator<Field> fields() {
+        return new Iterator<Field>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < columnOffsets.length;
+            }
+
+            public Field next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getField(next++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
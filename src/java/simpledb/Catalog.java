@@ -147,14 +147,38 @@ public class Catalog {
         return null;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for (Table table : idToTable.values()) {
+            try {
+                table.file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         idToTable.clear();
         nameToId.clear();
         idToPkey.clear();
     }
     
+    /**
+     * @return n if type is "varchar(n)" with n from 1 up to Type.STRING_LEN,
+     *         Type.STRING_LEN if it is "varchar", or -1 if it is neither
+     */
+    static int varcharLength(String type) {
+        if (type.equals("varchar"))
+            return Type.STRING_LEN;
+        if (!type.startsWith("varchar(") || !type.endsWith(")"))
+            return -1;
+        try {
+            int n = Integer.parseInt(type.substring("varchar(".length(), type.length() - 1));
+            return n > 0 && n <= Type.STRING_LEN ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
      * @param catalogFile
@@ -169,18 +193,24 @@ public class Catalog {
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
+                int[] lengths = new int[els.length];
                 String primaryKey = "";
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
+                    lengths[types.size()] = Type.STRING_LEN;
                     if (els2[1].trim().toLowerCase().equals("int"))
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (varcharLength(els2[1].trim().toLowerCase()) > 0) {
+                        lengths[types.size()] = varcharLength(els2[1].trim().toLowerCase());
+                        types.add(Type.VARCHAR_TYPE);
+                    }
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -196,7 +226,7 @@ public class Catalog {
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
+                TupleDesc t = new TupleDesc(typeAr, namesAr, lengths);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CLOCK (second chance) replacement. Cached pages sit on a circular list with
+ * a reference bit each; a hit only sets the bit, and the clock hand sweeps the
+ * ring clearing bits until it finds an unreferenced, evictable page.
+ * Hits, inserts and removals are O(1); a victim search is O(1) amortized.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        boolean referenced;
+        Frame prev, next;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+            this.referenced = true;
+        }
+    }
+
+    private final HashMap<PageId, Frame> frames = new HashMap<PageId, Frame>();
+    private Frame hand;  //next frame the clock hand looks at
+
+    public void pageAdded(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null) {
+            f.referenced = true;
+            return;
+        }
+        f = new Frame(pid);
+        frames.put(pid, f);
+        if (hand == null) {
+            f.prev = f;
+            f.next = f;
+            hand = f;
+        } else {
+            // link the new frame just behind the hand so it is the last one visited
+            f.next = hand;
+            f.prev = hand.prev;
+            hand.prev.next = f;
+            hand.prev = f;
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null)
+            f.referenced = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Frame f = frames.remove(pid);
+        if (f != null)
+            unlink(f);
+    }
+
+    public PageId chooseVictim(EvictionFilter filter) {
+        // two full turns clear every reference bit, after that every frame has been offered once
+        int budget = 2 * frames.size() + 1;
+        while (hand != null && budget-- > 0) {
+            Frame f = hand;
+            hand = hand.next;
+            if (f.referenced) {
+                f.referenced = false;
+            } else if (filter.canEvict(f.pid)) {
+                frames.remove(f.pid);
+                unlink(f);
+                return f.pid;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return frames.size();
+    }
+
+    private void unlink(Frame f) {
+        if (f.next == f) {
+            hand = null;
+        } else {
+            if (hand == f)
+                hand = f.next;
+            f.prev.next = f.next;
+            f.next.prev = f.prev;
+        }
+        f.prev = null;
+        f.next = null;
+    }
+}
@@ -28,6 +28,14 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Release the file handle this DbFile keeps open. Reading or writing
+     * pages afterwards opens it again.
+     *
+     * @throws IOException if closing the handle fails
+     */
+    public void close() throws IOException;
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DbFileChannel is the one long-lived handle a DbFile keeps on its backing
+ * file. Reads and writes are positional, so concurrent readers do not
+ * serialize on a shared seek pointer.
+ * <p>
+ * The channel is opened on first use and again after {@link #close}, or
+ * after an interrupted thread made the JVM close it under everybody's feet.
+ * <p>
+ * In memory-mapped mode reads are served from read-only mappings of the
+ * file in segments of {@link #SEGMENT_SIZE} bytes, without a system call per
+ * page; writes still go through the channel, which the mappings see. A read
+ * past the mapped end of the file maps the part the file has grown by.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    /** Bytes mapped per segment in memory-mapped mode */
+    public static final int SEGMENT_SIZE = 1 << 26;
+
+    /** The mapped segments and how many bytes of the file they cover */
+    private static class Mapping {
+        final MappedByteBuffer[] segments;
+        final long size;
+
+        Mapping(MappedByteBuffer[] segments, long size) {
+            this.segments = segments;
+            this.size = size;
+        }
+    }
+
+    private static final Mapping UNMAPPED = new Mapping(new MappedByteBuffer[0], 0);
+
+    // page writes to any file so far, see getWriteCount()
+    private static final AtomicLong writes = new AtomicLong(0);
+
+    private final File file;
+    private FileChannel channel;  //guarded by this
+    private volatile boolean mapped = false;
+    private volatile Mapping mapping = UNMAPPED;
+
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        return channel;
+    }
+
+    /**
+     * Switch reads between the OS page cache through mmap and positional reads.
+     */
+    public synchronized void setMapped(boolean mapped) {
+        this.mapped = mapped;
+        if (!mapped)
+            mapping = UNMAPPED;  //the segments are unmapped once collected
+    }
+
+    /** @return true if reads are served from mappings of the file */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Reads data.length bytes starting at position, or fewer if the file
+     * ends first.
+     *
+     * @return the number of bytes read, -1 if position is at or past the end of the file
+     */
+    public int read(byte[] data, long position) throws IOException {
+        if (mapped)
+            return readMapped(data, position);
+        try {
+            return readFully(channel(), data, position);
+        } catch (ClosedChannelException e) {
+            return readFully(channel(), data, position);  //closed by someone else, reopen once
+        }
+    }
+
+    private static int readFully(FileChannel ch, byte[] data, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            if (n < 0)
+                break;
+        }
+        return buf.position() == 0 && data.length > 0 ? -1 : buf.position();
+    }
+
+    private int readMapped(byte[] data, long position) throws IOException {
+        Mapping m = mapping;
+        if (position + data.length > m.size)
+            m = remap();
+        int off = 0;
+        long p = position;
+        while (off < data.length && p < m.size) {
+            // a page may straddle two segments
+            ByteBuffer seg = m.segments[(int) (p / SEGMENT_SIZE)].duplicate();
+            seg.position((int) (p % SEGMENT_SIZE));
+            int n = Math.min(data.length - off, seg.remaining());
+            seg.get(data, off, n);
+            off += n;
+            p += n;
+        }
+        return off == 0 && data.length > 0 ? -1 : off;
+    }
+
+    /** Map whatever the file has grown by since the last mapping. */
+    private synchronized Mapping remap() throws IOException {
+        FileChannel ch = channel();
+        long size = ch.size();
+        Mapping old = mapping;
+        if (size <= old.size)
+            return old;
+        int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i * SEGMENT_SIZE;
+            long length = Math.min(SEGMENT_SIZE, size - start);
+            if (i < old.segments.length && old.segments[i].capacity() == length)
+                segments[i] = old.segments[i];  //still complete
+            else
+                segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        mapping = new Mapping(segments, size);
+        return mapping;
+    }
+
+    /** Writes all of data starting at position, growing the file if needed. */
+    public void write(byte[] data, long position) throws IOException {
+        try {
+            writeFully(channel(), data, position);
+        } catch (ClosedChannelException e) {
+            writeFully(channel(), data, position);
+        }
+        writes.incrementAndGet();
+    }
+
+    /**
+     * @return the number of writes completed through any DbFileChannel. A
+     *         page read while this number did not change cannot be older
+     *         than the file.
+     */
+    public static long getWriteCount() {
+        return writes.get();
+    }
+
+    private static void writeFully(FileChannel ch, byte[] data, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining())
+            ch.write(buf, position + buf.position());
+    }
+
+    /**
+     * Cuts the file down to size bytes, if it is longer.
+     */
+    public synchronized void truncate(long size) throws IOException {
+        mapping = UNMAPPED;  //a mapping past the end of the file faults on access
+        channel().truncate(size);
+    }
+
+    /** Closes the handle; the next read or write opens the file again. */
+    public synchronized void close() throws IOException {
+        mapping = UNMAPPED;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
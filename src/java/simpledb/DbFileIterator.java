@@ -27,6 +27,19 @@ public interface DbFileIterator{
     public Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Appends the next tuples to an empty batch until it is full or there are
+     * no more. An iterator is read with next() or fillBatch(), not both.
+     *
+     * @return false if there were no more tuples
+     */
+    default boolean fillBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        while (!batch.isFull() && hasNext())
+            batch.add(next());
+        return batch.size() > 0;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
@@ -20,6 +20,7 @@ public class Filter extends Operator {
      */
     private Predicate p;
     private OpIterator child;
+    private transient int[] selected;  //positions of the rows of a batch that pass
 
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
@@ -37,6 +38,11 @@ public class Filter extends Operator {
         return child.getTupleDesc();
     }
 
+    /** Filter hands on the child's tuples themselves, so the child may reuse them when the parent allows it. */
+    public void setReuseTuples(boolean reuse) {
+        child.setReuseTuples(reuse);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
@@ -76,6 +82,24 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Narrows the child's batches to the rows that pass the predicate,
+     * skipping batches where none do.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            if (selected == null || selected.length < b.size())
+                selected = new int[b.getCapacity()];
+            int count = p.filter(b, selected);
+            if (count > 0) {
+                b.select(selected, count);
+                return b;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
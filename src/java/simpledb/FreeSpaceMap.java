@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap remembers roughly how much room each page of a HeapFile has
+ * left, so that an insert can go straight to a page with room instead of
+ * fetching every page of the file to look.
+ * <p>
+ * Every page gets one byte, a category: 0 if nothing is known about the
+ * page, 1 if it is full, and 2 to 255 for the fraction of the page that is
+ * free. The map lives in memory and in a side file next to the table, one
+ * byte per page at the page's number. The side file is only updated when the
+ * page itself is written, so it matches the data on disk; a missing or short
+ * side file just leaves pages unknown. Since the map is only a hint, callers
+ * check the page they are sent to and correct the map if it was wrong. The
+ * side file of a table in the temporary directory is not kept past the JVM.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Category of a page nothing is known about */
+    public static final int UNKNOWN = 0;
+    /** Category of a full page */
+    public static final int FULL = 1;
+
+    private final File file;
+    private final DbFileChannel side;
+    private byte[] categories;  //guarded by this, null until loaded
+    private byte[] stored;  //what the side file holds, guarded by this
+    private int hint = 0;  //no page below this one may have room, guarded by this
+
+    /**
+     * @param file the side file to keep the map in, created when the first
+     *        page is written. A side file in the temporary directory, next to
+     *        a scratch table, is deleted when the JVM exits.
+     */
+    public FreeSpaceMap(File file) {
+        this.file = file;
+        this.side = new DbFileChannel(file);
+        if (isTemporary(file))
+            file.deleteOnExit();  //the map is only a hint, nothing is lost
+    }
+
+    /** @return true if f is in the directory temporary files are created in */
+    private static boolean isTemporary(File f) {
+        File dir = f.getAbsoluteFile().getParentFile();
+        return dir != null && dir.equals(new File(System.getProperty("java.io.tmpdir")).getAbsoluteFile());
+    }
+
+    /** @return the side file the map of the given table file is kept in */
+    public static File sideFile(File table) {
+        return new File(table.getPath() + ".fsm");
+    }
+
+    /**
+     * @param free free space left on the page
+     * @param capacity free space of an empty page, in the same unit
+     * @return the category of a page with free out of capacity units free
+     */
+    public static int category(int free, int capacity) {
+        if (free <= 0)
+            return FULL;
+        return 2 + (int) ((long) (free - 1) * 253 / capacity);
+    }
+
+    private void load() throws IOException {
+        if (categories != null)
+            return;
+        byte[] data = new byte[file.exists() ? (int) file.length() : 0];
+        int length = data.length == 0 ? 0 : Math.max(side.read(data, 0), 0);
+        stored = Arrays.copyOf(data, length);
+        categories = stored.clone();
+    }
+
+    private static byte[] grow(byte[] array, int index) {
+        return index < array.length ? array : Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+    }
+
+    private void set(int pageNo, int category) {
+        categories = grow(categories, pageNo);
+        categories[pageNo] = (byte) category;
+        if (category != FULL && pageNo < hint)
+            hint = pageNo;
+    }
+
+    private int get(int pageNo) {
+        return pageNo < categories.length ? categories[pageNo] & 0xff : UNKNOWN;
+    }
+
+    /**
+     * Find the first page that may have room for needed units: one that has
+     * at least that category or that nothing is known about.
+     *
+     * @param needed free space the caller needs, in the unit of capacity
+     * @param capacity free space of an empty page
+     * @param numPages number of pages in the file
+     * @return a page number below numPages, or -1 if every page is known to be too full
+     */
+    public synchronized int findPage(int needed, int capacity, int numPages) throws IOException {
+        load();
+        int wanted = category(needed, capacity);
+        boolean skipping = true;
+        for (int i = hint; i < numPages; i++) {
+            int c = get(i);
+            if (c == UNKNOWN || c >= wanted)
+                return i;
+            if (skipping && c == FULL)
+                hint = i + 1;  //full pages at the start are not looked at again
+            else
+                skipping = false;
+        }
+        return -1;
+    }
+
+    /**
+     * Record in memory how much room a page has left.
+     */
+    public synchronized void update(int pageNo, int free, int capacity) throws IOException {
+        load();
+        set(pageNo, category(free, capacity));
+    }
+
+    /**
+     * Record how much room a page has left, in memory and in the side file.
+     * Called when the page is written.
+     */
+    public synchronized void write(int pageNo, int free, int capacity) throws IOException {
+        load();
+        int c = category(free, capacity);
+        set(pageNo, c);
+        if (pageNo < stored.length && (stored[pageNo] & 0xff) == c)
+            return;  //on disk already
+        side.write(new byte[] { (byte) c }, pageNo);
+        stored = grow(stored, pageNo);
+        stored[pageNo] = (byte) c;
+    }
+
+    /** @return the category recorded for a page */
+    public synchronized int getCategory(int pageNo) throws IOException {
+        load();
+        return get(pageNo);
+    }
+
+    /** Closes the side file; it is opened again when needed. */
+    public void close() throws IOException {
+        side.close();
+    }
+}
@@ -0,0 +1,558 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashAggregator computes any number of aggregates over int fields, and
+ * COUNT over fields of any type, in a single pass, grouped by one field or
+ * not at all.
+ * <p>
+ * Groups live in {@link AggregateHashTable}s, one per partition of a hash of
+ * the group key, with a row count and one long accumulator per aggregate.
+ * While the groups do not fit in the memory budget, the partition with the
+ * most groups is spilled: its partial aggregates are written to a temporary
+ * file, and so is every later row of the partition, as a group of one row.
+ * When the results are read, each spilled file is aggregated by a
+ * HashAggregator of its own, which partitions again by a different hash if
+ * the groups still do not fit.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pages of memory the groups may take by default */
+    public static final int DEFAULT_MEMORY_PAGES = 1000;
+
+    /** Most partitions the groups are split into */
+    public static final int MAX_PARTITIONS = 64;
+
+    /**
+     * Levels of partitioning after which a partition is kept in memory
+     * whatever its size
+     */
+    static final int MAX_LEVEL = 6;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int[] afields;
+    private final Op[] ops;
+    private final boolean stringKeys;
+    private final int level;  //0, or 1 + the level of the aggregator whose spilled partition this aggregates
+    private long memoryBudget;  //bytes
+    private final TupleDesc td;
+    private final TupleDesc stateTd;  //a partial group: key, row count and accumulators, each long as two ints
+
+    private transient AggregateHashTable[] tables = null;  //per partition, null once it is spilled
+    private transient SpillFile[] files = null;  //per partition, null unless it was spilled
+    private transient long bytes;  //taken by the groups in memory
+    private transient byte[] key;  //the string key of the row being merged
+    private transient int hash;  //its hash, or the int key
+
+    /**
+     * Constructor.
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field, or null if there is no
+     *            grouping
+     * @param afields
+     *            the 0-based index of the field of each aggregate
+     * @param ops
+     *            the operator of each aggregate; only COUNT may be over a
+     *            field that is not an int
+     * @throws IllegalArgumentException
+     *             for SC_AVG, or if there are no aggregates
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int[] afields, Op[] ops) {
+        this(gbfield, gbfieldtype, afields, ops, 0, (long) DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    private HashAggregator(int gbfield, Type gbfieldtype, int[] afields, Op[] ops, int level, long memoryBudget) {
+        if (afields.length != ops.length || ops.length == 0)
+            throw new IllegalArgumentException("one field per aggregate is needed");
+        for (Op op : ops)
+            if (op == Op.SC_AVG)
+                throw new IllegalArgumentException("unsupported aggregate " + op);
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afields = afields;
+        this.ops = ops;
+        this.stringKeys = gbfield != NO_GROUPING && gbfieldtype != Type.INT_TYPE;
+        this.level = level;
+        this.memoryBudget = memoryBudget;
+
+        ArrayList<Type> types = new ArrayList<Type>();
+        ArrayList<String> names = new ArrayList<String>();
+        if (gbfield != NO_GROUPING) {
+            types.add(gbfieldtype);
+            names.add("groupValue");
+        }
+        for (Op op : ops) {
+            if (op == Op.SUM_COUNT) {
+                types.add(Type.INT_TYPE);
+                names.add("sum");
+                types.add(Type.INT_TYPE);
+                names.add("count");
+            } else {
+                types.add(Type.INT_TYPE);
+                names.add(ops.length == 1 ? "aggregateValue" : op.toString());
+            }
+        }
+        this.td = new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+
+        Type[] stateTypes = new Type[1 + 2 * (ops.length + 1)];
+        Arrays.fill(stateTypes, Type.INT_TYPE);
+        stateTypes[0] = gbfield == NO_GROUPING ? Type.INT_TYPE : gbfieldtype;
+        this.stateTd = new TupleDesc(stateTypes);
+    }
+
+    /** @return an aggregator of the partial groups of a spilled partition */
+    private HashAggregator spilledAggregator() {
+        return new HashAggregator(0, gbfieldtype, afields, ops, level + 1, memoryBudget);
+    }
+
+    /**
+     * Set the bytes of memory the groups may take before partitions are
+     * spilled. Takes effect before the first tuple is merged.
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /** @return the schema of the results: the group, then each aggregate, two fields for SUM_COUNT */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of partitions a budget of memoryBudget bytes is
+     *         split into: while a partition is spilled, a page of the budget
+     *         buffers its file, and they may take up to a quarter of it
+     */
+    private int partitions() {
+        long pages = memoryBudget / BufferPool.getPageSize() / 4;
+        return (int) Math.max(2, Math.min(MAX_PARTITIONS, pages));
+    }
+
+    /** @return the partition of a key at this level */
+    private int partition(int hash) {
+        return (JoinHashTable.mix(hash + (level + 1) * 0x9e3779b9) >>> 1) % tables.length;
+    }
+
+    private void init() {
+        if (tables != null)
+            return;
+        int n = gbfield == NO_GROUPING ? 1 : partitions();
+        long[] empty = new long[1 + ops.length];
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == Op.MIN)
+                empty[1 + i] = Long.MAX_VALUE;
+            else if (ops[i] == Op.MAX)
+                empty[1 + i] = Long.MIN_VALUE;
+        }
+        tables = new AggregateHashTable[n];
+        files = new SpillFile[n];
+        for (int i = 0; i < n; i++)
+            tables[i] = new AggregateHashTable(stringKeys, empty);
+        bytes = 0;
+    }
+
+    /** @return true if any partition was spilled */
+    boolean hasSpilled() {
+        if (files != null)
+            for (SpillFile f : files)
+                if (f != null)
+                    return true;
+        return false;
+    }
+
+    /** Drop the groups and spill files. */
+    void clear() {
+        if (files != null)
+            for (SpillFile f : files)
+                if (f != null)
+                    f.delete();
+        tables = null;
+        files = null;
+    }
+
+    /** Fold a value, or the accumulator of a partial group, into accumulator i of a. */
+    private static void fold(long[] a, int i, Op op, long v) {
+        switch (op) {
+        case MIN:
+            if (v < a[i])
+                a[i] = v;
+            break;
+        case MAX:
+            if (v > a[i])
+                a[i] = v;
+            break;
+        case COUNT:  //the row count is all it needs
+            break;
+        default:  //SUM, AVG and SUM_COUNT keep the sum
+            a[i] += v;
+        }
+    }
+
+    /** @return the group of the current key in the table of partition p */
+    private int group(int p) {
+        return stringKeys ? tables[p].group(key, hash) : tables[p].group(hash);
+    }
+
+    /**
+     * Account for a group just added to partition p, and spill the biggest
+     * partition while the groups take more than the budget.
+     */
+    private void added(int p) throws DbException {
+        bytes += AggregateHashTable.groupBytes(1 + ops.length, stringKeys ? key.length : 4);
+        if (bytes <= memoryBudget || level >= MAX_LEVEL || tables.length == 1)
+            return;
+        int victim = -1;
+        for (int i = 0; i < tables.length; i++)
+            if (tables[i] != null && (victim < 0 || tables[i].size() > tables[victim].size()))
+                victim = i;
+        AggregateHashTable table = tables[victim];
+        SpillFile file = new SpillFile(stateTd, BufferPool.getPageSize());
+        long[] a = table.accumulators();
+        int width = table.width();
+        for (int g = 0; g < table.size(); g++) {
+            file.add(state(table.key(g, gbfieldtype), a, g * width));
+            bytes -= AggregateHashTable.groupBytes(width, stringKeys ? table.stringKey(g).length : 4);
+        }
+        files[victim] = file;
+        tables[victim] = null;
+    }
+
+    /** @return a partial group, with the count and accumulators at a[base] on */
+    private Tuple state(Field key, long[] a, int base) {
+        Tuple s = new Tuple(stateTd);
+        s.setField(0, key);
+        for (int i = 0; i <= ops.length; i++)
+            setLong(s, 1 + 2 * i, a[base + i]);
+        return s;
+    }
+
+    private static void setLong(Tuple t, int i, long v) {
+        t.setField(i, new IntField((int) (v >>> 32)));
+        t.setField(i + 1, new IntField((int) v));
+    }
+
+    private static long getLong(Tuple t, int i) {
+        return ((long) t.getInt(i) << 32) | (t.getInt(i + 1) & 0xffffffffL);
+    }
+
+    /** Write a row of a spilled partition to its file, as a group of one row. */
+    private void spill(int p, Tuple tup) throws DbException {
+        Tuple s = new Tuple(stateTd);
+        s.setField(0, tup.getField(gbfield));
+        setLong(s, 1, 1);
+        for (int i = 0; i < ops.length; i++)
+            setLong(s, 3 + 2 * i, ops[i] == Op.COUNT ? 0 : tup.getInt(afields[i]));
+        files[p].add(s);
+    }
+
+    /** Set key and hash to the group key of field f of t. */
+    private void setKey(Tuple t, int f) {
+        if (stringKeys) {
+            key = t.getStringBytes(f);
+            hash = AggregateHashTable.hash(key);
+        } else {
+            hash = t.getInt(f);
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate fields and a group-by field
+     * @throws IllegalArgumentException
+     *             if the group-by field is not of the group-by type
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        init();
+        int p = 0;
+        if (gbfield == NO_GROUPING) {
+            hash = 0;
+        } else {
+            if ((tup.getTupleDesc().getFieldType(gbfield) == Type.INT_TYPE) == stringKeys)
+                throw new IllegalArgumentException("group-by field is not of type " + gbfieldtype);
+            setKey(tup, gbfield);
+            p = partition(hash);
+        }
+        try {
+            if (tables[p] == null) {
+                spill(p, tup);
+                return;
+            }
+            int size = tables[p].size();
+            int g = group(p);
+            long[] a = tables[p].accumulators();
+            int base = g * (1 + ops.length);
+            a[base]++;
+            for (int i = 0; i < ops.length; i++)
+                if (ops[i] != Op.COUNT)
+                    fold(a, base + 1 + i, ops[i], tup.getInt(afields[i]));
+            if (tables[p].size() > size)
+                added(p);
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Merge every row of a batch, reading the key and aggregate columns
+     * without creating a Tuple. Without grouping each column is folded in one
+     * loop.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int n = batch.size();
+        if (n == 0)
+            return;
+        init();
+        int width = 1 + ops.length;
+        int[] sel = batch.getSelection();
+        int[][] columns = new int[ops.length][];
+        for (int i = 0; i < ops.length; i++)
+            if (ops[i] != Op.COUNT)
+                columns[i] = batch.getIntColumn(afields[i]);
+
+        if (gbfield == NO_GROUPING) {
+            hash = 0;
+            int size = tables[0].size();
+            int base = group(0) * width;
+            long[] a = tables[0].accumulators();
+            a[base] += n;
+            for (int i = 0; i < ops.length; i++) {
+                int[] col = columns[i];
+                if (col == null)
+                    continue;
+                for (int r = 0; r < n; r++)
+                    fold(a, base + 1 + i, ops[i], col[sel == null ? r : sel[r]]);
+            }
+            if (tables[0].size() > size)
+                bytes += AggregateHashTable.groupBytes(width, 4);
+            return;
+        }
+
+        int[] intKeys = stringKeys ? null : batch.getIntColumn(gbfield);
+        Field[] fieldKeys = stringKeys ? batch.getFieldColumn(gbfield) : null;
+        try {
+            for (int r = 0; r < n; r++) {
+                int pos = sel == null ? r : sel[r];
+                if (stringKeys) {
+                    key = ((StringField) fieldKeys[pos]).getValue().getBytes();
+                    hash = AggregateHashTable.hash(key);
+                } else {
+                    hash = intKeys[pos];
+                }
+                int p = partition(hash);
+                if (tables[p] == null) {
+                    spill(p, batch.getTuple(r));
+                    continue;
+                }
+                int size = tables[p].size();
+                int base = group(p) * width;
+                long[] a = tables[p].accumulators();
+                a[base]++;
+                for (int i = 0; i < ops.length; i++)
+                    if (columns[i] != null)
+                        fold(a, base + 1 + i, ops[i], columns[i][pos]);
+                if (tables[p].size() > size)
+                    added(p);
+            }
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Merge a partial group read back from a spill file. */
+    private void mergeState(Tuple s) throws DbException {
+        init();
+        setKey(s, 0);
+        long[] state = new long[1 + ops.length];
+        for (int i = 0; i < state.length; i++)
+            state[i] = getLong(s, 1 + 2 * i);
+        mergeGroup(state, 0);
+    }
+
+    /**
+     * Merge a partial group whose key and hash are set, with its row count
+     * and accumulators at src[base] on.
+     */
+    private void mergeGroup(long[] src, int base) throws DbException {
+        int p = partition(hash);
+        if (tables[p] == null) {
+            Field k = stringKeys ? new StringField(new String(key), Type.STRING_LEN, gbfieldtype) : new IntField(hash);
+            files[p].add(state(k, src, base));
+            return;
+        }
+        int size = tables[p].size();
+        int to = group(p) * (1 + ops.length);
+        long[] a = tables[p].accumulators();
+        a[to] += src[base];
+        for (int i = 0; i < ops.length; i++)
+            fold(a, to + 1 + i, ops[i], src[base + 1 + i]);
+        if (tables[p].size() > size)
+            added(p);
+    }
+
+    /**
+     * Fold the groups of another aggregator of the same aggregates, e.g. one
+     * that aggregated another part of the input, into this one. A partial
+     * group keeps its row count and its sum, as SUM_COUNT returns them, so
+     * AVG is merged exactly; COUNT adds up the counts.
+     *
+     * @param partial an aggregator built with the same group-by type and
+     *            aggregates; it is left as it was
+     */
+    public void merge(HashAggregator partial) throws DbException, TransactionAbortedException {
+        if (partial.gbfieldtype != gbfieldtype || !Arrays.equals(partial.ops, ops))
+            throw new IllegalArgumentException("partial aggregates of another kind");
+        init();
+        if (partial.tables == null)
+            return;
+        for (int p = 0; p < partial.tables.length; p++) {
+            AggregateHashTable table = partial.tables[p];
+            if (table == null) {
+                OpIterator in = partial.files[p].iterator();
+                in.open();
+                while (in.hasNext())
+                    mergeState(in.next());
+                in.close();
+                continue;
+            }
+            long[] a = table.accumulators();
+            for (int g = 0; g < table.size(); g++) {
+                if (gbfield == NO_GROUPING) {
+                    hash = 0;
+                } else if (stringKeys) {
+                    key = table.stringKey(g);
+                    hash = AggregateHashTable.hash(key);
+                } else {
+                    hash = table.intKey(g);
+                }
+                mergeGroup(a, g * table.width());
+            }
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group value, if using group,
+     *         then the value of each aggregate: two values, the sum and the
+     *         count, for SUM_COUNT. Spilled partitions are aggregated as the
+     *         iterator reaches them.
+     */
+    public OpIterator iterator() {
+        init();
+        return new Results();
+    }
+
+    private class Results extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient int partition;
+        private transient int group;
+        private transient HashAggregator spilled = null;  //the aggregator of a spilled partition
+        private transient OpIterator spilledResults = null;
+
+        public void open() throws DbException, TransactionAbortedException {
+            partition = 0;
+            group = 0;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            closeSpilled();
+        }
+
+        private void closeSpilled() {
+            if (spilledResults != null)
+                spilledResults.close();
+            if (spilled != null)
+                spilled.clear();
+            spilled = null;
+            spilledResults = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            closeSpilled();
+            partition = 0;
+            group = 0;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (partition < tables.length) {
+                AggregateHashTable table = tables[partition];
+                if (table != null) {
+                    if (group < table.size())
+                        return result(table, group++);
+                } else {
+                    if (spilled == null) {
+                        spilled = spilledAggregator();
+                        OpIterator in = files[partition].iterator();
+                        in.open();
+                        while (in.hasNext())
+                            spilled.mergeState(in.next());
+                        in.close();
+                        spilledResults = spilled.iterator();
+                        spilledResults.open();
+                    }
+                    if (spilledResults.hasNext())
+                        return spilledResults.next();
+                    closeSpilled();
+                }
+                partition++;
+                group = 0;
+            }
+            return null;
+        }
+
+        private Tuple result(AggregateHashTable table, int g) {
+            Tuple t = new Tuple(td);
+            long[] a = table.accumulators();
+            int base = g * table.width();
+            long count = a[base];
+            int f = 0;
+            if (gbfield != NO_GROUPING)
+                t.setField(f++, table.key(g, gbfieldtype));
+            for (int i = 0; i < ops.length; i++) {
+                long v = a[base + 1 + i];
+                switch (ops[i]) {
+                case COUNT:
+                    v = count;
+                    break;
+                case AVG:
+                    v = v / count;
+                    break;
+                case SUM_COUNT:
+                    t.setField(f++, new IntField((int) v));
+                    v = count;
+                    break;
+                default:
+                    break;
+                }
+                t.setField(f++, new IntField((int) v));
+            }
+            return t;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+}
@@ -3,16 +3,52 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator joins on equality with a hybrid hash join.
+ * <p>
+ * It builds a hash table of child1, split by a hash of the join field into
+ * partitions. While the table does not fit in its memory budget, the biggest
+ * partition in memory is spilled to a temporary file, and tuples of child1
+ * that belong to spilled partitions go straight to their files. child2 is
+ * then read once: tuples of partitions in memory are joined right away, the
+ * others are written to a probe file of their partition. Finally each pair of
+ * spilled build and probe files is joined by a HashEquiJoin of its own,
+ * which partitions again by a different hash if the files are still too big.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Pages of memory the hash table of child1 may take by default */
+    public static final int DEFAULT_MEMORY_PAGES = 1000;
+
+    /** Most partitions child1 is split into */
+    public static final int MAX_PARTITIONS = 64;
+
+    /**
+     * Levels of partitioning after which a partition is kept in memory
+     * whatever its size: it is probably made of a single key
+     */
+    static final int MAX_LEVEL = 6;
+
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private long memoryBudget;  //bytes
+    private final int level;  //0, or 1 + the level of the join whose spilled partition this joins
+
+    transient private JoinHashTable table = null;  //the partitions of child1 in memory
+    transient private SpillFile[] buildFiles = null;  //per partition, null unless it was spilled
+    transient private SpillFile[] probeFiles = null;
+    transient private boolean intKeys;  //keys are the join field values, so need no other check
     transient private Tuple t2 = null;
+    transient private Field f2 = null;  //the join field of the probe tuple, null if keys are ints
+    transient private int match = -1;  //the next row of table that may join the probe tuple
+    transient private TupleBatch probe = null;  //the batch of child2 being joined
+    transient private int probeRow;
+    transient private TupleBatch out = null;
+    transient private boolean probed;  //all of child2 has been read
+    transient private int partition;  //the next spilled partition to join
+    transient private HashEquiJoin spilledJoin = null;  //the join of a spilled partition
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -26,9 +62,15 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, 0, (long) DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int level, long memoryBudget) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.level = level;
+        this.memoryBudget = memoryBudget;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -36,6 +78,14 @@ public class HashEquiJoin extends Operator {
         return pred;
     }
 
+    /**
+     * Set the bytes of memory the hash table of child1 may take before
+     * partitions are spilled. Takes effect at the next open() or rewind().
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
@@ -49,33 +99,104 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    /**
+     * @return the number of partitions a budget of memoryBudget bytes is
+     *         split into: while a partition is spilled, a page of the budget
+     *         buffers its file, and they may take up to a quarter of it
+     */
+    private int partitions() {
+        long pages = memoryBudget / BufferPool.getPageSize() / 4;
+        return (int) Math.max(2, Math.min(MAX_PARTITIONS, pages));
+    }
+
+    /** @return the partition of a key at this level */
+    private int partition(int key) {
+        return (JoinHashTable.mix(key + (level + 1) * 0x9e3779b9) >>> 1) % buildFiles.length;
+    }
+
+    /** Read child1 into the hash table and spill files. */
+    private void build() throws DbException, TransactionAbortedException {
+        int n = partitions();
+        buildFiles = new SpillFile[n];
+        probeFiles = new SpillFile[n];
+        ArrayList<ArrayList<Tuple>> resident = new ArrayList<ArrayList<Tuple>>(n);  //per partition
+        for (int i = 0; i < n; i++)
+            resident.add(new ArrayList<Tuple>());
+        TupleDesc td1 = child1.getTupleDesc();
+        long bytes = SpillFile.tupleBytes(td1);
+        long total = 0;
+        int field1 = pred.getField1();
         while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            Tuple t1 = child1.next();
+            int p = partition(JoinHashTable.key(t1, field1));
+            if (buildFiles[p] != null) {
+                buildFiles[p].add(t1);
+                continue;
+            }
+            resident.get(p).add(t1);
+            total += bytes;
+            if (total > memoryBudget && level < MAX_LEVEL) {
+                int victim = 0;
+                for (int i = 1; i < n; i++)
+                    if (resident.get(i).size() > resident.get(victim).size())
+                        victim = i;
+                buildFiles[victim] = new SpillFile(td1, BufferPool.getPageSize());
+                for (Tuple t : resident.get(victim))
+                    buildFiles[victim].add(t);
+                total -= bytes * resident.get(victim).size();
+                resident.set(victim, new ArrayList<Tuple>());
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
         }
-        return cnt > 0;
+        table = new JoinHashTable(field1);
+        for (int i = 0; i < n; i++) {
+            for (Tuple t : resident.get(i))
+                table.add(t);
+            if (buildFiles[i] != null)
+                probeFiles[i] = new SpillFile(child2.getTupleDesc(), BufferPool.getPageSize());
+        }
+        intKeys = td1.getFieldType(field1) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+        probed = false;
+        partition = 0;
+    }
 
+    /** @return true if any partition of child1 was spilled */
+    boolean hasSpilled() {
+        for (SpillFile f : buildFiles)
+            if (f != null)
+                return true;
+        return false;
+    }
+
+    /** Drop the hash table and spill files. */
+    private void reset() {
+        if (spilledJoin != null)
+            spilledJoin.close();
+        spilledJoin = null;
+        if (buildFiles != null) {
+            for (int i = 0; i < buildFiles.length; i++) {
+                if (buildFiles[i] != null)
+                    buildFiles[i].delete();
+                if (probeFiles[i] != null)
+                    probeFiles[i].delete();
+            }
+        }
+        buildFiles = null;
+        probeFiles = null;
+        table = null;
+        t2 = null;
+        f2 = null;
+        match = -1;
+        probe = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
+        child2.setReuseTuples(true);  //t2 is only kept until child2 is asked again
         child2.open();
-        loadMap();
+        build();
         super.open();
     }
 
@@ -83,18 +204,69 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
+        this.out=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        reset();
         child1.rewind();
         child2.rewind();
+        build();
+    }
+
+    /**
+     * @return the first row of table, from row on, that joins the probe
+     *         tuple; -1 if there is none
+     */
+    private int nextMatch(int row) {
+        int field1 = pred.getField1();
+        for (; row != -1; row = table.next(row)) {
+            if (intKeys || table.get(row).getField(field1).equals(f2))
+                return row;
+        }
+        return -1;
     }
 
-    transient Iterator<Tuple> listIt = null;
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * @return the join of the next spilled partition that has tuples on both
+     *         sides, open; null if there are no more
+     */
+    private HashEquiJoin nextSpilled() throws DbException, TransactionAbortedException {
+        while (partition < buildFiles.length) {
+            int p = partition++;
+            if (buildFiles[p] == null)
+                continue;
+            if (buildFiles[p].size() > 0 && probeFiles[p].size() > 0) {
+                HashEquiJoin j = new HashEquiJoin(pred, buildFiles[p].iterator(), probeFiles[p].iterator(),
+                        level + 1, memoryBudget);
+                j.open();
+                return j;
+            }
+        }
+        return null;
+    }
+
+    /** Move on to the next spilled partition, deleting the files of this one. */
+    private void doneSpilled() {
+        spilledJoin.close();
+        spilledJoin = null;
+        buildFiles[partition - 1].delete();
+        probeFiles[partition - 1].delete();
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -114,49 +286,83 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
+        int field2 = pred.getField2();
+        while (!probed) {
+            if (match != -1) {
+                Tuple t1 = table.get(match);
+                match = nextMatch(table.next(match));
+                return merge(t1, t2);
+            }
+            if (!child2.hasNext()) {
+                probed = true;
+                break;
+            }
             t2 = child2.next();
+            int k = JoinHashTable.key(t2, field2);
+            int p = partition(k);
+            if (probeFiles[p] != null) {
+                probeFiles[p].add(t2);
+            } else {
+                f2 = intKeys ? null : t2.getField(field2);
+                match = nextMatch(table.first(k));
+            }
+        }
+        // the partitions in memory are done: join the spilled ones
+        while (true) {
+            if (spilledJoin == null && (spilledJoin = nextSpilled()) == null)
+                return null;
+            if (spilledJoin.hasNext())
+                return spilledJoin.next();
+            doneSpilled();
+        }
+    }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+    /**
+     * Joins child2 a batch at a time against the hash table of child1,
+     * putting the joined rows straight into a batch that is reused from call
+     * to call.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            out = new TupleBatch(comboTD, TupleBatch.DEFAULT_SIZE);
+        out.clear();
+        int field2 = pred.getField2();
+        while (!out.isFull() && !probed) {
+            if (match != -1) {
+                out.addJoined(table.get(match), probe, probeRow);
+                match = nextMatch(table.next(match));
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
+            }
+            if (probe != null && probeRow + 1 < probe.size()) {
+                probeRow++;
+                int[] ints = probe.getIntColumn(field2);
+                int k = ints != null ? ints[probe.position(probeRow)]
+                        : JoinHashTable.key(probe.getField(probeRow, field2));
+                int p = partition(k);
+                if (probeFiles[p] != null) {
+                    probeFiles[p].add(probe.getTuple(probeRow));
+                } else {
+                    f2 = intKeys ? null : probe.getField(probeRow, field2);
+                    match = nextMatch(table.first(k));
+                }
+                continue;
+            }
+            probe = child2.nextBatch();
+            probeRow = -1;
+            if (probe == null)
+                probed = true;
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        // the partitions in memory are done: join the spilled ones
+        while (!out.isFull()) {
+            if (spilledJoin == null && (spilledJoin = nextSpilled()) == null)
+                break;
+            if (spilledJoin.hasNext())
+                out.add(spilledJoin.next());
+            else
+                doneSpilled();
         }
-
-        return null;
+        return out.size() > 0 ? out : null;
     }
 
     @Override
@@ -8,7 +8,7 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. Tables with VARCHAR fields are kept on SlottedHeapPages.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -25,15 +25,26 @@ public class HeapFile implements DbFile {
     private File File;
     private TupleDesc td;
     private BufferPool bp;
+    private final DbFileChannel channel;  //shared by all page reads and writes
+    private final FreeSpaceMap freeSpace;  //where inserts look for a page with room
+    private final boolean slotted;  //tuples of td vary in size and go on SlottedHeapPages
 
-    private int numPage;
+    /** Pages the file grows by when it runs out of allocated pages */
+    public static final int EXTENT_PAGES = 16;
+
+    private int numPage;  //pages in use, guarded by this
+    private int allocated;  //pages the file has been extended to, guarded by this
 
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
         this.File=f;
         this.td=td;
+        this.slotted=!td.isFixedLength();
+        this.channel = new DbFileChannel(f);
+        this.freeSpace = new FreeSpaceMap(FreeSpaceMap.sideFile(f));
         bp=Database.getBufferPool();
         numPage = (int)(File.length()/(bp.getPageSize()));
+        allocated = numPage;  //pages preallocated before a crash are just empty pages now
     }
 
     /**
@@ -72,15 +83,15 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        int offset=bp.getPageSize()*pid.getPageNumber();
+        long offset=(long)bp.getPageSize()*pid.getPageNumber();
         Page page=null;
-        RandomAccessFile random=null;
         byte[] data=new byte[bp.getPageSize()];
         try{
-            random=new RandomAccessFile(File,"r");
-            random.seek(offset);
-            random.read(data,0,data.length);
-            page=new HeapPage((HeapPageId) pid,data);
+            channel.read(data,offset);
+            HeapPage heapPage=slotted ? new SlottedHeapPage((HeapPageId) pid,data,td)
+                    : new HeapPage((HeapPageId) pid,data,td);  //decoded lazily from data
+            freeSpace.update(pid.getPageNumber(),heapPage.getFreeSpace(),pageCapacity());  //also corrects the map after an abort
+            page=heapPage;
         }catch(IOException e){
             e.printStackTrace();
         }
@@ -91,48 +102,154 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        try(RandomAccessFile f = new RandomAccessFile(File,"rw")){
-            f.seek(page.getId().getPageNumber()*bp.getPageSize());
-            byte[] data = page.getPageData();
-            f.write(data);
+        byte[] data=page.getPageData();
+        int pageNo=page.getId().getPageNumber();
+        channel.write(data, (long)pageNo*bp.getPageSize());
+        synchronized (this) {
+            numPage=Math.max(numPage,pageNo+1);
+            allocated=Math.max(allocated,pageNo+1);
+        }
+        freeSpace.write(pageNo,freeSpace(data),pageCapacity());  //the page may be a PageCleaner snapshot
+    }
+
+    /**
+     * @return the free space on a page image, in the unit of
+     *         pageCapacity(): unused slots, or bytes on a SlottedHeapPage
+     */
+    private int freeSpace(byte[] data) {
+        if(slotted)
+            return SlottedHeapPage.freeSpace(data);
+        int slots=slotsPerPage();
+        return slots-HeapPage.countUsedSlots(data,(slots+7)/8);
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        synchronized (this) {
+            // give back the preallocated pages, unless the file changed behind our back
+            if(allocated>numPage && File.length()==(long)allocated*BufferPool.getPageSize()){
+                channel.truncate((long)numPage*BufferPool.getPageSize());
+                allocated=numPage;
+            }
         }
+        channel.close();
+        freeSpace.close();
+    }
+
+    /** @return the map of free space on this file's pages */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
+    }
+
+    /**
+     * Read pages through a memory mapping of the file instead of a read
+     * system call per page. Meant for read-mostly tables larger than the
+     * BufferPool, which are then cached by the OS.
+     */
+    public void setMemoryMapped(boolean mapped) {
+        channel.setMapped(mapped);
+    }
+
+    /** @return true if pages are read through a memory mapping of the file */
+    public boolean isMemoryMapped() {
+        return channel.isMapped();
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. The count is kept in
+     * memory; this also looks at the length of the file, under the same lock
+     * pages are allocated under, so that pages appended to the file from
+     * outside show up. The count only ever grows here.
      */
-    public int numPages() {
+    public synchronized int numPages() {
         // some code goes here
-        numPage = (int)(File.length()/(bp.getPageSize()));
+        long pages=File.length()/BufferPool.getPageSize();
+        if(pages>allocated){
+            allocated=(int)pages;
+            numPage=allocated;
+        }
         return numPage;
+    }
 
+    /** @return the number of pages in use, without looking at the file */
+    synchronized int pageCount() {
+        return numPage;
+    }
+
+    /**
+     * Hand out the next page number. Once the allocated pages run out the
+     * file is extended by {@link #EXTENT_PAGES} zeroed pages at once, which
+     * read as empty pages.
+     */
+    private synchronized int allocatePage() throws IOException {
+        if(numPage>=allocated){
+            int pageSize=BufferPool.getPageSize();
+            channel.write(new byte[EXTENT_PAGES*pageSize],(long)numPage*pageSize);
+            allocated=numPage+EXTENT_PAGES;
+        }
+        return numPage++;
+    }
+
+    /** @return the number of tuple slots on each page, see HeapPage */
+    private int slotsPerPage() {
+        return (int)(Math.floor(BufferPool.getPageSize()*8.0/(td.getSize()*8+1)));
+    }
+
+    /** @return the free space of an empty page, in the unit the FreeSpaceMap is kept in */
+    private int pageCapacity() {
+        return slotted ? SlottedHeapPage.capacity() : slotsPerPage();
+    }
+
+    /** @throws DbException if a string of t is longer than its VARCHAR(n) field holds */
+    private void checkLengths(Tuple t) throws DbException {
+        for(int i=0;i<td.numFields();i++){
+            if(td.getFieldType(i)==Type.VARCHAR_TYPE
+                    && ((StringField) t.getField(i)).getValue().length()>td.getMaxLength(i))
+                throw new DbException("value too long for VARCHAR("+td.getMaxLength(i)+") field "+td.getFieldName(i));
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+        return insertTuple(tid, t, null);
+    }
+
+    /**
+     * Inserts a tuple as part of a bulk insert: the pages searched for a free
+     * slot are fetched through strategy's ring.
+     *
+     * @param strategy the ring of the bulk insert, or null
+     * @see DbFile#insertTuple
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t, BufferAccessStrategy strategy)
+            throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         ArrayList<Page> PageList = new ArrayList<Page>();
-        for(int i=0;i<numPages();i++){
-            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(this.getId(),i),Permissions.READ_WRITE);  //读取对应页
-            if(page.getNumEmptySlots()==0) {     //full
+        if(slotted)
+            checkLengths(t);
+        int i;
+        int needed=slotted ? SlottedHeapPage.spaceNeeded(t) : 1;
+        while((i=freeSpace.findPage(needed,pageCapacity(),pageCount()))>=0){  //only pages the map thinks have room
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(this.getId(),i),Permissions.READ_WRITE,strategy);  //读取对应页
+            if(!page.hasRoomFor(t)) {     //full
+                freeSpace.update(i,0,pageCapacity());  //the map was out of date, writing the page corrects it
                 //added in lab4,when there's no empty slots,we could unlock the page
                 bp.releasePage(tid,new HeapPageId(this.getId(),i));
                 //this will do no harm to 2PL lock,cuz we didn't read any data
                 continue;
             }
             page.insertTuple(t);
+            freeSpace.update(i,page.getFreeSpace(),pageCapacity());
             PageList.add(page);
             //page.markDirty(true,tid); // added in lab4
             return PageList;
         }
         if(PageList.size()==0){    // all full
-            HeapPageId newid = new HeapPageId(this.getId(),numPages());//ceate a new page,
-            HeapPage blankPage = new HeapPage(newid,HeapPage.createEmptyPageData());
-            numPage++;
-            writePage(blankPage);
-            HeapPage newPage = (HeapPage) bp.getPage(tid,newid,Permissions.READ_WRITE);
+            HeapPageId newid = new HeapPageId(this.getId(),allocatePage());//ceate a new page, zeroed on disk already
+            HeapPage newPage = (HeapPage) bp.getPage(tid,newid,Permissions.READ_WRITE,strategy);
             newPage.insertTuple(t);
+            freeSpace.update(newid.getPageNumber(),newPage.getFreeSpace(),pageCapacity());
             newPage.markDirty(true,tid);
             PageList.add(newPage);
             return PageList;
@@ -147,10 +264,14 @@ public class HeapFile implements DbFile {
         // some code goes here
         PageId pid = t.getRecordId().getPageId();
         HeapPage page = null;
-        for(int i=0;i<numPages();i++){
-            if(i == pid.getPageNumber()){
-                page=(HeapPage) bp.getPage(tid,pid,Permissions.READ_WRITE);
-                page.deleteTuple(t);
+        int i = pid.getPageNumber();
+        if(i < pageCount()){
+            page=(HeapPage) bp.getPage(tid,pid,Permissions.READ_WRITE);
+            page.deleteTuple(t);
+            try {
+                freeSpace.update(i,page.getFreeSpace(),pageCapacity());
+            } catch (IOException e) {
+                e.printStackTrace();  //only a hint, the next insert still finds the slot eventually
             }
         }
         if(page == null){
@@ -166,8 +287,68 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, null, false, null, null, 0, Integer.MAX_VALUE);
+
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this file that
+     * fetches its pages through strategy's ring.
+     *
+     * @param strategy the ring of the scan, or null
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy) {
+        return new HeapFileIterator(tid, strategy, false, null, null, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #iterator(TransactionId, BufferAccessStrategy)}, but if
+     * reuseTuples is set, every next() returns the same {@link BufferTuple}
+     * pointed at the next tuple, which is only valid until the following
+     * call to hasNext() or next().
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy, boolean reuseTuples) {
+        return new HeapFileIterator(tid, strategy, reuseTuples, null, null, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #iterator(TransactionId, BufferAccessStrategy, boolean)},
+     * but only returns the tuples that pass every one of preds. They are
+     * tested on the page image, so no Tuple is built for the others.
+     *
+     * @param preds predicates on the fields of this file's TupleDesc, or null
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy, boolean reuseTuples,
+            Predicate[] preds) {
+        return new HeapFileIterator(tid, strategy, reuseTuples, preds, null, 0, Integer.MAX_VALUE);
+    }
 
+    /**
+     * Like {@link #iterator(TransactionId, BufferAccessStrategy, boolean, Predicate[])},
+     * but the tuples returned only have the given fields, and the others
+     * are never decoded. preds still refer to fields of this file's
+     * TupleDesc.
+     *
+     * @param columns the fields of this file's TupleDesc to return, in
+     *            order, or null for all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy, boolean reuseTuples,
+            Predicate[] preds, int[] columns) {
+        return new HeapFileIterator(tid, strategy, reuseTuples, preds, columns, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #iterator(TransactionId, BufferAccessStrategy, boolean, Predicate[], int[])},
+     * but only over the pages from firstPage up to endPage, so that several
+     * threads can each scan a part of the file.
+     *
+     * @param firstPage the first page read
+     * @param endPage the page after the last one read; pages past the end
+     *            of the file are not read
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferAccessStrategy strategy, boolean reuseTuples,
+            Predicate[] preds, int[] columns, int firstPage, int endPage) {
+        return new HeapFileIterator(tid, strategy, reuseTuples, preds, columns, firstPage, endPage);
     }
 
     private class HeapFileIterator implements DbFileIterator {
@@ -175,17 +356,50 @@ public class HeapFile implements DbFile {
         private TransactionId tid;
         private Iterator<Tuple> TupleIterator;
         private int nowPage;    //record the number of the page
-        public HeapFileIterator(TransactionId tid) {
+        private Prefetcher.Sequential readAhead;
+        private final BufferAccessStrategy strategy;
+        private final BufferTuple view;  //the tuple on the page, in the columns asked for
+        private final BufferTuple reuse;  //null unless pages return view for every tuple
+        private final boolean copy;  //view is copied before it is returned
+        private final Predicate[] preds;  //null if every tuple is returned
+        private final BufferTuple probe;  //tests preds on the page image
+        private HeapPage page;  //the page TupleIterator is on
+        private int slot;  //where fillBatch() goes on from on page, -1 when it is done
+        private final int firstPage, endPage;  //the pages to read
+        public HeapFileIterator(TransactionId tid, BufferAccessStrategy strategy, boolean reuseTuples,
+                Predicate[] preds, int[] columns, int firstPage, int endPage) {
             this.tid=tid;
+            this.firstPage=firstPage;
+            this.endPage=endPage;
+            this.strategy=strategy;
+            this.view=new BufferTuple(td,columns);
+            this.reuse=reuseTuples || columns!=null ? view : null;  //a projected tuple is only ever built from view
+            this.copy=!reuseTuples && columns!=null;
+            this.preds=preds!=null && preds.length>0 ? preds : null;
+            this.probe=new BufferTuple(td);
         }
 
         public Iterator<Tuple> getTuples(HeapPageId pid) throws TransactionAbortedException, DbException {
-            HeapPage page=(HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_ONLY);  //find the page via pid
-            return page.iterator();       //return the tuples in the page with id pid
+            readAhead.pageRead(pid.getPageNumber());  //may start reading the next pages in the background
+            page=(HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_ONLY,strategy);  //find the page via pid
+            slot=0;
+            return page.iterator(reuse,preds,probe);       //return the tuples in the page with id pid
+        }
+
+        /** @return the page after the last one to read */
+        private int lastPage() {
+            return Math.min(endPage, pageCount());
         }
+
         @Override
         public void open() throws DbException, TransactionAbortedException {  //initialize the iterator
-            nowPage=0;  //begin with the first page
+            nowPage=firstPage;  //begin with the first page
+            numPages();  //once per scan, so pages appended to the file from outside show up
+            readAhead=new Prefetcher.Sequential(HeapFile.this,strategy);
+            if(nowPage>0 && nowPage>=lastPage()){  //an empty range
+                TupleIterator=null;
+                return;
+            }
             HeapPageId pid=new HeapPageId(getId(),nowPage);
             TupleIterator=getTuples(pid);
         }
@@ -197,7 +411,7 @@ public class HeapFile implements DbFile {
                 return true;
             }
             while (TupleIterator != null && !TupleIterator.hasNext()) {
-                if (nowPage < numPages()-1)  //When TupleIterator do not has a next() and it is not a null iterator
+                if (nowPage < lastPage()-1)  //When TupleIterator do not has a next() and it is not a null iterator
                 {
                     nowPage++;
                     HeapPageId pid = new HeapPageId(getId(), nowPage);
@@ -218,7 +432,24 @@ public class HeapFile implements DbFile {
             if(!hasNext()){
                 throw new NoSuchElementException();
             }
-            return TupleIterator.next();
+            Tuple t=TupleIterator.next();
+            return copy ? t.copy() : t;
+        }
+
+        /** Copies the tuples of each page into the batch without going through next(). */
+        @Override
+        public boolean fillBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            while(TupleIterator!=null && !batch.isFull()){
+                if(slot>=0){
+                    slot=page.fillBatch(batch,slot,preds,probe,view);
+                }else if(nowPage<lastPage()-1){
+                    nowPage++;
+                    TupleIterator=getTuples(new HeapPageId(getId(),nowPage));
+                }else{
+                    TupleIterator=null;
+                }
+            }
+            return batch.size()>0;
         }
 
         @Override
@@ -230,6 +461,7 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             TupleIterator=null;
+            page=null;
         }
     }
 }
@@ -2,13 +2,15 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. Tables with VARCHAR fields are written as SlottedHeapPages.
  */
 
 public class HeapFileEncoder {
@@ -91,6 +93,12 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      if (!td.isFixedLength()) {
+          convertSlotted(inFile, outFile, td, fieldSeparator);
+          return;
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -106,6 +114,7 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    FreeSpaceMap.sideFile(outFile).delete();  //describes whatever the file held before
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -223,4 +232,76 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Convert a text file as convert(inFile, outFile, npagebytes, numFields,
+   * typeAr, fieldSeparator) does, into a table of the fields of td. Strings
+   * longer than the VARCHAR(n) field they go in are cut to n characters.
+   */
+  public static void convert(File inFile, File outFile, int npagebytes, TupleDesc td, char fieldSeparator)
+      throws IOException {
+      if (!td.isFixedLength()) {
+          convertSlotted(inFile, outFile, td, fieldSeparator);
+          return;
+      }
+      Type[] types = new Type[td.numFields()];
+      for (int i = 0; i < types.length; i++)
+          types[i] = td.getFieldType(i);
+      convert(inFile, outFile, npagebytes, types.length, types, fieldSeparator);
+  }
+
+  /**
+   * Convert a text file of a table with VARCHAR fields into SlottedHeapPages
+   * of BufferPool.getPageSize() bytes, filling each page before starting the
+   * next one.
+   */
+  private static void convertSlotted(File inFile, File outFile, TupleDesc td, char fieldSeparator)
+      throws IOException {
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      FreeSpaceMap.sideFile(outFile).delete();  //describes whatever the file held before
+
+      HeapPageId pid = new HeapPageId(0, 0);
+      SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData(), td);
+      boolean empty = true;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+          Tuple t = new Tuple(td);
+          try {
+              for (int i = 0; i < td.numFields(); i++) {
+                  Type type = td.getFieldType(i);
+                  String s = values[i].trim();
+                  if (type == Type.INT_TYPE)
+                      t.setField(i, new IntField(Integer.parseInt(s)));
+                  else
+                      t.setField(i, new StringField(s, td.getMaxLength(i), type));  //cut to n for a VARCHAR(n) field
+              }
+          } catch (RuntimeException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          try {
+              if (!page.hasRoomFor(t)) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData(), td);
+              }
+              page.insertTuple(t);
+              empty = false;
+          } catch (DbException e) {
+              br.close();
+              os.close();
+              throw new IOException("tuple does not fit on a page: " + line);
+          }
+      }
+      // like the fixed-width pages, an empty table still gets one empty page
+      if (!empty || npages == 0)
+          os.write(page.getPageData());
+      br.close();
+      os.close();
+  }
 }
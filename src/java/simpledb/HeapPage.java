@@ -15,12 +15,16 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    // the page image; the header is its first headerSize bytes, followed by
+    // the slots. Tuples and fields are decoded from it when asked for.
+    final byte[] data;
+    private final int headerSize;
+    private final int[] fieldOffsets;  //where each field starts within a slot
+
+    byte[] oldData;  //the before image, null while the page is unchanged since setBeforeImage()
+    private final Object oldDataLock=new Object();
 
     private TransactionId dirtyId; // the transaction which made the page dirty
     private boolean dirty; //if the page is dirty
@@ -37,34 +41,32 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page works on a copy of data; nothing is decoded up front.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data.clone(), Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a table with the given TupleDesc that takes over
+     * data, which the caller must not touch afterwards. Used for pages just
+     * read from disk.
+     */
+    HeapPage(HeapPageId id, byte[] data, TupleDesc td) {
         this.dirtyId = null;
         this.dirty = false;  //added in lab4
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        this.headerSize = getHeaderSize();
+        this.data = data.length == BufferPool.getPageSize() ? data : Arrays.copyOf(data, BufferPool.getPageSize());
+        this.fieldOffsets = new int[td.numFields()];
+        for (int i=1; i<fieldOffsets.length; i++)
+            fieldOffsets[i] = fieldOffsets[i-1] + td.getFieldType(i-1).getLen();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -91,25 +93,31 @@ public class HeapPage implements Page {
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
-        try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+        return new HeapPage(pid,beforeImageData(),td);
+    }
+
+    /** @return a copy of the page image as of the last setBeforeImage() */
+    byte[] beforeImageData() {
+        synchronized(oldDataLock)
+        {
+            return oldData != null ? oldData.clone() : data.clone();
         }
-        return null;
     }
-    
+
+    /** The current contents become the before image; the copy is only made once the page changes again. */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /** Called before every change: keeps the before image if this is the first one since setBeforeImage(). */
+    void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null)
+                oldData = data.clone();
         }
     }
 
@@ -121,37 +129,37 @@ public class HeapPage implements Page {
 
     }
 
+    /** @return where the given slot starts in the page image */
+    private int slotOffset(int slot) {
+        return headerSize + slot * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Decode a single field straight from the page image, without building
+     * the rest of the tuple.
+     *
+     * @return field fieldIndex of the tuple in slot, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    public Field getField(int slot, int fieldIndex) {
+        if (!isSlotUsed(slot))
             return null;
-        }
+        return td.getFieldType(fieldIndex).parse(data, slotOffset(slot) + fieldOffsets[fieldIndex]);
+    }
 
-        // read fields in the tuple
+    /**
+     * Decode the tuple in a slot. Every call returns a new Tuple; changing
+     * it does not change the page.
+     *
+     * @return the tuple in slot, or null if the slot is empty
+     */
+    public Tuple getTuple(int slot) {
+        if (!isSlotUsed(slot))
+            return null;
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
+        t.setRecordId(new RecordId(pid, slot));
+        int offset = slotOffset(slot);
+        for (int j=0; j<fieldOffsets.length; j++)
+            t.setField(j, td.getFieldType(j).parse(data, offset + fieldOffsets[j]));
         return t;
     }
 
@@ -167,64 +175,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data.clone();
     }
 
     /**
@@ -249,17 +200,18 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
-        int tid = t.getRecordId().getTupleNumber();
-        HeapPageId pid = (HeapPageId) t.getRecordId().getPageId();
-        if(!pid.equals(this.pid)||tuples[tid] == null){
+        RecordId rid = t.getRecordId();
+        if(rid == null || !pid.equals(rid.getPageId())){
             throw new DbException("not on this page");
         }
-        if(!isSlotUsed(tid)){
+        int slot = rid.getTupleNumber();
+        if(slot < 0 || slot >= numSlots || !isSlotUsed(slot)){
             throw new DbException("already empty");
-        }else{
-            markSlotUsed(tid,false);
-            tuples[tid] = null;
         }
+        captureBeforeImage();
+        markSlotUsed(slot,false);
+        int offset = slotOffset(slot);
+        Arrays.fill(data, offset, offset + td.getSize(), (byte) 0);  //empty slots are all zeroes on disk
         // some code goes here
         // not necessary for lab1
     }
@@ -275,12 +227,17 @@ public class HeapPage implements Page {
         if(!t.getTupleDesc().equals(this.td)){
             throw new DbException("mismatch");
         }
-        for(int i=0;i<getNumTuples();i++){
-            if(!isSlotUsed(i)){
-                tuples[i] = t;
-                t.setRecordId(new RecordId(pid,i));
-                markSlotUsed(i,true);
-                return;
+        for(int b=0;b<headerSize;b++){
+            if(data[b] == (byte) 0xff)
+                continue;  //eight used slots
+            for(int i=b*8;i<b*8+8 && i<numSlots;i++){
+                if(!isSlotUsed(i)){
+                    captureBeforeImage();
+                    writeTuple(t, i);
+                    t.setRecordId(new RecordId(pid,i));
+                    markSlotUsed(i,true);
+                    return;
+                }
             }
         }
         throw new DbException("page is full!");
@@ -288,6 +245,21 @@ public class HeapPage implements Page {
         // not necessary for lab1
     }
 
+    /** Serialize the fields of t into a slot of the page image. */
+    private void writeTuple(Tuple t, int slot) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j=0; j<td.numFields(); j++)
+                td.getFieldType(j).serialize(t.getField(j), dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not serialize tuple: " + e.getMessage());
+        }
+        byte[] bytes = baos.toByteArray();
+        System.arraycopy(bytes, 0, data, slotOffset(slot), Math.min(bytes.length, td.getSize()));
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -311,52 +283,171 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int emptyNum=0;
-        for(int i=0;i<numSlots;i++){
-            if(!isSlotUsed(i))
-                emptyNum++;
-        }
         // some code goes here
-        return emptyNum;
+        return numSlots - countUsedSlots(data, headerSize);
+    }
+
+    /**
+     * @return the free space left on this page, in the unit HeapFile keeps
+     *         its FreeSpaceMap in: empty slots here, bytes on a
+     *         {@link SlottedHeapPage}
+     */
+    public int getFreeSpace() {
+        return getNumEmptySlots();
+    }
+
+    /**
+     * @return true if t would fit on this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * @return the number of used slots in the header at the start of a page
+     *         image; bits past the last slot are always 0
+     */
+    static int countUsedSlots(byte[] data, int headerSize) {
+        int used=0;
+        for(int i=0;i<headerSize;i++)
+            used+=Integer.bitCount(data[i] & 0xff);
+        return used;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        int byteNum=i/8;
-        int bitNum=i%8;
-        int ans=(header[byteNum]>>bitNum)&1;
-        return ans==1;
-
+        return (data[i>>3]>>(i&7)&1)==1;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        byte b = header[Math.floorDiv(i, 8)];
         byte m = (byte) (1<<(i%8));
         if(value){
-            header[Math.floorDiv(i,8)] = (byte) (b|m);
+            data[i/8] |= m;
         }else{
-            header[Math.floorDiv(i,8)] = (byte) (b&(~m));//利用位运算方便地实现headers头的更改
+            data[i/8] &= ~m;//利用位运算方便地实现headers头的更改
         }
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * Tuples are decoded one at a time as the iterator reaches them.
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> list=new ArrayList<>();
-        for(int i=0;i<numSlots;i++) {
-            if(isSlotUsed(i))
-                list.add(tuples[i]);
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page. If reuse is not null,
+     *         every next() points reuse at the next tuple and returns it
+     *         instead of decoding a new Tuple.
+     */
+    Iterator<Tuple> iterator(BufferTuple reuse) {
+        return iterator(reuse, null, null);
+    }
+
+    /**
+     * @param preds if not null, only tuples that pass all of them are
+     *            returned; they are tested on the page image through probe,
+     *            so the others are never built
+     * @param probe a BufferTuple of the page's TupleDesc, not reuse
+     * @return an iterator like {@link #iterator(BufferTuple)}
+     */
+    Iterator<Tuple> iterator(final BufferTuple reuse, final Predicate[] preds, final BufferTuple probe) {
+        return new Iterator<Tuple>() {
+            private int next = nextMatch(0, preds, probe);
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t;
+                if (reuse != null) {
+                    reuse.reset(data, slotOffset(next), pid, next);
+                    t = reuse;
+                } else {
+                    t = getTuple(next);
+                }
+                next = nextMatch(next + 1, preds, probe);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Append the tuples of this page to a batch, starting at slot from,
+     * until the batch is full. Fields are decoded straight from the page
+     * image.
+     *
+     * @param preds if not null, only tuples that pass all of them are added,
+     *            see {@link #iterator(BufferTuple, Predicate[], BufferTuple)}
+     * @param probe a BufferTuple of the page's TupleDesc
+     * @param view a BufferTuple of the columns the batch has
+     * @return the slot to go on from, or -1 once the page is done
+     */
+    int fillBatch(TupleBatch b, int from, Predicate[] preds, BufferTuple probe, BufferTuple view) {
+        int[] offsets = view.getColumnOffsets();
+        int i = nextMatch(from, preds, probe);
+        while (i < numSlots && !b.isFull()) {
+            b.add(data, slotOffset(i), offsets);
+            i = nextMatch(i + 1, preds, probe);
         }
-        return list.iterator();
+        return i < numSlots ? i : -1;
     }
 
-}
+    /**
+     * @return true if the tuple in a used slot passes every predicate,
+     *         tested on the page image through probe
+     */
+    boolean matches(int slot, Predicate[] preds, BufferTuple probe) {
+        if (preds == null)
+            return true;
+        probe.reset(data, tupleOffset(slot), pid, slot);
+        for (Predicate p : preds)
+            if (!p.filter(probe))
+                return false;
+        return true;
+    }
+
+    /** @return where the tuple in a used slot starts in the page image */
+    int tupleOffset(int slot) {
+        return slotOffset(slot);
+    }
+
+    /** @return the first used slot at or after from that matches, numSlots if there is none */
+    private int nextMatch(int from, Predicate[] preds, BufferTuple probe) {
+        int i = nextUsed(from);
+        while (i < numSlots && !matches(i, preds, probe))
+            i = nextUsed(i + 1);
+        return i;
+    }
 
+    /** @return the first used slot at or after from, numSlots if there is none */
+    private int nextUsed(int from) {
+        int i = from;
+        while (i < numSlots) {
+            if ((i & 7) == 0 && data[i>>3] == 0) {
+                i += 8;  //a whole header byte of empty slots
+                continue;
+            }
+            if (isSlotUsed(i))
+                return i;
+            i++;
+        }
+        return numSlots;
+    }
+
+}
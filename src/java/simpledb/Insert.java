@@ -29,6 +29,7 @@ public class Insert extends Operator {
     private int count;      //the number of the affected tuples
     private TupleDesc returnTP;   //with only one field
     private boolean isAccessed;
+    private BufferAccessStrategy strategy;  //ring for searching a big table for free slots, or null
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
         // some code goes here
@@ -54,6 +55,9 @@ public class Insert extends Operator {
         super.open();
         child.open();
         count = 0;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        strategy = file instanceof HeapFile
+                ? BufferAccessStrategy.forScan(((HeapFile) file).numPages()) : null;
     }
 
     public void close() {
@@ -92,7 +96,7 @@ public class Insert extends Operator {
         while (this.child.hasNext()) {
             Tuple t = this.child.next();
             try {
-                Database.getBufferPool().insertTuple(this.t, this.tableId, t);
+                Database.getBufferPool().insertTuple(this.t, this.tableId, t, strategy);
                 this.count++;
             } catch (IOException e) {
                 e.printStackTrace();
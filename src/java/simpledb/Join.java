@@ -4,11 +4,26 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It joins by one of two nested loop methods. A block nested loop join reads
+ * a block of outer tuples into memory and compares each of them with every
+ * inner tuple during one pass over child2, so child2 is read once per block
+ * rather than once per outer tuple. An index nested loop join looks the
+ * matches for each outer tuple up in child2, which must be a SeqScan of a
+ * BTreeFile keyed on the join field.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The ways Join can compute a join */
+    public enum Method {
+        BLOCK_NESTED_LOOP, INDEX_NESTED_LOOP
+    }
+
+    /** Pages' worth of outer tuples a block nested loop join holds per pass over child2 */
+    public static final int DEFAULT_BLOCK_PAGES = 100;
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -24,14 +39,54 @@ public class Join extends Operator {
     private JoinPredicate p;
     private OpIterator child1;
     private OpIterator child2;
+    private TupleDesc td;  //of the joined tuples
+    private final Method method;
+    private int blockSize;  //outer tuples per block
+
+    private transient ArrayList<Tuple> block;  //the outer tuples of this pass over child2
+    private transient int blockPos;  //the next tuple of block to compare with t2
+    private transient Tuple t2;  //the inner tuple being compared with block
+    private transient boolean innerUsed;  //child2 has to be rewound before the next pass
+
+    private transient Tuple t1;  //the outer tuple being looked up
+    private transient DbFileIterator matches;  //the matches of t1 in child2
 
-    private Tuple t1;
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
         // some code goes here
+        this(p, child1, child2, Method.BLOCK_NESTED_LOOP);
+    }
+
+    /**
+     * Constructor for a join by the given method.
+     *
+     * @throws IllegalArgumentException
+     *             if method is INDEX_NESTED_LOOP and child2 can not be looked
+     *             up by the predicate, see {@link #canUseIndex}
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, Method method) {
+        if (method == Method.INDEX_NESTED_LOOP && !canUseIndex(p, child2))
+            throw new IllegalArgumentException("no index on the join field of child2");
         this.p=p;
         this.child1=child1;
         this.child2=child2;
-        t1 = null;
+        this.method=method;
+        this.td=TupleDesc.merge(child1.getTupleDesc(),child2.getTupleDesc());
+        this.blockSize=defaultBlockSize(child1.getTupleDesc());
+    }
+
+    /** @return the number of outer tuples a block of DEFAULT_BLOCK_PAGES pages holds */
+    static int defaultBlockSize(TupleDesc outer) {
+        return Math.max(1, DEFAULT_BLOCK_PAGES * BufferPool.getPageSize() / Math.max(1, outer.getSize()));
+    }
+
+    /**
+     * @return true if the matches of an outer tuple can be looked up in
+     *         child2: it is a scan of a B+tree on the join field, and the
+     *         predicate is not <> or LIKE
+     */
+    public static boolean canUseIndex(JoinPredicate p, OpIterator child2) {
+        return child2 instanceof SeqScan && ((SeqScan) child2).isIndexedOn(p.getField2())
+                && p.getOperator() != Predicate.Op.NOT_EQUALS && p.getOperator() != Predicate.Op.LIKE;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -39,6 +94,19 @@ public class Join extends Operator {
         return p;
     }
 
+    /** @return the method this join uses */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Set the number of outer tuples a block nested loop join compares with
+     * each pass over child2.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
     /**
      * @return
      *       the field name of join field1. Should be quantified by
@@ -67,14 +135,19 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(child1.getTupleDesc(),child2.getTupleDesc());
+        return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
         child1.open();
-        child2.open();
+        if (method == Method.BLOCK_NESTED_LOOP) {
+            child2.setReuseTuples(true);  //inner tuples are copied into the result right away
+            child2.open();
+            block = new ArrayList<Tuple>();
+        }
+        // an index join reads child2 only through lookups
         super.open();
     }
 
@@ -83,12 +156,28 @@ public class Join extends Operator {
         child1.close();
         child2.close();
         super.close();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
-        child2.rewind();
+        if (method == Method.BLOCK_NESTED_LOOP)
+            child2.rewind();
+        reset();
+        if (method == Method.BLOCK_NESTED_LOOP)
+            block = new ArrayList<Tuple>();
+    }
+
+    private void reset() {
+        block = null;
+        blockPos = 0;
+        t2 = null;
+        innerUsed = false;
+        t1 = null;
+        if (matches != null)
+            matches.close();
+        matches = null;
     }
 
     /**
@@ -111,35 +200,91 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while (child1.hasNext() || t1 != null){
-            if(child1.hasNext() && t1 == null){
-                  t1=child1.next();
-            }
-            while (child2.hasNext()){
-                Tuple t2 = child2.next();
-                if(p.filter(t1,t2)){
-                    TupleDesc td1 = t1.getTupleDesc();
-                    TupleDesc td2 = t2.getTupleDesc();
-                    TupleDesc td3 = TupleDesc.merge(td1,td2);
-                    Tuple tp = new Tuple(td3);
-                    tp.setRecordId(t1.getRecordId());
-                    for(int i=0;i<td1.numFields();i++){
-                        tp.setField(i,t1.getField(i));
-                    }
-                    for(int i=0; i< td2.numFields();i++){
-                        tp.setField(td1.numFields()+i,t2.getField(i));
-                    }
-                    if(!child2.hasNext()){
-                        child2.rewind();
-                        t1=null;
-                    }
-                    return tp;
+        if (method == Method.INDEX_NESTED_LOOP)
+            return fetchByIndex();
+        while (true) {
+            if (t2 != null) {
+                while (blockPos < block.size()) {
+                    Tuple t1 = block.get(blockPos++);
+                    if (p.filter(t1, t2))
+                        return merge(t1, t2);
                 }
+                t2 = null;
             }
+            if (!block.isEmpty() && child2.hasNext()) {
+                t2 = child2.next();
+                blockPos = 0;
+                continue;
+            }
+            // the block has seen all of child2: read the next one
+            if (!readBlock())
+                return null;
+        }
+    }
+
+    /** @return false if child1 has no more tuples */
+    private boolean readBlock() throws TransactionAbortedException, DbException {
+        block.clear();
+        while (block.size() < blockSize && child1.hasNext())
+            block.add(child1.next());
+        if (block.isEmpty())
+            return false;
+        if (innerUsed)
             child2.rewind();
-            t1 = null;
+        innerUsed = true;
+        return true;
+    }
+
+    /** Look up the matches of each outer tuple in the index of child2 */
+    private Tuple fetchByIndex() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null) {
+                while (matches.hasNext()) {
+                    Tuple t2 = matches.next();
+                    if (p.filter(t1, t2))
+                        return merge(t1, t2);
+                }
+                matches.close();
+                matches = null;
+            }
+            if (!child1.hasNext())
+                return null;
+            t1 = child1.next();
+            // t1.f1 op t2.f2 is t2.f2 (op reversed) t1.f1
+            matches = ((SeqScan) child2).indexIterator(p.getField2(), reverse(p.getOperator()),
+                    t1.getField(p.getField1()));
+            matches.open();
+        }
+    }
+
+    /** @return the operator op' for which b op' a exactly when a op b */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        Tuple tp = new Tuple(td);
+        tp.setRecordId(t1.getRecordId());
+        for(int i=0;i<n1;i++){
+            tp.setField(i,t1.getField(i));
+        }
+        for(int i=0; i< n2;i++){
+            tp.setField(n1+i,t2.getField(i));
         }
-        return null;
+        return tp;
     }
 
     @Override
@@ -153,6 +298,7 @@ public class Join extends Operator {
         // some code goes here
         child1=children[0];
         child2 = children[1];
+        td=TupleDesc.merge(child1.getTupleDesc(),child2.getTupleDesc());
     }
 
 }
@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * JoinHashTable is the build side of a hash join: tuples looked up by an int
+ * key, without a boxed key or a list object per distinct key. The key of an
+ * IntField is its value; other fields hash to their key, so callers must
+ * check that the fields of a match are really equal.
+ * <p>
+ * Keys live in an open-addressing table with linear probing. Each slot holds
+ * a key and the most recently added row with it; rows with the same key are
+ * chained through an int array.
+ */
+class JoinHashTable {
+
+    private static final int EMPTY = -1;
+
+    private final int field;  //the key field of the rows
+    private int[] slotKeys;
+    private int[] slotRows;  //the last row added with the slot's key, EMPTY if the slot is free
+    private int used;  //slots in use
+    private final ArrayList<Tuple> rows = new ArrayList<Tuple>();
+    private int[] nextRows = new int[16];  //the row before each row with the same key
+
+    /** @param field the key field of the tuples that will be added */
+    JoinHashTable(int field) {
+        this.field = field;
+        allocate(16);
+    }
+
+    private void allocate(int slots) {
+        slotKeys = new int[slots];
+        slotRows = new int[slots];
+        Arrays.fill(slotRows, EMPTY);
+        used = 0;
+    }
+
+    /** @return the key of a field */
+    static int key(Field f) {
+        return f instanceof IntField ? ((IntField) f).getValue() : f.hashCode();
+    }
+
+    /** @return the key of a field of a tuple, without creating a Field for an int */
+    static int key(Tuple t, int field) {
+        return t.getTupleDesc().getFieldType(field) == Type.INT_TYPE ? t.getInt(field) : t.getField(field).hashCode();
+    }
+
+    /** @return a well mixed hash of a key */
+    static int mix(int k) {
+        k ^= k >>> 16;
+        k *= 0x85ebca6b;
+        k ^= k >>> 13;
+        k *= 0xc2b2ae35;
+        k ^= k >>> 16;
+        return k;
+    }
+
+    /** @return the slot of key: the one holding it, or the free one it would go in */
+    private int slot(int key) {
+        int mask = slotKeys.length - 1;
+        int s = mix(key) & mask;
+        while (slotRows[s] != EMPTY && slotKeys[s] != key)
+            s = (s + 1) & mask;
+        return s;
+    }
+
+    /** Add a tuple, which the table keeps. */
+    void add(Tuple t) {
+        if (2 * (used + 1) > slotKeys.length)
+            grow();
+        int row = rows.size();
+        rows.add(t);
+        if (row == nextRows.length)
+            nextRows = Arrays.copyOf(nextRows, 2 * row);
+        int key = key(t, field);
+        int s = slot(key);
+        if (slotRows[s] == EMPTY)
+            used++;
+        slotKeys[s] = key;
+        nextRows[row] = slotRows[s];
+        slotRows[s] = row;
+    }
+
+    /** Double the slots, keeping the chains of rows as they are. */
+    private void grow() {
+        int[] oldKeys = slotKeys;
+        int[] oldRows = slotRows;
+        allocate(2 * oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldRows[i] != EMPTY) {
+                int s = slot(oldKeys[i]);
+                slotKeys[s] = oldKeys[i];
+                slotRows[s] = oldRows[i];
+                used++;
+            }
+        }
+    }
+
+    /** @return the last row added with key, or -1 if there is none */
+    int first(int key) {
+        return slotRows[slot(key)];
+    }
+
+    /** @return the row added before row with the same key, or -1 */
+    int next(int row) {
+        return nextRows[row];
+    }
+
+    /** @return the tuple of a row */
+    Tuple get(int row) {
+        return rows.get(row);
+    }
+
+    /** @return the number of tuples in the table */
+    int size() {
+        return rows.size();
+    }
+
+    /** Remove every tuple. */
+    void clear() {
+        rows.clear();
+        allocate(16);
+    }
+}
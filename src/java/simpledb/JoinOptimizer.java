@@ -44,6 +44,37 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, null);
+    }
+
+    /**
+     * Like {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)},
+     * for a join whose output is to be sorted afterwards.
+     *
+     * @param orderBy
+     *            the quantified name of the field the query is ordered by in
+     *            ascending order, or null. A merge join that returns tuples
+     *            in that order saves the sort.
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2, String orderBy) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, orderBy, new HashMap<String, TableStats>(),
+                new HashMap<String, Double>());
+    }
+
+    /**
+     * Like {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator, String)},
+     * with the cardinalities of the scans under plan1 and plan2 estimated
+     * from the statistics of their tables.
+     *
+     * @param stats
+     *            The statistics of each table, by table name
+     * @param filterSelectivities
+     *            The selectivity of the filters on each table, by alias
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1, OpIterator plan2,
+            String orderBy, Map<String, TableStats> stats, Map<String, Double> filterSelectivities)
+            throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -68,12 +99,169 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        double card1 = estimateCardinality(plan1, stats, filterSelectivities);
+        double card2 = estimateCardinality(plan2, stats, filterSelectivities);
+        double pages1 = estimatePages(plan1);
+        double pages2 = estimatePages(plan2);
+
+        double cost = blockJoinCost(plan1.getTupleDesc(), card1, pages1, card2, pages2);
+        j = new Join(p, plan1, plan2);
+        if (Join.canUseIndex(p, plan2) && indexJoinCost(p, card1, pages1, card2, pages2) < cost) {
+            cost = indexJoinCost(p, card1, pages1, card2, pages2);
+            j = new Join(p, plan1, plan2, Join.Method.INDEX_NESTED_LOOP);
+        }
+        if (lj.p == Predicate.Op.EQUALS && hashJoinCost(plan1.getTupleDesc(), card1, pages1, card2, pages2) < cost) {
+            cost = hashJoinCost(plan1.getTupleDesc(), card1, pages1, card2, pages2);
+            j = new HashEquiJoin(p, plan1, plan2);
+        }
+
+        // a merge join is worth it when its inputs come sorted, or when the
+        // order it leaves the tuples in saves sorting them for ORDER BY
+        if (SortMergeJoin.canMerge(lj.p)) {
+            boolean sorted1 = sortedOn(plan1) == t1id;
+            boolean sorted2 = sortedOn(plan2) == t2id;
+            SortMergeJoin merge = new SortMergeJoin(p, sorted1 ? plan1 : new OrderBy(t1id, true, plan1),
+                    sorted2 ? plan2 : new OrderBy(t2id, true, plan2));
+            boolean ordersOutput = orderBy != null
+                    && orderBy.equals(merge.getTupleDesc().getFieldName(merge.getOrderField()));
+            if ((sorted1 && sorted2) || ordersOutput) {
+                double mergeCost = TableStats.IOCOSTPERPAGE * (pages1 + pages2)
+                        + card1 + card2
+                        + (sorted1 ? 0 : sortCost(card1)) + (sorted2 ? 0 : sortCost(card2))
+                        - (ordersOutput ? sortCost(Math.max(card1, card2)) : 0);
+                if (mergeCost <= cost)  //on a tie, the sorted output may save a sort later
+                    j = merge;
+            }
+        }
 
         return j;
 
     }
 
+    /**
+     * @return the field of plan's tuples they are known to come in ascending
+     *         order of, or -1: the order plan offers to a merge join or an
+     *         ORDER BY above it
+     */
+    static int sortedOn(OpIterator plan) {
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+            if (!(f instanceof BTreeFile))
+                return -1;
+            // a B+tree is scanned through its leaves in key order
+            for (int i = 0; i < scan.getTupleDesc().numFields(); i++)
+                if (scan.isIndexedOn(i))
+                    return i;
+            return -1;
+        }
+        if (plan instanceof OrderBy)
+            return ((OrderBy) plan).isASC() ? ((OrderBy) plan).getOrderByField() : -1;
+        if (plan instanceof Filter)
+            return sortedOn(((Filter) plan).getChildren()[0]);
+        if (plan instanceof SortMergeJoin)
+            return ((SortMergeJoin) plan).getOrderField();
+        if (plan instanceof Join && ((Join) plan).getMethod() == Join.Method.INDEX_NESTED_LOOP)
+            return sortedOn(((Join) plan).getChildren()[0]);  //goes through child1 in order
+        return -1;
+    }
+
+    /*
+     * The costs below count TableStats.IOCOSTPERPAGE per page read and 1 per
+     * predicate application. Pages are counted from the files under a plan.
+     * Cardinalities come from the TableStats of the scanned tables, or from
+     * the file sizes for a table without statistics.
+     */
+
+    /** Selectivity assumed for a predicate we know nothing about */
+    private static final double DEFAULT_SELECTIVITY = 1.0 / 3;
+
+    /** @return the number of pages one scan of plan reads */
+    private static double estimatePages(OpIterator plan) {
+        if (plan instanceof SeqScan) {
+            DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+            if (f instanceof HeapFile)
+                return ((HeapFile) f).numPages();
+            if (f instanceof BTreeFile)
+                return ((BTreeFile) f).numPages();
+            return 1;
+        }
+        if (!(plan instanceof Operator))
+            return 1;
+        OpIterator[] children = ((Operator) plan).getChildren();
+        double pages = 0;
+        for (OpIterator child : children)
+            pages += estimatePages(child);
+        return pages;
+    }
+
+    /** @return the number of tuples plan returns */
+    private static double estimateCardinality(OpIterator plan, Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities) {
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            TableStats ts = stats.get(scan.getTableName());
+            Double selectivity = filterSelectivities.get(scan.getAlias());
+            if (ts != null) {
+                int card = ts.estimateTableCardinality(selectivity == null ? 1.0 : selectivity);
+                if (card > 0)
+                    return card;
+            }
+            // no statistics: as many tuples as fill the pages
+            TupleDesc td = Database.getCatalog().getTupleDesc(scan.getTableId());
+            double perPage = Math.max(1, BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1));
+            return estimatePages(plan) * perPage
+                    * Math.pow(DEFAULT_SELECTIVITY, scan.getPredicates().size());
+        }
+        if (!(plan instanceof Operator))
+            return 1;
+        OpIterator[] children = ((Operator) plan).getChildren();
+        if (plan instanceof Filter)
+            return estimateCardinality(children[0], stats, filterSelectivities) * DEFAULT_SELECTIVITY;
+        double card = 1;
+        for (OpIterator child : children)
+            card = Math.max(card, estimateCardinality(child, stats, filterSelectivities));
+        return card;
+    }
+
+    /** @return the comparisons sorting card tuples takes */
+    private static double sortCost(double card) {
+        return card * Math.log(Math.max(2, card)) / Math.log(2);
+    }
+
+    /**
+     * @return the cost of a block nested loop join, which reads plan2 once
+     *         for each block of plan1 and compares every pair of tuples
+     */
+    private static double blockJoinCost(TupleDesc td1, double card1, double pages1, double card2, double pages2) {
+        double blocks = Math.ceil(card1 / Join.defaultBlockSize(td1));
+        return TableStats.IOCOSTPERPAGE * (pages1 + blocks * pages2) + card1 * card2;
+    }
+
+    /**
+     * @return the cost of an index nested loop join, which descends the
+     *         B+tree under plan2 once for each tuple of plan1
+     */
+    private static double indexJoinCost(JoinPredicate p, double card1, double pages1, double card2, double pages2) {
+        // internal pages hold hundreds of entries, so the tree is shallow
+        double height = 1 + Math.ceil(Math.log(Math.max(2, pages2)) / Math.log(100));
+        double matches = p.getOperator() == Predicate.Op.EQUALS ? 1 : card2 * DEFAULT_SELECTIVITY;
+        double matchPages = Math.ceil(matches * pages2 / Math.max(1, card2));
+        return TableStats.IOCOSTPERPAGE * (pages1 + card1 * (height + matchPages)) + card1 * matches;
+    }
+
+    /**
+     * @return the cost of a HashEquiJoin, which reads both plans once and
+     *         hashes every tuple. The share of plan1 beyond its memory
+     *         budget is written to partition files with the matching share
+     *         of plan2, and read back.
+     */
+    private static double hashJoinCost(TupleDesc td1, double card1, double pages1, double card2, double pages2) {
+        double budget = (double) HashEquiJoin.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize();
+        double spilled = Math.max(0, 1 - budget / Math.max(1, card1 * SpillFile.tupleBytes(td1)));
+        return TableStats.IOCOSTPERPAGE * (pages1 + pages2) * (1 + 2 * spilled) + card1 + card2;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
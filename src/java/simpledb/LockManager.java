@@ -0,0 +1,421 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager is the page-level lock table used by the BufferPool to enforce
+ * strict two-phase locking.
+ * <p>
+ * Each locked page has a set of holders and a FIFO queue of waiting requests.
+ * A request that cannot be granted parks on its own Condition instead of
+ * spinning, and is woken up when the locks in front of it are released.
+ * Requests are granted strictly in queue order so writers are not starved by
+ * a stream of readers, except that a holder upgrading from a shared to an
+ * exclusive lock is queued ahead of everyone who does not hold the page yet.
+ * <p>
+ * Deadlocks are found by a background thread that periodically builds the
+ * wait-for graph of the parked requests and, for every cycle, aborts the
+ * youngest transaction on it (the one with the largest TransactionId). Only
+ * the victim's acquireLock() call fails with TransactionAbortedException;
+ * the other transactions on the cycle simply keep waiting. The detector runs
+ * only while some request is parked and exits when the table goes quiet.
+ * <p>
+ * The table is split into stripes by PageId hash, each with its own latch,
+ * so transactions locking different pages do not contend. Every transaction
+ * also has an index of the locks it holds: re-acquiring a lock it already
+ * has never touches a stripe latch, and releasing all of its locks at commit
+ * costs time proportional to the locks it holds, not to the size of the table.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** How often the deadlock detector looks at the wait-for graph, in milliseconds. */
+    public static final long DETECTION_INTERVAL = 50;
+
+    /** A parked lock request. */
+    private static class Request {
+        final TransactionId tid;
+        final boolean exclusive;
+        final boolean upgrade;
+        final Condition ready;
+        boolean granted = false;
+        boolean aborted = false;
+
+        Request(TransactionId tid, boolean exclusive, boolean upgrade, Condition ready) {
+            this.tid = tid;
+            this.exclusive = exclusive;
+            this.upgrade = upgrade;
+            this.ready = ready;
+        }
+    }
+
+    /** The holders of one page and the requests waiting for it. */
+    private static class LockState {
+        final HashMap<TransactionId, Boolean> holders = new HashMap<TransactionId, Boolean>(); //tid -> holds exclusively
+        final LinkedList<Request> queue = new LinkedList<Request>();
+
+        boolean isFree() {
+            return holders.isEmpty() && queue.isEmpty();
+        }
+    }
+
+    /** One partition of the lock table. */
+    private static class Stripe {
+        final ReentrantLock latch = new ReentrantLock();  //protects table and every LockState in it
+        final HashMap<PageId, LockState> table = new HashMap<PageId, LockState>();
+    }
+
+    private final Stripe[] stripes;
+    // tid -> page -> held exclusively; entries are only changed under the page's stripe latch
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Boolean>> heldLocks =
+            new ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Boolean>>();
+    private final AtomicInteger parked = new AtomicInteger(0);
+    private final AtomicLong deadlocksFound = new AtomicLong(0);
+    private Thread detector = null;  //guarded by this
+
+    /** Creates a lock table with a few stripes per available processor. */
+    public LockManager() {
+        this(4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param numStripes how many independently latched partitions to split
+     *   the lock table into; rounded up to a power of two
+     */
+    public LockManager(int numStripes) {
+        int n = 1;
+        while (n < numStripes)
+            n <<= 1;
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe();
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /**
+     * Acquire a lock on pid on behalf of tid, blocking until it is granted.
+     * Asking for a lock that tid already holds (or a weaker one) returns at
+     * once; asking for READ_WRITE while holding READ_ONLY upgrades the lock.
+     *
+     * @throws TransactionAbortedException if tid was chosen as a deadlock
+     *   victim or the waiting thread was interrupted
+     */
+    public void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusive = (perm == Permissions.READ_WRITE);
+        ConcurrentHashMap<PageId, Boolean> mine = heldLocks.get(tid);
+        if (mine != null) {
+            Boolean held = mine.get(pid);
+            if (held != null && (held || !exclusive))
+                return;  //already holds a strong enough lock, no need to latch anything
+        }
+
+        Stripe stripe = stripeFor(pid);
+        stripe.latch.lock();
+        try {
+            LockState state = stripe.table.get(pid);
+            if (state == null) {
+                state = new LockState();
+                stripe.table.put(pid, state);
+            }
+            Boolean held = state.holders.get(tid);
+            if (held != null && (held || !exclusive))
+                return;
+            boolean upgrade = (held != null);
+            if ((upgrade || state.queue.isEmpty()) && compatible(state, tid, exclusive)) {
+                grant(state, tid, pid, exclusive);
+                return;
+            }
+
+            Request request = new Request(tid, exclusive, upgrade, stripe.latch.newCondition());
+            enqueue(state, request);
+            parked.incrementAndGet();
+            startDetector();
+            try {
+                while (!request.granted) {
+                    if (request.aborted)
+                        throw new TransactionAbortedException();
+                    request.ready.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            } finally {
+                parked.decrementAndGet();
+                if (!request.granted) {
+                    state.queue.remove(request);
+                    grantWaiters(state, pid);  //our request may have been blocking the ones behind it
+                    if (state.isFree())
+                        stripe.table.remove(pid);
+                }
+            }
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Release the lock tid holds on pid, if any, and wake up whoever can now
+     * be granted.
+     *
+     * @return true if tid held a lock on pid
+     */
+    public boolean releaseLock(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        stripe.latch.lock();
+        try {
+            return release(stripe, tid, pid);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /** Release every lock held by tid, e.g. when it commits or aborts. */
+    public void releaseAllLocks(TransactionId tid) {
+        ConcurrentHashMap<PageId, Boolean> mine = heldLocks.get(tid);
+        if (mine == null)
+            return;
+        for (PageId pid : mine.keySet()) {
+            releaseLock(tid, pid);
+        }
+        if (mine.isEmpty())
+            heldLocks.remove(tid, mine);
+    }
+
+    /** Return true if tid holds a lock of any kind on pid. */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId, Boolean> mine = heldLocks.get(tid);
+        return mine != null && mine.containsKey(pid);
+    }
+
+    /** @return the pages tid currently holds locks on */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        ConcurrentHashMap<PageId, Boolean> mine = heldLocks.get(tid);
+        if (mine == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(mine.keySet());
+    }
+
+    /** @return the number of deadlocks broken so far, for tests and monitoring */
+    public long getDeadlockCount() {
+        return deadlocksFound.get();
+    }
+
+    /** must be called with the stripe latch held */
+    private boolean release(Stripe stripe, TransactionId tid, PageId pid) {
+        LockState state = stripe.table.get(pid);
+        if (state == null || state.holders.remove(tid) == null)
+            return false;
+        ConcurrentHashMap<PageId, Boolean> mine = heldLocks.get(tid);
+        if (mine != null)
+            mine.remove(pid);
+        grantWaiters(state, pid);
+        if (state.isFree())
+            stripe.table.remove(pid);
+        return true;
+    }
+
+    /** record that tid now holds pid, must be called with the stripe latch held */
+    private void grant(LockState state, TransactionId tid, PageId pid, boolean exclusive) {
+        Boolean held = state.holders.get(tid);
+        boolean mode = exclusive || (held != null && held);
+        state.holders.put(tid, mode);
+        ConcurrentHashMap<PageId, Boolean> mine = heldLocks.get(tid);
+        if (mine == null) {
+            mine = new ConcurrentHashMap<PageId, Boolean>();
+            ConcurrentHashMap<PageId, Boolean> raced = heldLocks.putIfAbsent(tid, mine);
+            if (raced != null)
+                mine = raced;
+        }
+        mine.put(pid, mode);
+    }
+
+    /** true if tid may hold the lock alongside the current holders */
+    private static boolean compatible(LockState state, TransactionId tid, boolean exclusive) {
+        for (Map.Entry<TransactionId, Boolean> holder : state.holders.entrySet()) {
+            if (!holder.getKey().equals(tid) && (exclusive || holder.getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    /** upgrades go behind other upgrades but ahead of every fresh request */
+    private static void enqueue(LockState state, Request request) {
+        if (!request.upgrade) {
+            state.queue.addLast(request);
+            return;
+        }
+        ListIterator<Request> it = state.queue.listIterator();
+        while (it.hasNext()) {
+            if (!it.next().upgrade) {
+                it.previous();
+                break;
+            }
+        }
+        it.add(request);
+    }
+
+    /** grant queued requests in FIFO order until one does not fit */
+    private void grantWaiters(LockState state, PageId pid) {
+        Iterator<Request> it = state.queue.iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            if (request.aborted)
+                continue;
+            if (!compatible(state, request.tid, request.exclusive))
+                break;
+            it.remove();
+            grant(state, request.tid, pid, request.exclusive);
+            request.granted = true;
+            request.ready.signal();
+        }
+    }
+
+    private synchronized void startDetector() {
+        if (detector != null)
+            return;
+        detector = new Thread(new Runnable() {
+            public void run() {
+                detectLoop();
+            }
+        }, "simpledb-deadlock-detector");
+        detector.setDaemon(true);
+        detector.start();
+    }
+
+    /** @return true if the detector should keep running */
+    private synchronized boolean stillNeeded() {
+        if (parked.get() == 0) {
+            detector = null;
+            return false;
+        }
+        return true;
+    }
+
+    private void detectLoop() {
+        while (true) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(DETECTION_INTERVAL);
+            } catch (InterruptedException e) {
+                // fall through and check once more before deciding to exit
+            }
+            if (!stillNeeded())
+                return;
+            // latch every stripe, always in the same order, to see a consistent graph
+            for (Stripe stripe : stripes)
+                stripe.latch.lock();
+            try {
+                breakDeadlocks();
+            } finally {
+                for (int i = stripes.length - 1; i >= 0; i--)
+                    stripes[i].latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Build the wait-for graph and abort the youngest transaction on each
+     * cycle until the graph is acyclic. Must be called with every stripe latched.
+     */
+    private void breakDeadlocks() {
+        HashMap<TransactionId, Set<TransactionId>> waitsFor = new HashMap<TransactionId, Set<TransactionId>>();
+        for (Stripe stripe : stripes) {
+            for (LockState state : stripe.table.values())
+                addEdges(state, waitsFor);
+        }
+
+        List<TransactionId> cycle;
+        while ((cycle = findCycle(waitsFor)) != null) {
+            TransactionId victim = cycle.get(0);
+            for (TransactionId tid : cycle) {
+                if (tid.getId() > victim.getId())
+                    victim = tid;
+            }
+            deadlocksFound.incrementAndGet();
+            abortWaiting(victim);
+            waitsFor.remove(victim);
+        }
+    }
+
+    /** add the edges from the requests parked on one page to what they wait for */
+    private static void addEdges(LockState state, Map<TransactionId, Set<TransactionId>> waitsFor) {
+        ArrayList<Request> ahead = new ArrayList<Request>();
+        for (Request request : state.queue) {
+            if (request.aborted)
+                continue;
+            Set<TransactionId> edges = waitsFor.get(request.tid);
+            if (edges == null) {
+                edges = new HashSet<TransactionId>();
+                waitsFor.put(request.tid, edges);
+            }
+            for (Map.Entry<TransactionId, Boolean> holder : state.holders.entrySet()) {
+                if (!holder.getKey().equals(request.tid) && (request.exclusive || holder.getValue()))
+                    edges.add(holder.getKey());
+            }
+            for (Request other : ahead) {
+                if (!other.tid.equals(request.tid) && (request.exclusive || other.exclusive))
+                    edges.add(other.tid);
+            }
+            ahead.add(request);
+        }
+    }
+
+    /** @return the transactions on some cycle of the graph, or null if there is none */
+    private static List<TransactionId> findCycle(Map<TransactionId, Set<TransactionId>> waitsFor) {
+        HashMap<TransactionId, Integer> color = new HashMap<TransactionId, Integer>(); //1 on stack, 2 done
+        for (TransactionId start : waitsFor.keySet()) {
+            if (color.containsKey(start))
+                continue;
+            LinkedList<TransactionId> path = new LinkedList<TransactionId>();
+            LinkedList<Iterator<TransactionId>> edges = new LinkedList<Iterator<TransactionId>>();
+            path.addLast(start);
+            edges.addLast(waitsFor.get(start).iterator());
+            color.put(start, 1);
+            while (!path.isEmpty()) {
+                Iterator<TransactionId> it = edges.getLast();
+                if (!it.hasNext()) {
+                    color.put(path.removeLast(), 2);
+                    edges.removeLast();
+                    continue;
+                }
+                TransactionId next = it.next();
+                Integer c = color.get(next);
+                if (c == null) {
+                    Set<TransactionId> out = waitsFor.get(next);
+                    color.put(next, 1);
+                    path.addLast(next);
+                    edges.addLast(out == null ? Collections.<TransactionId>emptyIterator() : out.iterator());
+                } else if (c == 1) {
+                    return new ArrayList<TransactionId>(path.subList(path.indexOf(next), path.size()));
+                }
+            }
+        }
+        return null;
+    }
+
+    /** make every parked request of tid fail with TransactionAbortedException */
+    private void abortWaiting(TransactionId tid) {
+        for (Stripe stripe : stripes) {
+            for (LockState state : stripe.table.values()) {
+                for (Request request : state.queue) {
+                    if (request.tid.equals(tid) && !request.aborted) {
+                        request.aborted = true;
+                        request.ready.signal();
+                    }
+                }
+            }
+        }
+    }
+}
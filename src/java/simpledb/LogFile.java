@@ -467,10 +467,41 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    return; // tid never logged a write, so none of its changes can be on disk
+
+                // the earliest before image of each page is its state before tid touched it;
+                // later ones may already contain tid's own stolen updates
+                HashMap<PageId, Page> beforeImages = new HashMap<PageId, Page>();
+                raf.seek(firstRecord);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    if (type == UPDATE_RECORD) {
+                        Page before = readPageData(raf);
+                        readPageData(raf); // after image
+                        if (recordTid == tid.getId() && !beforeImages.containsKey(before.getId()))
+                            beforeImages.put(before.getId(), before);
+                    } else if (type == CHECKPOINT_RECORD) {
+                        skipCheckpointBody(raf);
+                    }
+                    raf.readLong(); // start offset
+                }
+                raf.seek(currentOffset);
+
+                for (Page before : beforeImages.values()) {
+                    writeRecovered(before);
+                }
             }
         }
     }
 
+    void skipCheckpointBody(RandomAccessFile raf) throws IOException {
+        int numXactions = raf.readInt();
+        raf.skipBytes(numXactions * 2 * LONG_SIZE);
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -494,10 +525,113 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (raf.length() < LONG_SIZE) {
+                    // nothing was ever logged
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = raf.getFilePointer();
+                    return;
+                }
+
+                // pass 1: find out how every transaction in the log ended
+                HashSet<Long> started = new HashSet<Long>();
+                HashSet<Long> finished = new HashSet<Long>();
+                HashSet<Long> committed = new HashSet<Long>();
+                long end = scanLog(started, finished, committed);
+
+                // pass 2: redo committed updates in log order, remember the
+                // earliest before image of every page a loser wrote
+                HashMap<PageId, Page> undo = new HashMap<PageId, Page>();
+                raf.seek(LONG_SIZE);
+                while (raf.getFilePointer() < end) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    if (type == UPDATE_RECORD) {
+                        Page before = readPageData(raf);
+                        Page after = readPageData(raf);
+                        if (committed.contains(recordTid)) {
+                            writeRecovered(after);
+                        } else if (!finished.contains(recordTid) && !undo.containsKey(before.getId())) {
+                            undo.put(before.getId(), before);
+                        }
+                    } else if (type == CHECKPOINT_RECORD) {
+                        skipCheckpointBody(raf);
+                    }
+                    raf.readLong();
+                }
+
+                // pass 3: undo losers, and log that they aborted so a second
+                // recovery does not undo them again over newer committed data
+                for (Page before : undo.values())
+                    writeRecovered(before);
+                raf.seek(end);
+                raf.setLength(end); // drop a record torn by the crash, if any
+                currentOffset = end;
+                for (Long loser : started) {
+                    if (finished.contains(loser))
+                        continue;
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(loser);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                }
+                force();
+                tidToFirstLogRecord.clear();
             }
          }
     }
 
+    /**
+     * Read the whole log, sorting transaction ids by how they ended.
+     * @return the offset just past the last complete record
+     */
+    private long scanLog(Set<Long> started, Set<Long> finished, Set<Long> committed) throws IOException {
+        raf.seek(LONG_SIZE);
+        long end = raf.getFilePointer();
+        while (true) {
+            try {
+                int type = raf.readInt();
+                long recordTid = raf.readLong();
+                switch (type) {
+                case UPDATE_RECORD:
+                    readPageData(raf);
+                    readPageData(raf);
+                    started.add(recordTid);
+                    break;
+                case CHECKPOINT_RECORD:
+                    skipCheckpointBody(raf);
+                    break;
+                case BEGIN_RECORD:
+                    started.add(recordTid);
+                    break;
+                case COMMIT_RECORD:
+                    committed.add(recordTid);
+                    finished.add(recordTid);
+                    break;
+                case ABORT_RECORD:
+                    finished.add(recordTid);
+                    break;
+                default:
+                    return end; // garbage, the crash tore this record
+                }
+                raf.readLong();
+                end = raf.getFilePointer();
+            } catch (EOFException e) {
+                return end;
+            } catch (IOException e) {
+                return end; // a page image cut short by the crash
+            } catch (RuntimeException e) {
+                return end; // nonsense lengths in a torn page image
+            }
+        }
+    }
+
+    private void writeRecovered(Page p) throws IOException {
+        // discard first: this also waits for a background write of the page to land
+        Database.getBufferPool().discardPage(p.getId());
+        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
@@ -2,6 +2,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -31,10 +32,11 @@ public class LogicalPlan {
     private Vector<LogicalSelectListNode> selectList;
     private String groupByField = null;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private ArrayList<String> aggOps = new ArrayList<String>();
+    private ArrayList<String> aggFields = new ArrayList<String>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1, offset = 0;  //limit -1 if there is no LIMIT
     private String query;
 //    private Query owner;
 
@@ -186,8 +188,8 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  SimpleDb supports several aggregate expressions, computed
+        in one pass in the order they are added, but a single GROUP BY field.
         @param op the aggregation operator
         @param afield the field to aggregate over
         @param gfield the field to group by
@@ -197,8 +199,8 @@ public class LogicalPlan {
         afield=disambiguateName(afield);
         if (gfield!=null)
             gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
+        aggOps.add(op);
+        aggFields.add(afield);
         groupByField = gfield;
         hasAgg = true;
     }
@@ -216,6 +218,17 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause: return only limit tuples, after skipping offset tuples.
+        With an ORDER BY, the plan keeps only the tuples it may return instead of
+        sorting them all; without one, it stops reading once it has them.
+        @param limit the most tuples to return
+        @param offset the number of tuples to skip first, 0 if there is no OFFSET
+    */
+    public void setLimit(int limit, int offset) {
+        this.limit = limit;
+        this.offset = offset;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +284,51 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Make each scan in subplanMap return only the fields that the joins,
+     *  select list, aggregate and ORDER BY refer to, so that the others are
+     *  neither decoded nor carried through the joins.  Filters must already
+     *  have been pushed into the scans.
+     */
+    private void pushProjections() {
+        HashSet<String> needed = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return;  //every field is output
+            needed.add(si.fname);
+        }
+        if (hasAgg) {
+            needed.addAll(aggFields);
+            if (groupByField != null)
+                needed.add(groupByField);
+        }
+        if (hasOrderBy)
+            needed.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            needed.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                needed.add(lj.f2QuantifiedName);
+        }
+
+        for (LogicalScanNode table : tables) {
+            OpIterator subplan = subplanMap.get(table.alias);
+            if (!(subplan instanceof SeqScan))
+                continue;
+            TupleDesc td = subplan.getTupleDesc();
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            for (int i = 0; i < td.numFields(); i++)
+                if (needed.contains(td.getFieldName(i)))
+                    fields.add(i);
+            if (fields.size() == td.numFields())
+                continue;
+            if (fields.isEmpty())
+                fields.add(0);  //tuples still have to be counted
+            int[] outFields = new int[fields.size()];
+            for (int i = 0; i < outFields.length; i++)
+                outFields[i] = fields.get(i);
+            ((SeqScan) subplan).setOutputFields(outFields);
+        }
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -334,7 +392,10 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof SeqScan)
+                ((SeqScan) subplan).addPredicate(p);  //tested on the scanned pages, before tuples are built
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,7 +404,9 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
-        
+
+        pushProjections();
+
         if (!joins.isEmpty()) {
             JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -383,7 +446,8 @@ public class LogicalPlan {
                     throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
                 
                 OpIterator j;
-                j = jo.instantiateJoin(lj,plan1,plan2);
+                j = JoinOptimizer.instantiateJoin(lj,plan1,plan2,hasOrderBy && oByAsc && !hasAgg ? oByField : null,
+                        statsMap,filterSelectivities);
                 subplanMap.put(t1name, j);
 
                 if (!isSubqueryJoin) {
@@ -412,10 +476,11 @@ public class LogicalPlan {
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
+        int aggs = 0;  //aggregates in the select list so far
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                outFields.add((groupByField!=null?1:0) + aggs++);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -463,10 +528,15 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                aggNode = new Aggregate(node, afields,
                                         groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                                aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -476,7 +546,15 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            // a plan that already returns this order, like a B+tree scan or a merge join, needs no sort
+            boolean sorted = oByAsc && JoinOptimizer.sortedOn(node) == oByIndex;
+            if (limit >= 0)
+                node = new TopN(sorted ? TopN.NO_ORDER : oByIndex, oByAsc, limit, offset, node);
+            else if (!sorted)
+                node = new OrderBy(oByIndex, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new TopN(TopN.NO_ORDER, true, limit, offset, node);
         }
 
         return new Project(outFields, outTypes, node);
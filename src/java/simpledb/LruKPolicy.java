@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil et al.). Every access is stamped with a logical
+ * clock and a page is ranked by the time of its K-th most recent access, so a
+ * page touched once by a scan loses to a page touched repeatedly by lookups.
+ * <p>
+ * Pages with fewer than K accesses have an infinite backward K-distance and
+ * are always evicted first, least recently used among them first; they live
+ * on a LinkedHashSet so that case is O(1). Pages with K or more accesses are
+ * ordered by their K-th timestamp in a TreeMap, which makes hits on them
+ * O(log n) in the number of such pages.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** The K used when none is given to the constructor. */
+    public static final int DEFAULT_K = 2;
+
+    private static class History {
+        final long[] stamps;  //ring of the last K access times
+        int count;            //total accesses, may exceed K
+
+        History(int k) {
+            stamps = new long[k];
+        }
+
+        void record(long now) {
+            stamps[count % stamps.length] = now;
+            count++;
+        }
+
+        /** @return the K-th most recent access time, only valid when count >= K */
+        long kthStamp() {
+            return stamps[count % stamps.length];
+        }
+    }
+
+    private final int k;
+    private long clock = 0;
+    private final HashMap<PageId, History> histories = new HashMap<PageId, History>();
+    private final LinkedHashSet<PageId> young = new LinkedHashSet<PageId>();  //fewer than K accesses
+    private final TreeMap<Long, PageId> mature = new TreeMap<Long, PageId>(); //keyed by K-th access time
+
+    public LruKPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k how many accesses back to look when ranking pages, at least 1
+     */
+    public LruKPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+    }
+
+    public void pageAdded(PageId pid) {
+        if (histories.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        History h = new History(k);
+        histories.put(pid, h);
+        touch(pid, h);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = histories.get(pid);
+        if (h != null)
+            touch(pid, h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = histories.remove(pid);
+        if (h != null)
+            unindex(pid, h);
+    }
+
+    public PageId chooseVictim(EvictionFilter filter) {
+        Iterator<PageId> it = young.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                histories.remove(pid);
+                return pid;
+            }
+        }
+        Iterator<PageId> mit = mature.values().iterator();
+        while (mit.hasNext()) {
+            PageId pid = mit.next();
+            if (filter.canEvict(pid)) {
+                mit.remove();
+                histories.remove(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return histories.size();
+    }
+
+    private void touch(PageId pid, History h) {
+        unindex(pid, h);
+        h.record(++clock);
+        if (h.count < k) {
+            young.add(pid);
+        } else {
+            mature.put(h.kthStamp(), pid);
+        }
+    }
+
+    private void unindex(PageId pid, History h) {
+        if (h.count == 0)
+            return;
+        if (h.count < k) {
+            young.remove(pid);
+        } else {
+            mature.remove(h.kthStamp());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Plain least-recently-used replacement. Pages are kept in a LinkedHashSet
+ * ordered from least to most recently used, so a hit is an O(1) remove and
+ * re-append and the victim is the first evictable page from the head.
+ */
+public class LruPolicy implements ReplacementPolicy {
+
+    private final LinkedHashSet<PageId> pages = new LinkedHashSet<PageId>();
+
+    public void pageAdded(PageId pid) {
+        pages.remove(pid);
+        pages.add(pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+        if (pages.remove(pid))
+            pages.add(pid);  //move it to the most recently used end
+    }
+
+    public void pageRemoved(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public PageId chooseVictim(EvictionFilter filter) {
+        Iterator<PageId> it = pages.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return pages.size();
+    }
+}
@@ -53,4 +53,30 @@ public interface OpIterator extends Serializable{
    */
   public void close();
 
+  /**
+   * Tells the iterator whether the caller is done with each tuple by the time
+   * it calls hasNext() or next() again. If so, the iterator may return the
+   * same Tuple object from every next(), overwritten in place (see
+   * {@link BufferTuple}), so that it allocates nothing per row. Iterators that
+   * cannot do this ignore the call. Must be called before open().
+   * @param reuse true if returned tuples may be reused
+   */
+  default void setReuseTuples(boolean reuse) {
+  }
+
+  /**
+   * Returns the next rows of the iterator as a batch of columns, about
+   * {@link TupleBatch#DEFAULT_SIZE} at a time. Iterators that work on
+   * batches return them straight from tight loops over the columns; the
+   * others fill one from hasNext() and next(). A caller uses either
+   * next() or nextBatch() between open() and close() or rewind(), not both.
+   * A returned batch is only valid until the next call.
+   *
+   * @return the next batch, with at least one row, or null if there are no more rows
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+      return TupleBatch.fromRows(this, TupleBatch.DEFAULT_SIZE);
+  }
+
 }
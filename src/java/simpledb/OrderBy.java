@@ -4,17 +4,37 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It is an external merge sort. The child is read into memory until the
+ * tuples fill the memory budget; they are sorted and, unless they are all
+ * of the child, written out as a sorted run to a {@link SpillFile}. The runs
+ * are then merged through a loser tree, in several passes if there are more
+ * runs than the budget has room for buffers of.
+ * <p>
+ * Each tuple is sorted by a long key made from its sort field, an int or
+ * the first characters of a string, so most comparisons compare two longs;
+ * only strings whose keys are equal compare their fields.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Pages of memory the tuples being sorted may take by default */
+    public static final int DEFAULT_MEMORY_PAGES = 1000;
+
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
+    private long memoryBudget;  //bytes
+    private final boolean exactKeys;  //keys order tuples completely, no field compare needed
+    private final TupleComparator comparator;
+
+    private transient Entry[] sorted;  //all the tuples, if they fit in memory
+    private transient int next;  //the next entry of sorted to return
+    private transient ArrayList<SpillFile> runs;  //the sorted runs, if they did not
+    private transient Merger merger;  //merges runs
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -32,6 +52,9 @@ public class OrderBy extends Operator {
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryBudget = (long) DEFAULT_MEMORY_PAGES * BufferPool.getPageSize();
+        this.exactKeys = td.getFieldType(orderbyField) == Type.INT_TYPE;
+        this.comparator = new TupleComparator(orderbyField, asc);
     }
     
     public boolean isASC()
@@ -53,24 +76,148 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * Set the bytes of memory the tuples being sorted may take before they
+     * are written out as a run. Takes effect at the next open().
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /** @return the number of sorted runs written by the last open(), 0 if the sort fit in memory */
+    int numRuns() {
+        return runs == null ? 0 : runs.size();
+    }
+
+    /** A tuple and its sort key */
+    private static class Entry {
+        final long key;
+        final Tuple tuple;
+
+        Entry(long key, Tuple tuple) {
+            this.key = key;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * @return the sort key of t: keys of tuples in order are in order as
+     *         longs. Strings use their first four characters, so equal keys
+     *         of strings may still be different strings.
+     */
+    private long key(Tuple t) {
+        long k;
+        if (exactKeys) {
+            k = t.getInt(orderByField);
+        } else {
+            String s = ((StringField) t.getField(orderByField)).getValue();
+            k = 0;
+            for (int i = 0; i < 4; i++)
+                k = k << 16 | (i < s.length() ? s.charAt(i) : 0);
+            k ^= Long.MIN_VALUE;  //chars are unsigned
+        }
+        return asc ? k : ~k;
+    }
+
+    private int compare(Entry a, Entry b) {
+        if (a.key != b.key)
+            return a.key < b.key ? -1 : 1;
+        return exactKeys ? 0 : comparator.compare(a.tuple, b.tuple);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sort();
         super.open();
     }
 
+    /** Sort the child, in memory or into runs */
+    private void sort() throws DbException, TransactionAbortedException {
+        long bytes = SpillFile.tupleBytes(td) + 32;  //and its Entry
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        runs = new ArrayList<SpillFile>();
+        long total = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            entries.add(new Entry(key(t), t));
+            total += bytes;
+            if (total > memoryBudget) {
+                runs.add(writeRun(sortEntries(entries)));
+                entries.clear();
+                total = 0;
+            }
+        }
+        if (runs.isEmpty()) {
+            runs = null;
+            sorted = sortEntries(entries);
+            next = 0;
+            return;
+        }
+        if (!entries.isEmpty())
+            runs.add(writeRun(sortEntries(entries)));
+        // every run being merged takes a page of buffer
+        int fanIn = (int) Math.max(2, memoryBudget / BufferPool.getPageSize());
+        while (runs.size() > fanIn) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                SpillFile run = new SpillFile(td, BufferPool.getPageSize());
+                Merger m = new Merger(group);
+                Tuple t;
+                while ((t = m.next()) != null)
+                    run.add(t);
+                m.close();
+                for (SpillFile f : group)
+                    f.delete();
+                merged.add(run);
+            }
+            runs = merged;
+        }
+        merger = new Merger(runs);
+    }
+
+    private Entry[] sortEntries(ArrayList<Entry> entries) {
+        Entry[] a = entries.toArray(new Entry[entries.size()]);
+        Arrays.sort(a, new Comparator<Entry>() {
+            public int compare(Entry x, Entry y) {
+                return OrderBy.this.compare(x, y);
+            }
+        });
+        return a;
+    }
+
+    private SpillFile writeRun(Entry[] entries) throws DbException {
+        SpillFile run = new SpillFile(td, BufferPool.getPageSize());
+        for (Entry e : entries)
+            run.add(e.tuple);
+        return run;
+    }
+
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        if (merger != null)
+            merger.close();
+        if (runs != null)
+            for (SpillFile f : runs)
+                f.delete();
+        merger = null;
+        runs = null;
+        sorted = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs == null) {
+            next = 0;
+        } else {
+            merger.close();
+            merger = new Merger(runs);
+        }
     }
 
     /**
@@ -82,10 +229,90 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+        if (merger != null)
+            return merger.next();
+        if (sorted != null && next < sorted.length)
+            return sorted[next++].tuple;
+        return null;
+    }
+
+    /**
+     * Merges sorted runs with a loser tree: a tournament over the next tuple
+     * of each run, where every inner node keeps the loser of the match
+     * played there and node 0 the overall winner. Taking a tuple only
+     * replays the matches on the path from its run to the root.
+     */
+    private class Merger {
+        private final OpIterator[] inputs;
+        private final Entry[] heads;  //the next entry of each run, null once it is done
+        private final int[] tree;
+
+        Merger(List<SpillFile> runs) throws DbException, TransactionAbortedException {
+            int k = runs.size();
+            inputs = new OpIterator[k];
+            heads = new Entry[k];
+            tree = new int[k];
+            for (int i = 0; i < k; i++) {
+                inputs[i] = runs.get(i).iterator();
+                inputs[i].open();
+                advance(i);
+            }
+            tree[0] = build(1);
+        }
+
+        /** @return the winner of the subtree at node n; leaves are nodes k to 2k - 1 */
+        private int build(int n) {
+            int k = tree.length;
+            if (n >= k)
+                return n - k;
+            int a = build(2 * n), b = build(2 * n + 1);
+            if (beats(a, b)) {
+                tree[n] = b;
+                return a;
+            }
+            tree[n] = a;
+            return b;
+        }
+
+        /** @return true if run a's next tuple comes before run b's */
+        private boolean beats(int a, int b) {
+            if (heads[a] == null || heads[b] == null)
+                return heads[b] == null && (heads[a] != null || a < b);
+            int c = compare(heads[a], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        private void advance(int i) throws DbException, TransactionAbortedException {
+            if (inputs[i].hasNext()) {
+                Tuple t = inputs[i].next();
+                heads[i] = new Entry(key(t), t);
+            } else {
+                heads[i] = null;
+            }
+        }
+
+        /** @return the next tuple of the merge, or null */
+        Tuple next() throws DbException, TransactionAbortedException {
+            int w = tree[0];
+            if (heads[w] == null)
+                return null;
+            Tuple t = heads[w].tuple;
+            advance(w);
+            for (int n = (w + tree.length) / 2; n > 0; n /= 2) {
+                if (beats(tree[n], w)) {
+                    int loser = w;
+                    w = tree[n];
+                    tree[n] = loser;
+                }
+            }
+            tree[0] = w;
+            return t;
+        }
+
+        void close() {
+            for (OpIterator it : inputs)
+                it.close();
+        }
     }
 
     @Override
@@ -99,25 +326,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
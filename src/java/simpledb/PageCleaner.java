@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageCleaner keeps a fraction of a BufferPool's frames clean in the
+ * background, so that evictPage() can nearly always give up a clean page
+ * instead of writing one out on the thread that asked for a page.
+ * <p>
+ * Every round the cleaner thread asks the BufferPool to write back dirty
+ * pages until the target fraction of frames is clean. The pages are logged
+ * and handed over in PageId order as snapshots, and a small pool of I/O
+ * threads writes them to their DbFiles. Until its write has landed a page
+ * counts as busy: it is not evicted as clean, and discarding or flushing it
+ * waits for the write.
+ * <p>
+ * Because the pool commits with FORCE, the dirty pages it holds all belong to
+ * running transactions, so write-back follows the STEAL protocol (see
+ * {@link BufferPool#setSteal}).
+ *
+ * @Threadsafe
+ */
+public class PageCleaner {
+
+    /** Fraction of the frames the cleaner tries to keep clean by default */
+    public static final double DEFAULT_CLEAN_FRACTION = 0.25;
+    /** Number of I/O threads writing pages by default */
+    public static final int DEFAULT_IO_THREADS = 2;
+    /** Milliseconds between two cleaning rounds when nobody wakes the cleaner */
+    public static final long INTERVAL = 20;
+
+    // weight of the latest round in the smoothed write rate
+    private static final double RATE_WEIGHT = 0.3;
+
+    private final BufferPool pool;
+    private final double cleanFraction;
+    private final ExecutorService io;
+    private final Thread cleaner;
+
+    private final ConcurrentHashMap<PageId, WriteBack> inFlight = new ConcurrentHashMap<PageId, WriteBack>();
+    private final AtomicLong pagesWritten = new AtomicLong(0);
+    private volatile double writeRate = 0;  //pages per second
+
+    private volatile boolean running = true;
+    private boolean wakeUp = false;  //guarded by this
+
+    /** A write of one page snapshot, queued on the I/O threads */
+    private class WriteBack implements Runnable {
+        private final DbFile file;
+        private final Page snapshot;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        WriteBack(DbFile file, Page snapshot) {
+            this.file = file;
+            this.snapshot = snapshot;
+        }
+
+        public void run() {
+            try {
+                file.writePage(snapshot);
+                pagesWritten.incrementAndGet();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                inFlight.remove(snapshot.getId(), this);
+                done.countDown();
+            }
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /** The page content at the time it was handed to the cleaner */
+    private static class Snapshot implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        Snapshot(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+            throw new UnsupportedOperationException();
+        }
+
+        public byte[] getPageData() {
+            return data;
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    /**
+     * Creates and starts a cleaner for the given BufferPool.
+     *
+     * @param pool the buffer pool to clean
+     * @param cleanFraction fraction of the pool's frames to keep clean, in [0, 1]
+     * @param ioThreads number of threads writing pages
+     */
+    PageCleaner(BufferPool pool, double cleanFraction, int ioThreads) {
+        if (cleanFraction < 0 || cleanFraction > 1 || ioThreads < 1)
+            throw new IllegalArgumentException("bad cleaner settings");
+        this.pool = pool;
+        this.cleanFraction = cleanFraction;
+        final AtomicInteger count = new AtomicInteger(0);
+        this.io = Executors.newFixedThreadPool(ioThreads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "page-writer-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.cleaner = new Thread("page-cleaner") {
+            public void run() {
+                cleanLoop();
+            }
+        };
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    private void cleanLoop() {
+        long lastTime = System.nanoTime();
+        long lastWritten = 0;
+        while (running) {
+            synchronized (this) {
+                if (!wakeUp) {
+                    try {
+                        wait(INTERVAL);
+                    } catch (InterruptedException e) {
+                        // check running again
+                    }
+                }
+                wakeUp = false;
+            }
+            if (!running)
+                break;
+            try {
+                pool.writeBackDirtyPages(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            long now = System.nanoTime();
+            long written = pagesWritten.get();
+            double rate = (written - lastWritten) / ((now - lastTime) / 1e9);
+            writeRate = RATE_WEIGHT * rate + (1 - RATE_WEIGHT) * writeRate;
+            lastTime = now;
+            lastWritten = written;
+        }
+    }
+
+    /** Ask for a cleaning round now instead of at the end of the interval */
+    public synchronized void wakeUp() {
+        wakeUp = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops the cleaner thread and waits for the queued writes to land.
+     */
+    public void shutdown() {
+        running = false;
+        wakeUp();
+        try {
+            cleaner.join();
+            io.shutdown();
+            io.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return the fraction of the frames this cleaner keeps clean */
+    public double getCleanFraction() {
+        return cleanFraction;
+    }
+
+    /** @return the number of pages queued or being written */
+    public int getQueueDepth() {
+        return inFlight.size();
+    }
+
+    /** @return the number of pages written since the cleaner started */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /** @return the pages written per second, smoothed over the last rounds */
+    public double getWriteRate() {
+        return writeRate;
+    }
+
+    /** @return true if a write of pid is queued or running */
+    boolean isWriting(PageId pid) {
+        return inFlight.containsKey(pid);
+    }
+
+    /**
+     * Queue a write of page's current content. The caller must hold the
+     * BufferPool's monitor and must have logged the page.
+     */
+    void writeBack(DbFile file, Page page) {
+        WriteBack w = new WriteBack(file, new Snapshot(page.getId(), page.getPageData()));
+        inFlight.put(page.getId(), w);
+        io.execute(w);
+    }
+
+    /** Wait until no write of pid is queued or running */
+    void awaitWrite(PageId pid) {
+        WriteBack w = inFlight.get(pid);
+        if (w != null)
+            w.await();
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -207,8 +209,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        ArrayList<String> aggFields = new ArrayList<String>();
+        ArrayList<String> aggFuns = new ArrayList<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,13 +220,11 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
@@ -241,12 +241,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (groupByField != null && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i), groupByField);
         }
         // sort the data
 
@@ -273,12 +273,44 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /** A LIMIT n [OFFSET m] clause ending a statement, which ZQL can't parse */
+    private static final Pattern LIMIT = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*(;?)\\s*$", Pattern.CASE_INSENSITIVE);
+
+    // the LIMIT and OFFSET of the statement being processed, limit -1 if none
+    private int limit = -1;
+    private int offset = 0;
+
+    /**
+     * Take the LIMIT clause, if there is one, off the end of a SELECT
+     * statement and keep it for {@link #handleQueryStatement}.
+     * 
+     * @return the statement without it
+     * @throws ParsingException if a statement other than a SELECT has a
+     *             LIMIT clause
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        limit = -1;
+        offset = 0;
+        Matcher m = LIMIT.matcher(s);
+        if (!m.find())
+            return s;
+        if (!s.trim().regionMatches(true, 0, "select", 0, 6))
+            throw new simpledb.ParsingException("LIMIT and OFFSET are only supported on SELECT");
+        limit = Integer.parseInt(m.group(1));
+        if (m.group(2) != null)
+            offset = Integer.parseInt(m.group(2));
+        return s.substring(0, m.start()) + m.group(3);
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.setLimit(limit, offset);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -365,13 +397,13 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
                     StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                            Type.STRING_LEN, td.getFieldType(i));
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
@@ -465,12 +497,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.setLimit(limit, offset);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -501,9 +535,31 @@ public class Parser {
         }
     }
 
+    /**
+     * @return the next statement of is, up to and including the ';' that
+     *         ends it outside a quoted string, or up to the end of the
+     *         stream. Nothing after the ';' is read, so the following
+     *         statements are left for the next call.
+     */
+    static String readStatement(InputStream is) throws IOException {
+        ByteArrayOutputStream statement = new ByteArrayOutputStream();
+        boolean quoted = false;
+        int c;
+        while ((c = is.read()) >= 0) {
+            statement.write(c);
+            if (c == '\'')
+                quoted = !quoted;
+            else if (c == ';' && !quoted)
+                break;
+        }
+        return statement.toString("UTF-8");
+    }
+
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // read the statement so that a LIMIT can be taken off before ZQL sees it
+            String sql = stripLimit(readStatement(is));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -581,7 +637,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit", "offset" };
 
     public static void main(String argv[]) throws IOException {
 
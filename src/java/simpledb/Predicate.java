@@ -105,9 +105,83 @@ public class Predicate implements Serializable {
     public boolean filter(Tuple t) {
         // some code goes here
         if(t==null)return false;
+        if(operand instanceof IntField)  //no IntField for tuples that can read the int directly
+            return IntField.compare(t.getInt(field),op,((IntField) operand).getValue());
         return t.getField(field).compare(op,operand);
     }
 
+    /**
+     * Applies the predicate to every row of a batch. An int column compared
+     * to an int operand is done in one tight loop per operator.
+     *
+     * @param b
+     *            the rows to compare
+     * @param out
+     *            receives the positions of the rows that pass, in order; must
+     *            hold b.size() entries and not be b's own selection
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch b, int[] out) {
+        int n = b.size();
+        int[] sel = b.getSelection();
+        int[] col = b.getIntColumn(field);
+        int count = 0;
+        if (col == null || !(operand instanceof IntField)) {
+            for (int i = 0; i < n; i++)
+                if (b.getField(i, field).compare(op, operand))
+                    out[count++] = b.position(i);
+            return count;
+        }
+        int v = ((IntField) operand).getValue();
+        // the position is always written, but only counted if the row passes
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++) {
+                int p = sel == null ? i : sel[i];
+                out[count] = p;
+                count += col[p] == v ? 1 : 0;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++) {
+                int p = sel == null ? i : sel[i];
+                out[count] = p;
+                count += col[p] != v ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++) {
+                int p = sel == null ? i : sel[i];
+                out[count] = p;
+                count += col[p] > v ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int p = sel == null ? i : sel[i];
+                out[count] = p;
+                count += col[p] >= v ? 1 : 0;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++) {
+                int p = sel == null ? i : sel[i];
+                out[count] = p;
+                count += col[p] < v ? 1 : 0;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int p = sel == null ? i : sel[i];
+                out[count] = p;
+                count += col[p] <= v ? 1 : 0;
+            }
+            break;
+        }
+        return count;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prefetcher reads pages into the BufferPool ahead of a scan, on a small
+ * pool of background threads, so that the scan overlaps its I/O with tuple
+ * processing instead of stalling at every page boundary.
+ * <p>
+ * Every scan owns a read-ahead object that watches which pages it asks for:
+ * {@link Sequential} for HeapFile scans in page number order and
+ * {@link LeafChain} for B+ tree scans following sibling pointers. Once
+ * {@link #TRIGGER} pages in a row were sequential it keeps up to depth pages
+ * read ahead, refilling when half of them have been consumed.
+ * <p>
+ * Prefetched pages are read without locks through
+ * {@link BufferPool#prefetchPage}, which only fills frames that are free or
+ * clean and gives up if any page was written in the meantime, so a prefetch
+ * never replaces a newer version of a page. A scan reaching a page that is
+ * still being read ahead waits for that read instead of issuing its own.
+ *
+ * @Threadsafe
+ */
+public class Prefetcher {
+
+    /** Pages read ahead of a scan at most */
+    public static final int DEFAULT_DEPTH = 8;
+    /** Sequential page requests before read-ahead kicks in */
+    public static final int TRIGGER = 2;
+
+    private static volatile boolean enabled = true;
+
+    private static final ExecutorService io = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "prefetcher-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private Prefetcher() {
+    }
+
+    /** Turn read-ahead for newly opened scans on or off */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return how many pages to read ahead in the given pool, 0 if the pool
+     *         is too small to hold them next to the pages scans are using
+     */
+    private static int depthFor(BufferPool pool) {
+        return enabled ? Math.min(DEFAULT_DEPTH, pool.numPages / 4) : 0;
+    }
+
+    /** Read-ahead for a HeapFile scan reading pages in page number order */
+    public static class Sequential {
+        private final HeapFile file;
+        private final BufferPool pool;
+        private final BufferAccessStrategy strategy;
+        private final int depth;
+
+        private int last = -2;
+        private int run = 0;
+        private int requested = -1;  //highest page number handed to the I/O threads
+        private volatile boolean pending = false;
+
+        public Sequential(HeapFile file) {
+            this(file, null);
+        }
+
+        /**
+         * Read-ahead for a scan going through strategy's ring. It stays within
+         * half of the ring, so the pages read ahead are not reused before the
+         * scan gets to them.
+         */
+        public Sequential(HeapFile file, BufferAccessStrategy strategy) {
+            this.file = file;
+            this.pool = Database.getBufferPool();
+            this.strategy = strategy;
+            this.depth = strategy == null ? depthFor(pool)
+                    : Math.min(depthFor(pool), strategy.getRingSize() / 2);
+        }
+
+        /** Called by the scan before it fetches page pageNo */
+        public void pageRead(int pageNo) {
+            if (depth == 0)
+                return;
+            if (pageNo == last + 1) {
+                run++;
+            } else {
+                run = 1;
+                requested = pageNo;
+            }
+            last = pageNo;
+            if (run < TRIGGER || pending || requested - pageNo > depth / 2)
+                return;
+            final int first = Math.max(requested, pageNo) + 1;
+            final int end = Math.min(pageNo + depth, file.pageCount() - 1);  //no stat per page read
+            if (first > end)
+                return;
+            requested = end;
+            pending = true;
+            io.execute(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = first; i <= end; i++)
+                            pool.prefetchPage(file, new HeapPageId(file.getId(), i), strategy);
+                    } catch (Exception e) {
+                        // only a hint, the scan reads the page itself
+                    } finally {
+                        pending = false;
+                    }
+                }
+            });
+        }
+    }
+
+    /** Read-ahead for a B+ tree scan walking the leaf level */
+    public static class LeafChain {
+        private final BTreeFile file;
+        private final BufferPool pool;
+        private final int depth;
+        private final boolean forward;
+
+        private int run = 0;
+        private BTreePageId frontier;  //last leaf read ahead, guarded by this
+        private int ahead = 0;  //leaves between the scan and frontier, guarded by this
+        private volatile boolean pending = false;
+
+        /**
+         * @param forward true if the scan follows right sibling pointers, false for left ones
+         */
+        public LeafChain(BTreeFile file, boolean forward) {
+            this.file = file;
+            this.pool = Database.getBufferPool();
+            this.depth = depthFor(pool);
+            this.forward = forward;
+        }
+
+        private BTreePageId next(BTreeLeafPage leaf) {
+            return forward ? leaf.getRightSiblingId() : leaf.getLeftSiblingId();
+        }
+
+        /** Called by the scan after it fetched the next leaf */
+        public void leafRead(BTreeLeafPage leaf) {
+            if (depth == 0)
+                return;
+            run++;
+            final int want;
+            final BTreePageId from;
+            synchronized (this) {
+                if (ahead == 0 || leaf.getId().equals(frontier)) {
+                    frontier = leaf.getId();  //caught up with the read-ahead
+                    ahead = 0;
+                } else {
+                    ahead--;
+                }
+                if (run < TRIGGER || pending || ahead > depth / 2)
+                    return;
+                want = depth - ahead;
+                from = frontier;
+                pending = true;
+            }
+            io.execute(new Runnable() {
+                public void run() {
+                    try {
+                        BTreeLeafPage page = (BTreeLeafPage) pool.idToPage.get(from);
+                        for (int i = 0; i < want && page != null; i++) {
+                            BTreePageId pid = next(page);
+                            if (pid == null)
+                                break;
+                            page = (BTreeLeafPage) pool.prefetchPage(file, pid, null);
+                            if (page == null)
+                                break;
+                            synchronized (LeafChain.this) {
+                                frontier = pid;
+                                ahead++;
+                            }
+                        }
+                    } catch (Exception e) {
+                        // only a hint, the scan reads the page itself
+                    } finally {
+                        pending = false;
+                    }
+                }
+            });
+        }
+    }
+}
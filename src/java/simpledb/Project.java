@@ -11,6 +11,8 @@ public class Project extends Operator {
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private int[] outFields;  //outFieldIds, for batches
+    private transient Tuple out;  //the one output tuple, if the parent lets us reuse it
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -33,20 +35,30 @@ public class Project extends Operator {
         this.child = child;
         outFieldIds = fieldList;
         String[] fieldAr = new String[fieldList.size()];
+        int[] lengths = new int[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
         for (int i = 0; i < fieldAr.length; i++) {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
+            lengths[i] = childtd.getMaxLength(fieldList.get(i));
         }
-        td = new TupleDesc(types, fieldAr);
+        td = new TupleDesc(types, fieldAr, lengths);
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++)
+            outFields[i] = fieldList.get(i);
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    public void setReuseTuples(boolean reuse) {
+        out = reuse ? new Tuple(td) : null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        child.setReuseTuples(true);  //fields are copied out before the child is asked again
         child.open();
         super.open();
     }
@@ -70,7 +82,7 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
             Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
+            Tuple newTuple = out != null ? out : new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
                 newTuple.setField(i, t.getField(outFieldIds.get(i)));
@@ -80,6 +92,12 @@ public class Project extends Operator {
         return null;
     }
 
+    /** Projects a batch by picking its columns, without copying any values. */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        return b == null ? null : b.project(outFields, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -0,0 +1,59 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool gives up when it needs
+ * a free frame. The BufferPool reports every page it caches, every hit on a
+ * cached page, and every page it drops; the policy keeps whatever bookkeeping
+ * it needs to answer {@link #chooseVictim} cheaply.
+ * <p>
+ * Implementations do not need to be thread safe: the BufferPool only calls
+ * them while holding its own monitor.
+ *
+ * @see BufferPool
+ * @see LruPolicy
+ * @see ClockPolicy
+ * @see LruKPolicy
+ * @see TwoQueuePolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Tells the policy whether a cached page may be evicted right now, e.g.
+     * the BufferPool refuses to give up dirty pages under NO STEAL.
+     */
+    public interface EvictionFilter {
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called after a page has been read into a free frame (a miss).
+     * @param pid the page that is now cached
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called every time a cached page is requested again (a hit).
+     * @param pid the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the pool for any reason other than
+     * {@link #chooseVictim}, e.g. discardPage().
+     * @param pid the page that is no longer cached
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Pick a page to evict and forget about it.
+     *
+     * @param filter pages rejected by the filter are skipped and kept
+     * @return the victim, or null if every cached page was rejected
+     */
+    public PageId chooseVictim(EvictionFilter filter);
+
+    /**
+     * @return the number of pages this policy currently tracks
+     */
+    public int size();
+}
@@ -32,6 +32,11 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFile File;
     private DbFileIterator iterator;
+    private boolean reuseTuples=false;
+    private ArrayList<Predicate> predicates=new ArrayList<Predicate>();  //pushed down by the planner
+    private int[] outputFields=null;  //the fields of the table returned, null for all
+    private int firstPage=0, endPage=Integer.MAX_VALUE;  //the pages of a HeapFile read
+    private transient TupleBatch batch;  //handed out by every nextBatch()
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
         this.tid=tid;
@@ -80,18 +85,163 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Only return the tuples that pass p, as a Filter on top of this scan
+     * would. A HeapFile tests p on its pages before building a tuple.
+     *
+     * @param p a predicate on the fields of this scan's TupleDesc
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /** @return the predicates added with {@link #addPredicate} */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * Only return some fields of the table. A HeapFile does not decode the
+     * others. Predicates added with {@link #addPredicate} still refer to the
+     * fields of the whole table.
+     *
+     * @param fields indexes of fields of the table, in the order the tuples
+     *            of this scan should have them, or null for all of them
+     */
+    public void setOutputFields(int[] fields) {
+        this.outputFields=fields;
+        this.batch=null;
+    }
+
+    /** @return the fields set with {@link #setOutputFields}, null if all are returned */
+    public int[] getOutputFields() {
+        return outputFields;
+    }
+
+    /**
+     * @return a scan of the pages from firstPage up to endPage of this scan's
+     *         HeapFile, with the same predicates and output fields, which
+     *         can run on another thread at the same time as this one
+     * @throws UnsupportedOperationException if the table is not a HeapFile
+     */
+    public SeqScan split(int firstPage, int endPage) {
+        if(!(File instanceof HeapFile))
+            throw new UnsupportedOperationException("only a HeapFile is read by pages");
+        SeqScan part=new SeqScan(tid,tableid,tableAlias);
+        part.predicates.addAll(predicates);
+        part.outputFields=outputFields;
+        part.reuseTuples=reuseTuples;
+        part.firstPage=firstPage;
+        part.endPage=endPage;
+        return part;
+    }
+
+    /** @return the id of the table this scan reads */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return true if the table is a BTreeFile keyed on the given field of
+     *         this scan's TupleDesc
+     */
+    public boolean isIndexedOn(int field) {
+        if(!(File instanceof BTreeFile))
+            return false;
+        int tableField=outputFields==null ? field : outputFields[field];
+        return ((BTreeFile) File).keyField()==tableField;
+    }
+
+    /**
+     * Look tuples up in the table's index instead of scanning it. The
+     * predicates and output fields of this scan still apply. The scan does
+     * not have to be open.
+     *
+     * @param field a field of this scan's TupleDesc on which
+     *            {@link #isIndexedOn} holds
+     * @return an iterator, not yet open, over the tuples t of this scan with
+     *         t.field op value
+     */
+    public DbFileIterator indexIterator(int field, Predicate.Op op, Field value) {
+        if(!isIndexedOn(field))
+            throw new IllegalArgumentException("no index on field " + field);
+        DbFileIterator it=((BTreeFile) File).indexIterator(tid,new IndexPredicate(op,value));
+        if(predicates.isEmpty() && outputFields==null)
+            return it;
+        return select(it,predicates.toArray(new Predicate[0]),outputFields);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        iterator=File.iterator(tid);
+        Predicate[] preds=predicates.toArray(new Predicate[0]);
+        if(File instanceof HeapFile){
+            // a table bigger than the BufferPool is read through a small ring of frames
+            HeapFile heap=(HeapFile) File;
+            iterator=heap.iterator(tid,BufferAccessStrategy.forScan(heap.numPages()),reuseTuples,preds,outputFields,
+                    firstPage,endPage);
+        }
+        else if(preds.length>0 || outputFields!=null)
+            iterator=select(File.iterator(tid),preds,outputFields);
+        else
+            iterator=File.iterator(tid);
         iterator.open();  //calls open() on its children
     }
 
+    /** @return the given fields, or all, of the tuples of it that pass every one of preds */
+    private DbFileIterator select(final DbFileIterator it, final Predicate[] preds, final int[] fields) {
+        final TupleDesc td=getTupleDesc();
+        return new DbFileIterator() {
+            private Tuple next=null;
+
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                while(next==null && it.hasNext()){
+                    Tuple t=it.next();
+                    boolean pass=true;
+                    for(Predicate p:preds)
+                        pass=pass && p.filter(t);
+                    if(pass)
+                        next=t;
+                }
+                return next!=null;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t=next;
+                next=null;
+                if(fields==null)
+                    return t;
+                Tuple out=new Tuple(td);
+                out.setRecordId(t.getRecordId());
+                for(int i=0;i<fields.length;i++)
+                    out.setField(i,t.getField(fields[i]));
+                return out;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                it.rewind();
+                next=null;
+            }
+
+            public void close() {
+                it.close();
+                next=null;
+            }
+        };
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
      * becomes useful when joining tables containing a field(s) with the same
      * name.  The alias and name should be separated with a "." character
-     * (e.g., "alias.fieldName").
+     * (e.g., "alias.fieldName"). Only the fields set with
+     * {@link #setOutputFields} are in it.
      *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
@@ -101,14 +251,25 @@ public class SeqScan implements OpIterator {
         TupleDesc tmp=Database.getCatalog().getTupleDesc(tableid);  //get the primary TupleDesc
         Type[] type=new Type[tmp.numFields()];
         String[] name=new String[tmp.numFields()];
+        int[] lengths=new int[tmp.numFields()];
         for(int i=0;i< tmp.numFields();i++)
         {
             type[i]=tmp.getFieldType(i);     //record fieldType
+            lengths[i]=tmp.getMaxLength(i);  //keep the n of a VARCHAR(n) field
             String alias=getAlias()+".";
             String fieldName= tmp.getFieldName(i);
             name[i]=alias+fieldName;         //put alias and fieldName together
         }
-        return new TupleDesc(type,name);
+        TupleDesc td=new TupleDesc(type,name,lengths);
+        return outputFields==null ? td : td.project(outputFields);
+    }
+
+    /**
+     * A HeapFile is scanned through a single {@link BufferTuple} if reuse is
+     * set; other files ignore it.
+     */
+    public void setReuseTuples(boolean reuse) {
+        this.reuseTuples=reuse;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -122,6 +283,17 @@ public class SeqScan implements OpIterator {
         return iterator.next();
     }
 
+    /**
+     * Fills one batch, reused from call to call, straight from the file's
+     * pages; int columns are copied without creating any objects.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if(batch==null)
+            batch=new TupleBatch(getTupleDesc(),TupleBatch.DEFAULT_SIZE);
+        batch.clear();
+        return iterator.fillBatch(batch) ? batch : null;
+    }
+
     public void close() {
         // some code goes here
         iterator=null;
@@ -15,6 +15,8 @@ public class SimpleDb {
             File targetDatFile=new File(args[1].replaceAll(".txt", ".dat"));
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
+            int[] lengths = new int[numOfAttributes];  //n of each VARCHAR(n) field
+            java.util.Arrays.fill(lengths, Type.STRING_LEN);
             char fieldSeparator=',';
 
             if (args.length == 3) 
@@ -34,6 +36,10 @@ public class SimpleDb {
                             ts[index++]=Type.INT_TYPE;
                         else if (s.toLowerCase().equals("string"))
                                 ts[index++]=Type.STRING_TYPE;
+                        else if (Catalog.varcharLength(s.toLowerCase())>0) {
+                                lengths[index]=Catalog.varcharLength(s.toLowerCase());
+                                ts[index++]=Type.VARCHAR_TYPE;
+                        }
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -43,8 +49,8 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,BufferPool.getPageSize(),
+                        new TupleDesc(ts,new String[numOfAttributes],lengths),fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
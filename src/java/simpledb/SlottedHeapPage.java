@@ -0,0 +1,309 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is the HeapPage of tables with variable-length fields
+ * (VARCHAR_TYPE). Tuples are stored without padding, so each takes only as
+ * many bytes as its values need, and a slot directory at the front of the
+ * page says where each one is.
+ * <p>
+ * The format of the page is:
+ * <ul>
+ * <li>2 bytes: the number of entries in the slot directory
+ * <li>2 bytes: where the tuple area starts; 0 on a page that was never used
+ * <li>4 bytes per slot: the offset of its tuple in the page, 0 if the slot
+ * is empty, and its length
+ * <li>free space
+ * <li>the tuples, packed towards the end of the page
+ * </ul>
+ * A page of zeroes is an empty page. A slot keeps its number for as long as
+ * it holds a tuple, so RecordIds stay valid when other tuples come and go;
+ * deleted space is reclaimed by packing the tuples again when an insert
+ * needs it. Offsets take two bytes, so pages can be up to 64 KB.
+ *
+ * @see HeapFile
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** Size of the page header in front of the slot directory */
+    static final int HEADER_SIZE = 4;
+    /** Size of a slot directory entry */
+    static final int SLOT_SIZE = 4;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * The page works on a copy of data.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data.clone(), Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedHeapPage of a table with the given TupleDesc that takes
+     * over data, which the caller must not touch afterwards.
+     */
+    SlottedHeapPage(HeapPageId id, byte[] data, TupleDesc td) {
+        super(id, data, td);
+    }
+
+    /** @return free space of an empty page, in bytes */
+    static int capacity() {
+        return BufferPool.getPageSize() - HEADER_SIZE;
+    }
+
+    /**
+     * @return the bytes a page image has left for tuples and their slot
+     *         entries, counting the space of deleted tuples
+     */
+    static int freeSpace(byte[] data) {
+        int slots = readShort(data, 0);
+        int free = data.length - HEADER_SIZE - slots * SLOT_SIZE;
+        for (int i = 0; i < slots; i++)
+            free -= readShort(data, HEADER_SIZE + i * SLOT_SIZE + 2);
+        return free;
+    }
+
+    /** @return the bytes t takes on a page, including a slot entry for it */
+    static int spaceNeeded(Tuple t) {
+        return recordSize(t) + SLOT_SIZE;
+    }
+
+    /** @return the bytes the fields of t take, serialized without padding */
+    private static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type.isFixedLength())
+                size += type.getLen();
+            else
+                size += 4 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+        }
+        return size;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 8 | (data[offset + 1] & 0xff);
+    }
+
+    private static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private int numSlotEntries() {
+        return readShort(data, 0);
+    }
+
+    /** @return where the tuple area starts */
+    private int top() {
+        int top = readShort(data, 2);
+        return top == 0 ? data.length : top;
+    }
+
+    private int recordOffset(int slot) {
+        return readShort(data, HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int recordLength(int slot) {
+        return readShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        writeShort(data, HEADER_SIZE + slot * SLOT_SIZE, offset);
+        writeShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        return new SlottedHeapPage(pid, beforeImageData(), td);
+    }
+
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlotEntries() && recordOffset(i) != 0;
+    }
+
+    public Field getField(int slot, int fieldIndex) {
+        if (!isSlotUsed(slot))
+            return null;
+        int offset = recordOffset(slot);
+        for (int j = 0; j < fieldIndex; j++)
+            offset += td.getFieldType(j).getLen(data, offset);
+        return td.getFieldType(fieldIndex).parse(data, offset);
+    }
+
+    public Tuple getTuple(int slot) {
+        if (!isSlotUsed(slot))
+            return null;
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        int offset = recordOffset(slot);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, type.parse(data, offset));
+            offset += type.getLen(data, offset);
+        }
+        return t;
+    }
+
+    /**
+     * @return the number of tuples of the largest size this page still has
+     *         room for
+     */
+    public int getNumEmptySlots() {
+        return Math.max(freeSpace(data), 0) / (td.getSize() + SLOT_SIZE);
+    }
+
+    /** @return the bytes left on this page, see {@link #freeSpace(byte[])} */
+    public int getFreeSpace() {
+        return freeSpace(data);
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int needed = recordSize(t);
+        if (firstEmptySlot() == numSlotEntries())
+            needed += SLOT_SIZE;
+        return freeSpace(data) >= needed;
+    }
+
+    /** @return the first slot directory entry without a tuple, the number of entries if there is none */
+    private int firstEmptySlot() {
+        int slots = numSlotEntries();
+        for (int i = 0; i < slots; i++)
+            if (recordOffset(i) == 0)
+                return i;
+        return slots;
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("not on this page");
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot))
+            throw new DbException("already empty");
+        captureBeforeImage();
+        int offset = recordOffset(slot);
+        int length = recordLength(slot);
+        Arrays.fill(data, offset, offset + length, (byte) 0);
+        setSlot(slot, 0, 0);
+        if (offset == top())
+            writeShort(data, 2, offset + length == data.length ? 0 : offset + length);
+        int slots = numSlotEntries();
+        while (slots > 0 && recordOffset(slots - 1) == 0)
+            slots--;  //no RecordId points at an empty entry at the end
+        writeShort(data, 0, slots);
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td))
+            throw new DbException("mismatch");
+        if (!hasRoomFor(t))
+            throw new DbException("page is full!");
+        byte[] record = serialize(t);
+        captureBeforeImage();
+        int slot = firstEmptySlot();
+        int slots = Math.max(numSlotEntries(), slot + 1);
+        if (top() - record.length < HEADER_SIZE + slots * SLOT_SIZE)
+            compact();  //the room is there, but between tuples
+        int offset = top() - record.length;
+        System.arraycopy(record, 0, data, offset, record.length);
+        writeShort(data, 0, slots);
+        writeShort(data, 2, offset);
+        setSlot(slot, offset, record.length);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /** @return the fields of t as this page stores them */
+    private byte[] serialize(Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                td.getFieldType(j).serialize(t.getField(j), dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not serialize tuple: " + e.getMessage());
+        }
+        return baos.toByteArray();
+    }
+
+    /** Pack the tuples at the end of the page, so the free space is in one piece. */
+    private void compact() {
+        byte[] old = data.clone();
+        int slots = numSlotEntries();
+        int top = data.length;
+        for (int i = 0; i < slots; i++) {
+            int offset = readShort(old, HEADER_SIZE + i * SLOT_SIZE);
+            if (offset == 0)
+                continue;
+            int length = readShort(old, HEADER_SIZE + i * SLOT_SIZE + 2);
+            top -= length;
+            System.arraycopy(old, offset, data, top, length);
+            setSlot(i, top, length);
+        }
+        Arrays.fill(data, HEADER_SIZE + slots * SLOT_SIZE, top, (byte) 0);
+        writeShort(data, 2, top == data.length ? 0 : top);
+    }
+
+    Iterator<Tuple> iterator(final BufferTuple reuse, final Predicate[] preds, final BufferTuple probe) {
+        return new Iterator<Tuple>() {
+            private int next = nextMatch(0, preds, probe);
+
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t;
+                if (reuse != null) {
+                    reuse.reset(data, recordOffset(next), pid, next);
+                    t = reuse;
+                } else {
+                    t = getTuple(next);
+                }
+                next = nextMatch(next + 1, preds, probe);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    int fillBatch(TupleBatch b, int from, Predicate[] preds, BufferTuple probe, BufferTuple view) {
+        int i = nextMatch(from, preds, probe);
+        while (i >= 0 && !b.isFull()) {
+            view.reset(data, recordOffset(i), pid, i);
+            b.add(view);
+            i = nextMatch(i + 1, preds, probe);
+        }
+        return i;
+    }
+
+    int tupleOffset(int slot) {
+        return recordOffset(slot);
+    }
+
+    /** @return the first used slot at or after from that matches, -1 if there is none */
+    private int nextMatch(int from, Predicate[] preds, BufferTuple probe) {
+        int i = nextUsed(from);
+        while (i >= 0 && !matches(i, preds, probe))
+            i = nextUsed(i + 1);
+        return i;
+    }
+
+    /** @return the first used slot at or after from, -1 if there is none */
+    private int nextUsed(int from) {
+        int slots = numSlotEntries();
+        for (int i = from; i < slots; i++)
+            if (recordOffset(i) != 0)
+                return i;
+        return -1;
+    }
+}
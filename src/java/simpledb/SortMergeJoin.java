@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two children that are both sorted in
+ * ascending order of their join fields, e.g. scans of B+trees keyed on them,
+ * reading each child once.
+ * <p>
+ * For = the children are merged, and each run of child2 tuples with the same
+ * key is buffered so that every child1 tuple with that key can be joined
+ * with all of it. For &gt; and &gt;= the tuples of child2 that join a child1
+ * tuple are a prefix of child2 that only grows as child1 goes on, so it is
+ * buffered as it is read; &lt; and &lt;= buffer a growing prefix of child1
+ * the same way. Tuples are returned in ascending order of the field given by
+ * {@link #getOrderField}.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private TupleDesc td;
+
+    transient private Tuple t1 = null;  //the child1 tuple being joined
+    transient private Tuple t2 = null;  //the child2 tuple being joined
+    transient private Tuple ahead1 = null;  //read from child1, not yet joined
+    transient private Tuple ahead2 = null;  //read from child2, not yet joined
+    transient private ArrayList<Tuple> buffer;  //a run or prefix of the other child
+    transient private int pos;  //the next tuple of buffer to join
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its operator must be =, &lt;,
+     *            &lt;=, &gt; or &gt;=
+     * @param child1
+     *            Iterator for the left(outer) relation to join, in ascending
+     *            order of field1 of p
+     * @param child2
+     *            Iterator for the right(inner) relation to join, in ascending
+     *            order of field2 of p
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canMerge(p.getOperator()))
+            throw new IllegalArgumentException("can't merge join on " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if a join on op can be a SortMergeJoin */
+    public static boolean canMerge(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the field of the joined tuples they come in ascending order of:
+     *         field1 of the predicate, except for &lt; and &lt;=, which go in
+     *         order of field2
+     */
+    public int getOrderField() {
+        if (scansChild2())
+            return child1.getTupleDesc().numFields() + p.getField2();
+        return p.getField1();
+    }
+
+    /** @return true if the join goes through child2 and buffers child1 */
+    private boolean scansChild2() {
+        return p.getOperator() == Predicate.Op.LESS_THAN || p.getOperator() == Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     *         name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     *         name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        t1 = null;
+        t2 = null;
+        ahead1 = null;
+        ahead2 = null;
+        buffer = new ArrayList<Tuple>();
+        pos = 0;
+    }
+
+    private Tuple next1() throws DbException, TransactionAbortedException {
+        if (ahead1 != null) {
+            Tuple t = ahead1;
+            ahead1 = null;
+            return t;
+        }
+        return child1.hasNext() ? child1.next() : null;
+    }
+
+    private Tuple next2() throws DbException, TransactionAbortedException {
+        if (ahead2 != null) {
+            Tuple t = ahead2;
+            ahead2 = null;
+            return t;
+        }
+        return child2.hasNext() ? child2.next() : null;
+    }
+
+    /** @return a negative number, zero or a positive number as a is less than, equal to or greater than b */
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        switch (p.getOperator()) {
+        case EQUALS:
+            return fetchEquals();
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return fetchByChild2();
+        default:
+            return fetchByChild1();
+        }
+    }
+
+    /** Merge join on = */
+    private Tuple fetchEquals() throws TransactionAbortedException, DbException {
+        int f1 = p.getField1(), f2 = p.getField2();
+        while (true) {
+            if (t1 != null && pos < buffer.size())
+                return merge(t1, buffer.get(pos++));
+            Tuple last = t1;
+            if ((t1 = next1()) == null)
+                return null;
+            pos = 0;
+            Field key = t1.getField(f1);
+            if (last != null && !buffer.isEmpty() && compare(key, last.getField(f1)) == 0)
+                continue;  //the same run joins this tuple too
+            buffer.clear();
+            // skip child2 up to the key, then read its run of the key
+            Tuple t;
+            while ((t = next2()) != null && compare(t.getField(f2), key) < 0)
+                ;
+            while (t != null && compare(t.getField(f2), key) == 0) {
+                buffer.add(t);
+                t = next2();
+            }
+            ahead2 = t;
+        }
+    }
+
+    /** Join on &gt; and &gt;=: each child1 tuple joins a prefix of child2 */
+    private Tuple fetchByChild1() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && pos < buffer.size())
+                return merge(t1, buffer.get(pos++));
+            if ((t1 = next1()) == null)
+                return null;
+            pos = 0;
+            Tuple t;
+            while ((t = next2()) != null && p.filter(t1, t))
+                buffer.add(t);
+            ahead2 = t;
+        }
+    }
+
+    /** Join on &lt; and &lt;=: each child2 tuple joins a prefix of child1 */
+    private Tuple fetchByChild2() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t2 != null && pos < buffer.size())
+                return merge(buffer.get(pos++), t2);
+            if ((t2 = next2()) == null)
+                return null;
+            pos = 0;
+            Tuple t;
+            while ((t = next1()) != null && p.filter(t, t2))
+                buffer.add(t);
+            ahead1 = t;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * SpillFile is a temporary file of tuples, written by operators whose state
+ * does not fit in their memory budget and read back in the order it was
+ * written. It does not go through the BufferPool: nothing else reads it, and
+ * it is gone when the operator is done with it.
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;  //null once the file is being read
+    private int size;
+
+    /**
+     * @param td the schema of the tuples
+     * @param bufferSize bytes of tuples buffered before a write
+     */
+    SpillFile(TupleDesc td, int bufferSize) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("spill", ".tmp");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+        } catch (IOException e) {
+            throw new DbException("can't create spill file: " + e.getMessage());
+        }
+    }
+
+    /** @return roughly the bytes a tuple of td takes on the heap, before it is spilled */
+    static long tupleBytes(TupleDesc td) {
+        return td.getSize() + 16 * (td.numFields() + 2);  //headers of the Tuple, its array and each Field
+    }
+
+    /** @return the number of tuples in the file */
+    int size() {
+        return size;
+    }
+
+    /** @return the schema of the tuples */
+    TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Append a tuple; fails once the file has been read. */
+    void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new DbException("spill file is already being read");
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                td.getFieldType(i).serialize(t.getField(i), out);
+        } catch (IOException e) {
+            throw new DbException("can't write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /** Flush what has been added; after this the file can only be read. */
+    private void finish() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("can't write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * @return an iterator, not yet open, over the tuples in the order they
+     *         were added. No more tuples can be added after this.
+     */
+    OpIterator iterator() throws DbException {
+        finish();
+        return new Reader();
+    }
+
+    /** Remove the file. */
+    void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file goes anyway
+        }
+        out = null;
+        file.delete();
+    }
+
+    private class Reader extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private transient int read;
+
+        public void open() throws DbException, TransactionAbortedException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("can't read spill file: " + e.getMessage());
+            }
+            read = 0;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            in = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (read == size)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new DbException("can't read spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+}
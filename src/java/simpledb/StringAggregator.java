@@ -1,13 +1,10 @@
 package simpledb;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * The groups are kept by {@link HashAggregator}.
  */
-public class StringAggregator implements Aggregator {
+public class StringAggregator extends HashAggregator {
 
     private static final long serialVersionUID = 1L;
 
@@ -19,76 +16,13 @@ public class StringAggregator implements Aggregator {
      * @param what aggregation operator to use -- only supports COUNT
      * @throws IllegalArgumentException if what != COUNT
      */
-    private int gbfield;
-    private Type gbfieldtype;
-    private int afield;
-    private Op what;
-    private TupleDesc td;
-
-    private Map<Field, Integer> countMap;
-
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
-        if(!(what.equals(Op.COUNT))){
-            throw new IllegalArgumentException();
-        }
-        this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
-        this.afield = afield;
-        this.what = what;
-        countMap = new HashMap<>();
-        if(this.gbfield == NO_GROUPING){
-            this.td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateValue"});
-        }
-        else{
-            this.td = new TupleDesc(new Type[]{this.gbfieldtype, Type.INT_TYPE}, new String[]{"groupValue", "aggregateValue"});
-        }
+        super(gbfield, gbfieldtype, new int[] { afield }, new Op[] { checkCount(what) });
     }
 
-    /**
-     * Merge a new tuple into the aggregate, grouping as indicated in the constructor
-     * @param tup the Tuple containing an aggregate field and a group-by field
-     */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
-        StringField afield = (StringField) tup.getField(this.afield);
-        Field gbfield = this.gbfield == NO_GROUPING ? null : tup.getField(this.gbfield);
-        String value = afield.getValue();
-        if(gbfield != null && gbfield.getType()!= this.gbfieldtype){
-            throw new IllegalArgumentException();
-        }
-        if(!this.countMap.containsKey(gbfield)){  //first time
-            this.countMap.put(gbfield, 1);
-        }else{
-            this.countMap.put(gbfield, countMap.get(gbfield) + 1);
-
-        }
+    private static Op checkCount(Op what) {
+        if (what != Op.COUNT)
+            throw new IllegalArgumentException("only COUNT is supported over strings");
+        return what;
     }
-
-    /**
-     * Create a OpIterator over group aggregate results.
-     *
-     * @return a OpIterator whose tuples are the pair (groupVal,
-     *   aggregateVal) if using group, or a single (aggregateVal) if no
-     *   grouping. The aggregateVal is determined by the type of
-     *   aggregate specified in the constructor.
-     */
-    public OpIterator iterator() {
-        // some code goes here
-        //throw new UnsupportedOperationException("please implement me for lab2");
-        ArrayList<Tuple> tuples = new ArrayList<>();
-        for(Map.Entry<Field, Integer> a : countMap.entrySet())
-        {
-            Tuple tp = new Tuple(td);
-            if(gbfield == NO_GROUPING){
-                tp.setField(0,new IntField(a.getValue()));
-            }else{
-                tp.setField(0,a.getKey());
-                tp.setField(1,new IntField(a.getValue()));
-            }
-            tuples.add(tp);
-        }
-        return new TupleIterator(td,tuples);
-    }
-
 }
@@ -3,7 +3,8 @@ package simpledb;
 import java.io.*;
 
 /**
- * Instance of Field that stores a single String of a fixed length.
+ * Instance of Field that stores a single String of a fixed length, or of up
+ * to a fixed length for a VARCHAR_TYPE field.
  */
 public class StringField implements Field {
 
@@ -11,6 +12,7 @@ public class StringField implements Field {
 
 	private final String value;
 	private final int maxSize;
+	private final Type type;
 
 	public String getValue() {
 		return value;
@@ -25,7 +27,23 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 * @param type
+	 *            Type.STRING_TYPE, or Type.VARCHAR_TYPE for a string that is
+	 *            stored without padding
+	 */
+	public StringField(String s, int maxSize, Type type) {
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -48,7 +66,7 @@ public class StringField implements Field {
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
 	 * in dos. First four bytes are string length, next bytes are string, with
-	 * remainder padded with 0 to maxSize.
+	 * remainder padded with 0 to maxSize. A VARCHAR_TYPE string is not padded.
 	 * 
 	 * @param dos
 	 *            Where the string is written
@@ -62,6 +80,8 @@ public class StringField implements Field {
 		}
 		dos.writeInt(s.length());
 		dos.writeBytes(s);
+		if (type == Type.VARCHAR_TYPE)
+			return;
 		while (overflow-- > 0)
 			dos.write((byte) 0);
 	}
@@ -110,6 +130,6 @@ public class StringField implements Field {
 	 */
 	public Type getType() {
 
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT ... OFFSET: it returns limit tuples of
+ * its child, after skipping offset of them, in order of a field.
+ * <p>
+ * Unlike OrderBy it never holds more than offset + limit tuples. It keeps
+ * the best of the tuples seen so far in a bounded heap whose root is the
+ * worst of them, so a tuple that does not beat the root is dropped at once.
+ * Given {@link #NO_ORDER} it returns tuples in its child's order instead,
+ * and stops reading the child as soon as it has returned limit of them.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The order field of a TopN that keeps the order of its child */
+    public static final int NO_ORDER = -1;
+
+    private OpIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int limit;
+    private final int offset;
+
+    private transient Tuple[] top;  //the tuples to return, in order, after offset
+    private transient int next;  //in top, or the number of child tuples read if there is no order
+
+    /**
+     * @param orderByField
+     *            the field to order by, or NO_ORDER to keep the child's order
+     * @param asc
+     *            true if the order is ascending
+     * @param limit
+     *            the most tuples to return
+     * @param offset
+     *            the number of tuples to skip before them
+     * @param child
+     *            the tuples to choose from
+     */
+    public TopN(int orderByField, boolean asc, int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("negative LIMIT or OFFSET");
+        this.child = child;
+        this.orderByField = orderByField;
+        this.asc = asc;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        if (orderByField != NO_ORDER)
+            top = select();
+        next = 0;
+        super.open();
+    }
+
+    /** A tuple and when it was read, so that ties keep the child's order */
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /** @return the first offset + limit tuples of the child in order */
+    private Tuple[] select() throws DbException, TransactionAbortedException {
+        final TupleComparator cmp = new TupleComparator(orderByField, asc);
+        Comparator<Entry> order = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = cmp.compare(a.tuple, b.tuple);
+                return c != 0 ? c : Long.compare(a.seq, b.seq);
+            }
+        };
+        int n = (int) Math.min(Integer.MAX_VALUE - 8, (long) offset + limit);
+        // the root of the heap is the worst tuple kept
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, Math.min(n, 1024)),
+                Collections.reverseOrder(order));
+        long seq = 0;
+        while (n > 0 && child.hasNext()) {
+            Entry e = new Entry(child.next(), seq++);
+            if (heap.size() < n)
+                heap.add(e);
+            else if (order.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+        Entry[] best = heap.toArray(new Entry[heap.size()]);
+        Arrays.sort(best, order);
+        Tuple[] out = new Tuple[Math.max(0, best.length - offset)];
+        for (int i = 0; i < out.length; i++)
+            out[i] = best[offset + i].tuple;
+        return out;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (orderByField == NO_ORDER)
+            child.rewind();
+        next = 0;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (orderByField != NO_ORDER)
+            return next < top.length ? top[next++] : null;
+        // in the child's order: skip offset tuples, then stop after limit more
+        while (next < offset + (long) limit && child.hasNext()) {
+            Tuple t = child.next();
+            if (next++ >= offset)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
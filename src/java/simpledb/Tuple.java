@@ -89,6 +89,40 @@ public class Tuple implements Serializable {
         return Fields.get(i);
     }
 
+    /**
+     * @return the value of int field i. Tuples that keep their fields as
+     *         bytes read it without creating an IntField.
+     *
+     * @param i
+     *            index of an INT_TYPE field. Must be a valid index.
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * @return the bytes of string field i, without the length prefix or
+     *         padding.
+     *
+     * @param i
+     *            index of a STRING_TYPE field. Must be a valid index.
+     */
+    public byte[] getStringBytes(int i) {
+        return ((StringField) getField(i)).getValue().getBytes();
+    }
+
+    /**
+     * @return a Tuple with the same fields and RecordId that stays the same
+     *         when this one changes, e.g. because an iterator reuses it.
+     */
+    public Tuple copy() {
+        Tuple t = new Tuple(td);
+        t.setRecordId(getRecordId());
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(i));
+        return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to a fixed number of rows column by column, the unit
+ * of work of {@link OpIterator#nextBatch()}. INT_TYPE columns are plain int
+ * arrays, so operators can work on them in tight loops; other columns hold
+ * their Field objects.
+ * <p>
+ * A batch can carry a selection vector: the positions of the rows that are
+ * in the batch, in order. Filters set it instead of copying the rows that
+ * pass, and consumers read row i of the batch at position
+ * {@link #position(int)}. Batches are not shared between operators except
+ * that {@link #project} makes a view on the same columns.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows operators put in a batch */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;  //per column, null unless it is an INT_TYPE column
+    private final Field[][] fields;  //per column, null for INT_TYPE columns
+    private int filled;  //positions of the columns in use
+    private int[] selection;  //positions of the rows in the batch, null if all are
+    private int size;
+
+    /**
+     * @param td the schema of the rows
+     * @param capacity the most rows the batch can hold
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                fields[i] = new Field[capacity];
+        }
+    }
+
+    /** A view of columns of another batch */
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, Field[][] fields) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.fields = fields;
+    }
+
+    /** @return the schema of the rows */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the most rows the batch can hold */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows in the batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return filled == capacity;
+    }
+
+    /** Empty the batch so that it can be filled again. */
+    public void clear() {
+        filled = 0;
+        size = 0;
+        selection = null;
+    }
+
+    /** @return the column position of row i of the batch */
+    public int position(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * @return the positions of the rows in the batch, of which the first
+     *         size() count; null if they are 0 to size() - 1
+     */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * Keep only some of the rows in the batch.
+     *
+     * @param positions the column positions of the rows to keep, in order;
+     *            the batch keeps the array
+     * @param count the number of positions
+     */
+    public void select(int[] positions, int count) {
+        this.selection = positions;
+        this.size = count;
+    }
+
+    /** @return the values of an INT_TYPE column, by position */
+    public int[] getIntColumn(int field) {
+        return ints[field];
+    }
+
+    /** @return the values of a column of another type, by position */
+    public Field[] getFieldColumn(int field) {
+        return fields[field];
+    }
+
+    /** @return the field of row i, by row number within the batch */
+    public Field getField(int i, int field) {
+        int p = position(i);
+        return ints[field] != null ? new IntField(ints[field][p]) : fields[field][p];
+    }
+
+    /** @return row i as a new Tuple */
+    public Tuple getTuple(int i) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, getField(i, j));
+        return t;
+    }
+
+    /**
+     * Append a row. Only a batch without a selection can be added to.
+     */
+    public void add(Tuple t) {
+        if (selection != null)
+            throw new IllegalStateException("batch has a selection");
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        for (int j = 0; j < ints.length; j++) {
+            if (ints[j] != null)
+                ints[j][filled] = t.getInt(j);
+            else
+                fields[j][filled] = t.getField(j);
+        }
+        filled++;
+        size++;
+    }
+
+    /**
+     * Append a row stored in a page image.
+     *
+     * @param offset where the row starts in data
+     * @param fieldOffsets where each field starts within the row
+     */
+    void add(byte[] data, int offset, int[] fieldOffsets) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        for (int j = 0; j < ints.length; j++) {
+            if (ints[j] != null)
+                ints[j][filled] = Type.readInt(data, offset + fieldOffsets[j]);
+            else
+                fields[j][filled] = td.getFieldType(j).parse(data, offset + fieldOffsets[j]);
+        }
+        filled++;
+        size++;
+    }
+
+    /**
+     * Append a joined row: the fields of t1 followed by those of row j of b2.
+     */
+    void addJoined(Tuple t1, TupleBatch b2, int j) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        int n1 = t1.getTupleDesc().numFields();
+        int p2 = b2.position(j);
+        for (int k = 0; k < ints.length; k++) {
+            if (k < n1) {
+                if (ints[k] != null)
+                    ints[k][filled] = t1.getInt(k);
+                else
+                    fields[k][filled] = t1.getField(k);
+            } else if (ints[k] != null) {
+                ints[k][filled] = b2.ints[k - n1][p2];
+            } else {
+                fields[k][filled] = b2.fields[k - n1][p2];
+            }
+        }
+        filled++;
+        size++;
+    }
+
+    /**
+     * @return a batch of the given fields of this one, sharing its columns
+     *         and selection
+     */
+    public TupleBatch project(int[] outFields, TupleDesc outTd) {
+        int[][] pInts = new int[outFields.length][];
+        Field[][] pFields = new Field[outFields.length][];
+        for (int i = 0; i < outFields.length; i++) {
+            pInts[i] = ints[outFields[i]];
+            pFields[i] = fields[outFields[i]];
+        }
+        TupleBatch b = new TupleBatch(outTd, capacity, pInts, pFields);
+        b.filled = filled;
+        b.selection = selection;
+        b.size = size;
+        return b;
+    }
+
+    /**
+     * Fill a batch with the next rows of an iterator, through its row
+     * interface. This is how iterators without a batch implementation of
+     * their own answer nextBatch().
+     *
+     * @return the batch, or null if the iterator has no more rows
+     */
+    public static TupleBatch fromRows(OpIterator child, int capacity)
+            throws DbException, TransactionAbortedException {
+        if (!child.hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(child.getTupleDesc(), capacity);
+        while (!b.isFull() && child.hasNext())
+            b.add(child.next());
+        return b;
+    }
+
+    /**
+     * An OpIterator that returns the rows of another iterator's batches one
+     * at a time, so that a plan that runs in batches can feed an operator
+     * that works on rows.
+     */
+    public static class RowIterator extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private OpIterator child;
+        private transient TupleBatch batch;
+        private transient int next;
+
+        public RowIterator(OpIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            batch = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            batch = null;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (batch == null || next >= batch.size()) {
+                batch = child.nextBatch();
+                next = 0;
+                if (batch == null)
+                    return null;
+            }
+            return batch.getTuple(next++);
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        public void setChildren(OpIterator[] children) {
+            this.child = children[0];
+        }
+    }
+}
@@ -26,9 +26,20 @@ public class TupleDesc implements Serializable {
          * */
         public final String fieldName;
 
+        /**
+         * The most characters a string of the field holds: n for a
+         * VARCHAR(n) field, Type.STRING_LEN otherwise
+         * */
+        public final int maxLength;
+
         public TDItem(Type t, String n) {
+            this(t, n, Type.STRING_LEN);
+        }
+
+        public TDItem(Type t, String n, int maxLength) {
             this.fieldName = n;
             this.fieldType = t;
+            this.maxLength = maxLength;
         }
 
         public String toString() {
@@ -72,6 +83,20 @@ public class TupleDesc implements Serializable {
         }
     }
 
+    /**
+     * Create a new TupleDesc like TupleDesc(typeAr, fieldAr), whose string
+     * fields hold at most the given number of characters.
+     *
+     * @param maxLengthAr
+     *            array specifying the most characters of each field, n for a
+     *            VARCHAR(n) field; only string fields look at it
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, int[] maxLengthAr) {
+        for (int i = 0; i < typeAr.length; i++) {
+            TdArray.add(new TDItem(typeAr[i], fieldAr[i], maxLengthAr[i]));
+        }
+    }
+
     /**
      * Constructor. Create a new tuple desc with typeAr.length fields with
      * fields of the specified types, with anonymous (unnamed) fields.
@@ -138,6 +163,19 @@ public class TupleDesc implements Serializable {
         //return null;
     }
 
+    /**
+     * @return the most characters a string of the ith field holds: n for a
+     *         VARCHAR(n) field, Type.STRING_LEN otherwise
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getMaxLength(int i) throws NoSuchElementException {
+        if(i>=TdArray.size()||i<0){
+            throw new NoSuchElementException();
+        }
+        return TdArray.get(i).maxLength;
+    }
+
     /**
      * Find the index of the field with a given name.
      * 
@@ -162,7 +200,9 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size,
+     *         unless it has a VARCHAR_TYPE field; then this is the most a
+     *         tuple can take.
      */
     public int getSize() {
         // some code goes here
@@ -172,6 +212,28 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return true if every tuple of this TupleDesc takes getSize() bytes.
+     *         HeapFiles of other TupleDescs are kept on SlottedHeapPages.
+     */
+    public boolean isFixedLength() {
+        for (int i = 0; i < TdArray.size(); i++)
+            if (!getFieldType(i).isFixedLength())
+                return false;
+        return true;
+    }
+
+    /**
+     * @param fields indexes of fields of this TupleDesc
+     * @return a TupleDesc of just those fields, in the given order
+     */
+    public TupleDesc project(int[] fields) {
+        TupleDesc tmp=new TupleDesc(null,null);
+        for(int i:fields)
+            tmp.TdArray.add(TdArray.get(i));
+        return tmp;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -191,6 +253,11 @@ public class TupleDesc implements Serializable {
        // return null;
     }
 
+    /**
+     * Two TupleDescs are equal if their fields have the same types; names
+     * and VARCHAR lengths are not compared, a table checks the lengths of
+     * the strings inserted into it.
+     */
     @Override
     public boolean equals(Object o) {
         if (!this.getClass().isInstance(o)) {
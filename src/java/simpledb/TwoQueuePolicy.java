@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). New pages enter a FIFO queue A1in;
+ * when they fall out of it only their id is remembered on the ghost queue
+ * A1out. A page that is requested again while on A1out is hot and goes to the
+ * LRU queue Am. One-off pages from a large scan therefore never displace the
+ * pages on Am. Every operation is O(1).
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int kin;   //target size of A1in
+    private final int kout;  //maximum size of A1out
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<PageId>();
+
+    /**
+     * Uses the tuning recommended in the paper: A1in holds a quarter of the
+     * frames and A1out remembers half as many ids as there are frames.
+     *
+     * @param numPages the number of frames in the buffer pool
+     */
+    public TwoQueuePolicy(int numPages) {
+        this(numPages, Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param numPages the number of frames in the buffer pool
+     * @param kin the target number of pages on A1in
+     * @param kout the number of evicted page ids to remember on A1out
+     */
+    public TwoQueuePolicy(int numPages, int kin, int kout) {
+        if (numPages < 1 || kin < 1 || kout < 0)
+            throw new IllegalArgumentException("bad 2Q configuration");
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    public void pageAdded(PageId pid) {
+        if (am.contains(pid) || a1in.contains(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (a1out.remove(pid)) {
+            am.add(pid);   //re-referenced after leaving A1in, so it is hot
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public void pageAccessed(PageId pid) {
+        if (am.remove(pid))
+            am.add(pid);
+        // hits on A1in are deliberately ignored: they are correlated references
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+    }
+
+    public PageId chooseVictim(EvictionFilter filter) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = evictFrom(a1in, filter);
+            if (victim != null) {
+                remember(victim);
+                return victim;
+            }
+        }
+        victim = evictFrom(am, filter);
+        if (victim == null) {
+            victim = evictFrom(a1in, filter);
+            if (victim != null)
+                remember(victim);
+        }
+        return victim;
+    }
+
+    public int size() {
+        return a1in.size() + am.size();
+    }
+
+    private PageId evictFrom(LinkedHashSet<PageId> queue, EvictionFilter filter) {
+        Iterator<PageId> it = queue.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void remember(PageId pid) {
+        if (kout == 0)
+            return;
+        a1out.add(pid);
+        if (a1out.size() > kout) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -24,6 +24,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,15 +47,80 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = readInt(data, offset);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        /** The most a value can take; it is stored in 4 bytes plus its length. */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getLen(byte[] data, int offset) {
+            return 4 + readInt(data, offset);
+        }
+
+        @Override
+        public boolean isFixedLength() {
+            return false;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN, VARCHAR_TYPE);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = readInt(data, offset);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN, VARCHAR_TYPE);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
   /**
-   * @return the number of bytes required to store a field of this type.
+   * @return the number of bytes required to store a field of this type; the
+   *   most a field can take if the type is not of fixed length.
    */
     public abstract int getLen();
 
+  /**
+   * @return the number of bytes the field stored at data[offset] takes.
+   */
+    public int getLen(byte[] data, int offset) {
+        return getLen();
+    }
+
+  /**
+   * @return true if every field of this type takes getLen() bytes.
+   */
+    public boolean isFixedLength() {
+        return true;
+    }
+
+  /**
+   * Write a field to dos in the format of this type, which parse() reads.
+   * A string goes into a column of either string type.
+   */
+    public void serialize(Field f, DataOutputStream dos) throws IOException {
+        if (f instanceof StringField && f.getType() != this)
+            f = new StringField(((StringField) f).getValue(), STRING_LEN, this);
+        f.serialize(dos);
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -60,4 +130,18 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read straight from a page image, in the format parse(DataInputStream) reads.
+   * @param data the page image
+   * @param offset where the field starts in data
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+    /** @return the big-endian int stored at offset, as DataInputStream.readInt() reads it */
+    static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+                | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+    }
+
 }
@@ -83,6 +83,24 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.isSlotUsed(20));
 	}
 
+	/**
+	 * Unit test for BTreeFile.readPage() through a memory mapping
+	 */
+	@Test
+	public void readPageMapped() throws Exception {
+		BTreePageId leafPid = new BTreePageId(f.getId(), 1, BTreePageId.LEAF);
+		byte[] unmapped = f.readPage(leafPid).getPageData();
+		f.setMemoryMapped(true);
+		assertTrue(f.isMemoryMapped());
+		BTreePageId rootPtrPid = new BTreePageId(f.getId(), 0, BTreePageId.ROOT_PTR);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) f.readPage(rootPtrPid);
+		assertEquals(1, rootPtr.getRootId().getPageNumber());
+
+		BTreeLeafPage page = (BTreeLeafPage) f.readPage(rootPtr.getRootId());
+		assertEquals(482, page.getNumEmptySlots());
+		assertArrayEquals(unmapped, page.getPageData());
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		BTreeFile smallFile = BTreeUtility.createRandomBTreeFile(2, 3, null,
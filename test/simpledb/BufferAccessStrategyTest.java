@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferAccessStrategyTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 20;
+
+    private TransactionId tid;
+    private BufferPool bp;
+    private HeapFile small;
+    private HeapFile big;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Prefetcher.setEnabled(false);  //only the scan itself reads pages
+        bp = Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+        small = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * POOL_PAGES * 3, null, null);
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.transactionComplete(tid);
+        Prefetcher.setEnabled(true);
+    }
+
+    private void readAll(HeapFile hf) throws Exception {
+        for (int i = 0; i < hf.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+    }
+
+    private int scan(DbFileIterator it) throws Exception {
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    private int cachedPages(HeapFile hf) {
+        int count = 0;
+        for (PageId pid : bp.idToPage.keySet())
+            if (pid.getTableId() == hf.getId())
+                count++;
+        return count;
+    }
+
+    /**
+     * Unit test for BufferAccessStrategy.forScan(): only files bigger than the pool get a ring.
+     */
+    @Test public void forScan() {
+        assertNull(BufferAccessStrategy.forScan(POOL_PAGES));
+        BufferAccessStrategy s = BufferAccessStrategy.forScan(POOL_PAGES + 1);
+        assertNotNull(s);
+        assertEquals(POOL_PAGES / 4, s.getRingSize());
+    }
+
+    /**
+     * A scan through a ring leaves the pages cached before it in the pool.
+     */
+    @Test public void ringKeepsWorkingSet() throws Exception {
+        readAll(small);
+        BufferAccessStrategy s = BufferAccessStrategy.forScan(big.numPages());
+        assertEquals(504 * POOL_PAGES * 3, scan(big.iterator(tid, s)));
+        assertEquals(small.numPages(), cachedPages(small));
+        assertEquals(POOL_PAGES, bp.idToPage.size());
+    }
+
+    /**
+     * Without a ring the same scan flushes them.
+     */
+    @Test public void noRingFlushesWorkingSet() throws Exception {
+        readAll(small);
+        scan(big.iterator(tid));
+        assertEquals(0, cachedPages(small));
+    }
+
+    /**
+     * A ring page someone else asked for is kept in the pool.
+     */
+    @Test public void sharedRingPage() throws Exception {
+        BufferAccessStrategy s = new BufferAccessStrategy(4);
+        for (int i = 0; i < POOL_PAGES; i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, s);
+        HeapPageId wanted = new HeapPageId(big.getId(), POOL_PAGES - 1);
+        bp.getPage(tid, wanted, Permissions.READ_ONLY);
+        for (int i = POOL_PAGES; i < POOL_PAGES + 8; i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, s);
+        assertTrue(bp.idToPage.containsKey(wanted));
+        // the policy only gave up a page where the shared one was not reused
+        assertFalse(bp.idToPage.containsKey(new HeapPageId(big.getId(), 0)));
+        assertTrue(bp.idToPage.containsKey(new HeapPageId(big.getId(), 1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferAccessStrategyTest.class);
+    }
+}
@@ -133,6 +133,31 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test for commit and abort only touching the pages the transaction dirtied.
+     */
+    @Test public void commitAndAbortOwnPages() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        TransactionId tid2 = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+
+        Tuple t1 = Utility.getHeapTuple(1, 2);
+        Tuple t2 = Utility.getHeapTuple(2, 2);
+        bp.insertTuple(tid, empty.getId(), t1);
+        bp.insertTuple(tid2, other.getId(), t2);
+        PageId pid1 = t1.getRecordId().getPageId();
+        PageId pid2 = t2.getRecordId().getPageId();
+
+        bp.transactionComplete(tid, true);
+        assertNull(bp.getPage(tid, pid1, Permissions.READ_ONLY).isDirty());
+        assertEquals(tid2, bp.getPage(tid2, pid2, Permissions.READ_ONLY).isDirty());
+
+        bp.transactionComplete(tid2, false);
+        HeapPage p2 = (HeapPage) bp.getPage(tid, pid2, Permissions.READ_ONLY);
+        assertNull(p2.isDirty());
+        assertEquals(504 - 10, p2.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferTupleTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, 1200, null, tuples);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for BufferTuple.getInt(), getField() and getStringBytes()
+     */
+    @Test public void readFields() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        byte[] data = new byte[10 + td.getSize()];
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-7));
+        t.setField(1, new StringField("flyweight", Type.STRING_LEN));
+        t.setField(2, new IntField(123456));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < 3; i++)
+            t.getField(i).serialize(dos);
+        System.arraycopy(baos.toByteArray(), 0, data, 10, td.getSize());
+
+        BufferTuple bt = new BufferTuple(td);
+        bt.reset(data, 10, null, 0);
+        assertEquals(-7, bt.getInt(0));
+        assertEquals(123456, bt.getInt(2));
+        assertEquals(new IntField(123456), bt.getField(2));
+        assertEquals("flyweight", new String(bt.getStringBytes(1)));
+        assertEquals("flyweight", ((StringField) bt.getField(1)).getValue());
+        assertNull(bt.getRecordId());
+        assertEquals(t.toString(), bt.toString());
+    }
+
+    /**
+     * A BufferTuple of some columns reads just those.
+     */
+    @Test public void projectedColumns() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE, Type.INT_TYPE });
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(5);
+        Type.VARCHAR_TYPE.serialize(new StringField("skipped", Type.STRING_LEN, Type.VARCHAR_TYPE), dos);
+        dos.writeInt(99);
+
+        BufferTuple bt = new BufferTuple(td, new int[] { 2, 0 });
+        bt.reset(baos.toByteArray(), 0, null, 0);
+        assertEquals(2, bt.getTupleDesc().numFields());
+        assertEquals(99, bt.getInt(0));
+        assertEquals(new IntField(5), bt.getField(1));
+        assertEquals("99\t5", bt.toString().trim());
+        assertEquals(bt.toString(), bt.copy().toString());
+    }
+
+    /**
+     * A reusing scan returns one tuple object with the same rows as a normal scan.
+     */
+    @Test public void reusingScan() throws Exception {
+        DbFileIterator it = hf.iterator(tid, null, true);
+        it.open();
+        Tuple first = it.next();
+        assertTrue(first instanceof BufferTuple);
+        Tuple copy = first.copy();
+        assertEquals(new RecordId(new HeapPageId(hf.getId(), 0), 0), copy.getRecordId());
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(copy));
+        int count = 1;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertSame(first, t);
+            assertEquals(tuples.get(count), SystemTestUtil.tupleToList(t));
+            count++;
+        }
+        it.close();
+        assertEquals(tuples.size(), count);
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(copy));  //the copy did not move along
+    }
+
+    /**
+     * Filter, Project and Aggregate over a reusing scan give the same answers.
+     */
+    @Test public void operatorsOverReusingScan() throws Exception {
+        int threshold = tuples.get(0).get(1);
+        int sum = 0;
+        int count = 0;
+        for (ArrayList<Integer> row : tuples) {
+            if (row.get(1) >= threshold) {
+                sum += row.get(2);
+                count++;
+            }
+        }
+
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        ArrayList<Type> types = new ArrayList<Type>();
+        types.add(Type.INT_TYPE);
+        OpIterator filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(threshold)),
+                new SeqScan(tid, hf.getId()));
+        Aggregate agg = new Aggregate(new Project(fields, types, filter), 0, Aggregator.NO_GROUPING,
+                Aggregator.Op.SUM);
+        agg.open();
+        assertEquals(sum, agg.next().getInt(0));
+        agg.close();
+
+        agg = new Aggregate(new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(threshold)),
+                new SeqScan(tid, hf.getId())), 2, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        agg.open();
+        assertEquals(count, agg.next().getInt(0));
+        agg.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferTupleTest.class);
+    }
+}
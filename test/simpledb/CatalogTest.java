@@ -2,6 +2,8 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +95,29 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Unit test for Catalog.loadSchema() with VARCHAR fields
+     */
+    @Test public void loadVarcharSchema() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String table = "t" + SystemTestUtil.getUUID().replace("-", "");
+        FileWriter w = new FileWriter(schema);
+        w.write(table + " (id int pk, name varchar(32), note varchar, code string)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(Database.getCatalog().getTableId(table));
+        assertEquals(Type.INT_TYPE, td.getFieldType(0));
+        assertEquals(Type.VARCHAR_TYPE, td.getFieldType(1));
+        assertEquals(Type.VARCHAR_TYPE, td.getFieldType(2));
+        assertEquals(Type.STRING_TYPE, td.getFieldType(3));
+        assertEquals("name", td.getFieldName(1));
+        assertEquals(32, td.getMaxLength(1));
+        assertEquals(Type.STRING_LEN, td.getMaxLength(2));
+        assertEquals(false, td.isFixedLength());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private static final int SLOTS = 504;
+
+    private File side;
+    private FreeSpaceMap fsm;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        side = File.createTempFile("fsm", ".fsm");
+        side.delete();
+        side.deleteOnExit();
+        fsm = new FreeSpaceMap(side);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        fsm.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.category()
+     */
+    @Test public void category() {
+        assertEquals(FreeSpaceMap.FULL, FreeSpaceMap.category(0, SLOTS));
+        assertEquals(2, FreeSpaceMap.category(1, SLOTS));
+        assertEquals(254, FreeSpaceMap.category(SLOTS, SLOTS));
+        assertTrue(FreeSpaceMap.category(100, SLOTS) < FreeSpaceMap.category(200, SLOTS));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.findPage(): full pages are skipped, unknown ones are not.
+     */
+    @Test public void findPage() throws Exception {
+        assertEquals(0, fsm.findPage(1, SLOTS, 4));
+        fsm.update(0, 0, SLOTS);
+        fsm.update(1, 0, SLOTS);
+        fsm.update(2, 10, SLOTS);
+        assertEquals(2, fsm.findPage(1, SLOTS, 4));
+        assertEquals(3, fsm.findPage(SLOTS, SLOTS, 4));  //page 3 is unknown
+        fsm.update(3, 0, SLOTS);
+        assertEquals(-1, fsm.findPage(SLOTS, SLOTS, 4));
+
+        // room freed below the pages skipped so far is found again
+        fsm.update(2, 0, SLOTS);
+        assertEquals(-1, fsm.findPage(1, SLOTS, 4));
+        fsm.update(0, 1, SLOTS);
+        assertEquals(0, fsm.findPage(1, SLOTS, 4));
+    }
+
+    /**
+     * Only what was written survives reopening the map.
+     */
+    @Test public void persisted() throws Exception {
+        fsm.write(0, 0, SLOTS);
+        fsm.write(1, 0, SLOTS);
+        fsm.update(2, 0, SLOTS);
+        fsm.close();
+
+        FreeSpaceMap reopened = new FreeSpaceMap(side);
+        assertEquals(FreeSpaceMap.FULL, reopened.getCategory(1));
+        assertEquals(FreeSpaceMap.UNKNOWN, reopened.getCategory(2));
+        assertEquals(2, reopened.findPage(1, SLOTS, 3));
+        reopened.close();
+    }
+
+    /**
+     * An insert into a table of full pages goes to a new page without fetching the full ones again.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, SLOTS * 10, null, null);
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));  //learns the pages are full
+        assertEquals(11, hf.numPages());
+
+        long fetches = bp.getHitCount() + bp.getMissCount();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(2, 2));
+        assertEquals(1, bp.getHitCount() + bp.getMissCount() - fetches);
+        assertEquals(11, hf.numPages());
+    }
+
+    /**
+     * A delete makes the next insert reuse the slot.
+     */
+    @Test public void insertAfterDelete() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, SLOTS * 3, null, null);
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < SLOTS + 1; i++)
+            it.next();
+        Tuple onSecondPage = it.next();
+        it.close();
+        bp.deleteTuple(tid, onSecondPage);
+
+        Tuple t = Utility.getHeapTuple(2, 2);
+        bp.insertTuple(tid, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
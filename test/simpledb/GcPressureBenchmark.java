@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.NoSuchElementException;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Allocation and GC benchmark for BufferTuple. It runs
+ * SELECT SUM(c2) FROM t WHERE c1 >= x over a table of a few million rows,
+ * once with every row decoded into a Tuple of Fields, as scans used to work,
+ * and once with the scan handing the Filter and the Aggregate a single
+ * reused BufferTuple. It reports time, bytes allocated by the query thread
+ * and the collections that happened while it ran.
+ * <p>
+ * Run with: ant runbench -Dbench=GcPressureBenchmark [-Dargs="rows runs"]
+ */
+public class GcPressureBenchmark {
+
+    /** @return child, except that it never reuses tuples */
+    private static OpIterator rowAtATime(final OpIterator child) {
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+
+            public void open() throws DbException, TransactionAbortedException {
+                child.open();
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                return child.hasNext();
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                return child.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                child.rewind();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return child.getTupleDesc();
+            }
+
+            public void close() {
+                child.close();
+            }
+        };
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += gc.getCollectionCount();
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += gc.getCollectionTime();
+        return millis;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static int query(HeapFile hf, boolean reuse) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator scan = new SeqScan(tid, hf.getId());
+        if (!reuse)
+            scan = rowAtATime(scan);
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), scan);
+        Aggregate sum = new Aggregate(filter, 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        sum.open();
+        int result = sum.next().getInt(0);
+        sum.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    private static void measure(String name, HeapFile hf, int rows, int runs, boolean reuse) throws Exception {
+        long gcs = gcCount();
+        long gcTime = gcMillis();
+        long bytes = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            query(hf, reuse);
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-12s %8.0f ms/query  %8.1f bytes/row  %4d GCs  %6d ms in GC%n", name,
+                seconds * 1000 / runs, (allocatedBytes() - bytes) / (double) rows / runs,
+                gcCount() - gcs, gcMillis() - gcTime);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        System.out.printf("%d rows, %d pages%n", rows, hf.numPages());
+        query(hf, false);  //warm up the JIT and the page cache
+        query(hf, true);
+        measure("row at a time", hf, rows, runs, false);
+        measure("BufferTuple", hf, rows, runs, true);
+        hf.close();
+    }
+}
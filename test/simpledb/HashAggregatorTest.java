@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashAggregatorTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE });
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT, Aggregator.Op.SUM_COUNT };
+
+    /** @return rows (group, value, the group as a string) */
+    private static ArrayList<Tuple> tuples(int rows, int groups) {
+        Random r = new Random(11);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            int g = r.nextInt(groups);
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(g));
+            t.setField(1, new IntField(r.nextInt(2000) - 1000));
+            t.setField(2, new StringField("group" + g, Type.STRING_LEN));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /** @return the rows the aggregates of OPS over field 1, grouped by field gfield, should give */
+    private static ArrayList<String> expected(ArrayList<Tuple> tuples, int gfield) {
+        Map<String, ArrayList<Integer>> groups = new HashMap<String, ArrayList<Integer>>();
+        for (Tuple t : tuples) {
+            String key = t.getField(gfield).toString();
+            if (!groups.containsKey(key))
+                groups.put(key, new ArrayList<Integer>());
+            groups.get(key).add(t.getInt(1));
+        }
+        ArrayList<String> rows = new ArrayList<String>();
+        for (Map.Entry<String, ArrayList<Integer>> e : groups.entrySet()) {
+            ArrayList<Integer> values = e.getValue();
+            long sum = 0;
+            for (int v : values)
+                sum += v;
+            int n = values.size();
+            rows.add(e.getKey() + " " + sum + " " + Collections.min(values) + " " + Collections.max(values) + " "
+                    + sum / n + " " + n + " " + sum + " " + n);
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static ArrayList<String> rows(OpIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        while (it.hasNext())
+            rows.add(it.next().toString().trim().replaceAll("\\s+", " "));
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Several aggregates over int and string group keys are computed in one
+     * pass, both tuple at a time and by batches.
+     */
+    @Test public void multipleAggregates() throws Exception {
+        ArrayList<Tuple> tuples = tuples(3000, 50);
+        int[] afields = new int[OPS.length];
+        java.util.Arrays.fill(afields, 1);
+        for (int gfield : new int[] { 0, 2 }) {
+            Aggregate agg = new Aggregate(new TupleIterator(TD, tuples), afields, gfield, OPS);
+            assertEquals(2 + OPS.length, agg.getTupleDesc().numFields());
+            agg.open();
+            assertEquals(expected(tuples, gfield), rows(agg));
+            agg.close();
+
+            HashAggregator byTuple = new HashAggregator(gfield, TD.getFieldType(gfield), afields, OPS);
+            for (Tuple t : tuples)
+                byTuple.mergeTupleIntoGroup(t);
+            OpIterator it = byTuple.iterator();
+            it.open();
+            assertEquals(expected(tuples, gfield), rows(it));
+            it.close();
+        }
+    }
+
+    /**
+     * Groups that do not fit in the memory budget are spilled and aggregated
+     * again from disk, with the same results, also after a rewind.
+     */
+    @Test public void spilled() throws Exception {
+        ArrayList<Tuple> tuples = tuples(20000, 8000);
+        int[] afields = new int[OPS.length];
+        java.util.Arrays.fill(afields, 1);
+        for (int gfield : new int[] { 0, 2 }) {
+            HashAggregator small = new HashAggregator(gfield, TD.getFieldType(gfield), afields, OPS);
+            small.setMemoryBudget(8 * BufferPool.getPageSize());
+            for (Tuple t : tuples)
+                small.mergeTupleIntoGroup(t);
+            assertTrue(small.hasSpilled());
+            OpIterator it = small.iterator();
+            it.open();
+            ArrayList<String> actual = rows(it);
+            assertEquals(expected(tuples, gfield), actual);
+            it.rewind();
+            assertEquals(actual, rows(it));
+            it.close();
+            small.clear();
+
+            Aggregate agg = new Aggregate(new TupleIterator(TD, tuples), afields, gfield, OPS);
+            agg.setMemoryBudget(2 * BufferPool.getPageSize());
+            agg.open();
+            assertEquals(actual, rows(agg));
+            agg.close();
+        }
+    }
+
+    /**
+     * A query with several aggregates is planned as one Aggregate.
+     */
+    @Test public void parsed() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, 20, null, tuples, "c");
+        Database.getCatalog().addTable(hf, "agg");
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT t.c0, MAX(t.c1), COUNT(t.c1), MIN(t.c1) FROM agg t GROUP BY t.c0;")
+                .physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        Aggregate agg = (Aggregate) ((Operator) plan).getChildren()[0];
+        assertEquals(3, agg.numAggregates());
+
+        Map<Integer, int[]> groups = new HashMap<Integer, int[]>();
+        for (ArrayList<Integer> t : tuples) {
+            int[] g = groups.get(t.get(0));
+            if (g == null)
+                groups.put(t.get(0), g = new int[] { t.get(1), 0, t.get(1) });
+            g[0] = Math.max(g[0], t.get(1));
+            g[1]++;
+            g[2] = Math.min(g[2], t.get(1));
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<Integer, int[]> e : groups.entrySet()) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(e.getKey());
+            for (int v : e.getValue())
+                row.add(v);
+            expected.add(row);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashAggregatorTest.class);
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples1;
+    private ArrayList<ArrayList<Integer>> tuples2;
+    private HeapFile hf1;
+    private HeapFile hf2;
+    private ArrayList<ArrayList<Integer>> expected;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        tuples1 = new ArrayList<ArrayList<Integer>>();
+        tuples2 = new ArrayList<ArrayList<Integer>>();
+        hf1 = SystemTestUtil.createRandomHeapFile(2, 5000, 2000, null, tuples1);
+        hf2 = SystemTestUtil.createRandomHeapFile(3, 3000, 2000, null, tuples2);
+        expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : tuples1) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (t1.get(1).equals(t2.get(0))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(t1);
+                    row.addAll(t2);
+                    expected.add(row);
+                }
+            }
+        }
+        sort(expected);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static ArrayList<ArrayList<Integer>> sort(ArrayList<ArrayList<Integer>> rows) {
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return rows;
+    }
+
+    private HashEquiJoin join() {
+        return new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, hf1.getId()), new SeqScan(tid, hf2.getId()));
+    }
+
+    private static ArrayList<ArrayList<Integer>> rows(HashEquiJoin join) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        while (join.hasNext())
+            rows.add(SystemTestUtil.tupleToList(join.next()));
+        return sort(rows);
+    }
+
+    /**
+     * A join whose build side fits in memory never spills.
+     */
+    @Test public void inMemory() throws Exception {
+        HashEquiJoin join = join();
+        join.open();
+        assertFalse(join.hasSpilled());
+        assertEquals(expected, rows(join));
+        join.close();
+    }
+
+    /**
+     * A build side bigger than the budget is spilled, and its partitions
+     * joined afterwards, whether tuples or batches are asked for.
+     */
+    @Test public void spilled() throws Exception {
+        HashEquiJoin join = join();
+        join.setMemoryBudget(8 * BufferPool.getPageSize());
+        join.open();
+        assertTrue(join.hasSpilled());
+        assertEquals(expected, rows(join));
+
+        join.rewind();
+        ArrayList<ArrayList<Integer>> batchRows = new ArrayList<ArrayList<Integer>>();
+        TupleBatch b;
+        while ((b = join.nextBatch()) != null)
+            for (int i = 0; i < b.size(); i++)
+                batchRows.add(SystemTestUtil.tupleToList(b.getTuple(i)));
+        assertEquals(expected, sort(batchRows));
+        join.close();
+    }
+
+    /**
+     * A budget too small for even one key still finishes: partitions stop
+     * being split after MAX_LEVEL levels.
+     */
+    @Test public void tinyBudget() throws Exception {
+        HashEquiJoin join = join();
+        join.setMemoryBudget(1);
+        join.open();
+        assertEquals(expected, rows(join));
+        join.close();
+    }
+
+    /**
+     * String keys are hashed, and their values compared on a match.
+     */
+    @Test public void stringKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        ArrayList<Tuple> right = new ArrayList<Tuple>();
+        // "Aa" and "BB" have the same hashCode
+        String[] keys = { "Aa", "BB", "x", "Aa" };
+        for (int i = 0; i < keys.length; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(keys[i], Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            left.add(t);
+            if (i < 2)
+                right.add(t);
+        }
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(td, left), new TupleIterator(td, right));
+        join.setMemoryBudget(1);
+        join.open();
+        ArrayList<String> joined = new ArrayList<String>();
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(t.getField(0), t.getField(2));
+            joined.add(((StringField) t.getField(0)).getValue() + t.getField(1));
+        }
+        Collections.sort(joined);
+        assertEquals(java.util.Arrays.asList("Aa0", "Aa3", "BB1"), joined);
+        join.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -77,6 +77,42 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        hf.setMemoryMapped(true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+
+        // grow the file past the mapped part, the next read maps the new page
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+        HeapPage written = new HeapPage(next, HeapPage.createEmptyPageData());
+        written.insertTuple(Utility.getHeapTuple(7, 2));
+        hf.writePage(written);
+        assertEquals(2, hf.numPages());
+        assertArrayEquals(written.getPageData(), hf.readPage(next).getPageData());
+
+        // and sees pages rewritten through the channel
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        assertEquals(485, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.close(): the file handle is reopened on the next read
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        hf.close();
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +157,86 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.iterator() with predicates: only matching tuples
+     * come back, from rows, reused tuples and batches alike.
+     */
+    @Test
+    public void iteratorWithPredicates() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, tuples);
+        Predicate[] preds = { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30)),
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)) };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) < 30 && t.get(1) >= 50)
+                expected.add(t);
+
+        for (boolean reuse : new boolean[] { false, true }) {
+            DbFileIterator it = file.iterator(tid, null, reuse, preds);
+            it.open();
+            ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+            while (it.hasNext())
+                found.add(SystemTestUtil.tupleToList(it.next()));
+            it.close();
+            assertEquals(expected, found);
+        }
+
+        DbFileIterator it = file.iterator(tid, null, true, preds);
+        it.open();
+        TupleBatch b = new TupleBatch(td, TupleBatch.DEFAULT_SIZE);
+        ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+        while (it.fillBatch(b)) {
+            for (int i = 0; i < b.size(); i++)
+                found.add(SystemTestUtil.tupleToList(b.getTuple(i)));
+            b.clear();
+        }
+        it.close();
+        assertEquals(expected, found);
+    }
+
+    /**
+     * Unit test for HeapFile.iterator() with columns: tuples only have the
+     * fields asked for, and predicates can be on the others.
+     */
+    @Test
+    public void iteratorWithColumns() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(3, 1500, 100, null, tuples);
+        Predicate[] preds = { new Predicate(1, Predicate.Op.LESS_THAN, new IntField(40)) };
+        int[] columns = { 2, 0 };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(1) < 40)
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+
+        for (boolean reuse : new boolean[] { false, true }) {
+            DbFileIterator it = file.iterator(tid, null, reuse, preds, columns);
+            it.open();
+            ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                assertEquals(2, t.getTupleDesc().numFields());
+                assertNotNull(t.getRecordId());
+                found.add(SystemTestUtil.tupleToList(t));
+            }
+            it.close();
+            assertEquals(expected, found);
+        }
+
+        DbFileIterator it = file.iterator(tid, null, true, preds, columns);
+        it.open();
+        TupleBatch b = new TupleBatch(Utility.getTupleDesc(3).project(columns), TupleBatch.DEFAULT_SIZE);
+        ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+        while (it.fillBatch(b)) {
+            for (int i = 0; i < b.size(); i++)
+                found.add(SystemTestUtil.tupleToList(b.getTuple(i)));
+            b.clear();
+        }
+        it.close();
+        assertEquals(expected, found);
+    }
+
     /**
      * JUnit suite target
      */
@@ -43,6 +43,47 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile page allocation: the file grows by whole extents
+     * and gives back what it did not use when closed.
+     */
+    @Test public void preallocate() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < 505; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+        assertEquals((long) (1 + HeapFile.EXTENT_PAGES) * pageSize, empty.getFile().length());
+
+        Database.getBufferPool().transactionComplete(tid, true);
+        empty.close();
+        assertEquals(2L * pageSize, empty.getFile().length());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.numPages() when the file grows behind its back.
+     */
+    @Test public void numPagesAfterAppend() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        HeapFile other = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        other.writePage(new HeapPage(new HeapPageId(other.getId(), 20), HeapPage.createEmptyPageData()));
+        assertEquals(21, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.numPages(): a file shorter than the pages
+     * handed out, as read before they were allocated, does not lower the count.
+     */
+    @Test public void numPagesNeverShrinks() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        empty.insertTuple(tid, Utility.getHeapTuple(2, 2));
+        int pages = empty.numPages();
+        java.io.RandomAccessFile raf = new java.io.RandomAccessFile(empty.getFile(), "rw");
+        raf.setLength(0);
+        raf.close();
+        assertEquals(pages, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
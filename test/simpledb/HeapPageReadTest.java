@@ -120,6 +120,18 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField(): single fields are decoded in place
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), page.getField(i, 1));
+            assertEquals(new IntField(EXAMPLE_VALUES[i][0]), page.getTuple(i).getField(0));
+        }
+        assertEquals(null, page.getField(EXAMPLE_VALUES.length, 0));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,48 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Bulk insert throughput benchmark for HeapFile. It inserts tuples through
+ * the BufferPool into tables that already hold a growing number of full
+ * pages, committing every batch. With the FreeSpaceMap an insert goes
+ * straight to the page with room, so throughput does not depend on how big
+ * the table is; probing every page made it drop with the table size.
+ * <p>
+ * Run with: ant runbench -Dbench=InsertBenchmark [-Dargs="tuples page-counts..."]
+ */
+public class InsertBenchmark {
+
+    private static final int BATCH = 1000;
+
+    /** @return tuples inserted per second */
+    private static double run(HeapFile hf, int tuples) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        long begin = System.nanoTime();
+        for (int done = 0; done < tuples; ) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < BATCH && done < tuples; i++, done++)
+                bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(done, 2));
+            bp.transactionComplete(tid, true);
+        }
+        return tuples / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tuples = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int[] sizes = { 0, 100, 1000 };
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                sizes[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        run(SystemTestUtil.createRandomHeapFile(2, 0, null, null), tuples);  //warm up the JIT
+        for (int pages : sizes) {
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+            run(hf, 1);  //the encoder writes no map, the first insert looks at every page once
+            System.out.printf("%6d full pages: %10.0f inserts/s%n", pages, run(hf, tuples));
+            hf.close();
+        }
+    }
+}
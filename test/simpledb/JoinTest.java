@@ -105,6 +105,59 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with blocks smaller than the outer relation:
+   * the inner relation is read once per block.
+   */
+  @Test public void blockNestedLoop() throws Exception {
+    final int[] rewinds = new int[1];
+    final OpIterator inner = scan2;
+    Operator counted = new Operator() {
+      private static final long serialVersionUID = 1L;
+      public void open() throws DbException, TransactionAbortedException {
+        inner.open();
+        super.open();
+      }
+      public void close() {
+        super.close();
+        inner.close();
+      }
+      public void rewind() throws DbException, TransactionAbortedException {
+        rewinds[0]++;
+        inner.rewind();
+      }
+      protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return inner.hasNext() ? inner.next() : null;
+      }
+      public TupleDesc getTupleDesc() {
+        return inner.getTupleDesc();
+      }
+      public OpIterator[] getChildren() {
+        return new OpIterator[] { inner };
+      }
+      public void setChildren(OpIterator[] children) {
+      }
+    };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, counted);
+    assertEquals(Join.Method.BLOCK_NESTED_LOOP, op.getMethod());
+    op.setBlockSize(3);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+
+    rewinds[0] = 0;
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(11, count);
+    // one for Join.rewind(), then one more for the second block of the 4 outer tuples
+    assertEquals(2, rewinds[0]);
+  }
+
   /**
    * JUnit suite target
    */
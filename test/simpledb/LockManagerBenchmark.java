@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Multi-threaded read-lock benchmark for LockManager. Every thread runs short
+ * read-only transactions that take shared locks on a handful of random pages
+ * and then release them all, which is the pattern of concurrent point
+ * queries. With a striped lock table throughput should grow with the number
+ * of threads up to the number of cores.
+ * <p>
+ * Run with: ant runbench -Dbench=LockManagerBenchmark [-Dargs="maxThreads txnsPerThread"]
+ */
+public class LockManagerBenchmark {
+
+    private static final int NUM_PAGES = 10000;
+    private static final int LOCKS_PER_TXN = 8;
+
+    /** @return transactions per second */
+    private static double run(final LockManager lm, final int threads, final int txnsPerThread)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    PageId[] pids = new PageId[LOCKS_PER_TXN];
+                    try {
+                        start.await();
+                        for (int i = 0; i < txnsPerThread; i++) {
+                            TransactionId tid = new TransactionId();
+                            for (int j = 0; j < LOCKS_PER_TXN; j++) {
+                                pids[j] = new HeapPageId(1, rand.nextInt(NUM_PAGES));
+                                lm.acquireLock(tid, pids[j], Permissions.READ_ONLY);
+                                // a scan asks for the same page again for every tuple on it
+                                lm.acquireLock(tid, pids[j], Permissions.READ_ONLY);
+                            }
+                            lm.releaseAllLocks(tid);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+        long elapsed = System.nanoTime() - begin;
+        return (double) threads * txnsPerThread / (elapsed / 1e9);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 2 * Runtime.getRuntime().availableProcessors();
+        int txns = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        run(new LockManager(), maxThreads, txns / 10);  //warm up the JIT
+        System.out.println("cores: " + Runtime.getRuntime().availableProcessors());
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double tps = run(new LockManager(), threads, txns);
+            if (threads == 1)
+                base = tps;
+            System.out.printf("%3d threads: %12.0f txn/s  (%.2fx)%n", threads, tps, tps / base);
+        }
+    }
+}
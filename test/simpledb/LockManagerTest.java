@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int WAIT = 200;
+
+    private LockManager lm;
+    private PageId p0, p1;
+
+    /** acquires a lock in its own thread and records the outcome */
+    private class Acquirer extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean granted = false;
+        volatile boolean aborted = false;
+
+        Acquirer(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            setDaemon(true);
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquireLock(tid, pid, perm);
+                granted = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            }
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+    }
+
+    /**
+     * Unit test for shared and exclusive compatibility.
+     */
+    @Test public void sharedThenExclusive() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, p0, Permissions.READ_ONLY);
+        lm.acquireLock(t2, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(t1, p0));
+        assertTrue(lm.holdsLock(t2, p0));
+
+        Acquirer w = new Acquirer(t1, p0, Permissions.READ_WRITE);
+        w.join(WAIT);
+        assertFalse(w.granted);
+        lm.releaseLock(t2, p0);
+        w.join(WAIT);
+        assertTrue(w.granted);
+    }
+
+    /**
+     * Unit test for FIFO granting: a reader arriving behind a parked writer waits.
+     */
+    @Test public void fifoGrant() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquireLock(t1, p0, Permissions.READ_ONLY);
+        Acquirer writer = new Acquirer(t2, p0, Permissions.READ_WRITE);
+        Thread.sleep(WAIT / 2);
+        Acquirer reader = new Acquirer(t3, p0, Permissions.READ_ONLY);
+        reader.join(WAIT);
+        assertFalse(writer.granted);
+        assertFalse(reader.granted);
+
+        lm.releaseAllLocks(t1);
+        writer.join(WAIT);
+        assertTrue(writer.granted);
+        assertFalse(reader.granted);
+
+        lm.releaseAllLocks(t2);
+        reader.join(WAIT);
+        assertTrue(reader.granted);
+    }
+
+    /**
+     * Unit test for deadlock detection: only the youngest transaction is aborted.
+     */
+    @Test public void youngestVictim() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(older, p0, Permissions.READ_WRITE);
+        lm.acquireLock(younger, p1, Permissions.READ_WRITE);
+
+        Acquirer a = new Acquirer(older, p1, Permissions.READ_WRITE);
+        Acquirer b = new Acquirer(younger, p0, Permissions.READ_WRITE);
+        b.join(LockManager.DETECTION_INTERVAL * 20);
+        assertTrue(b.aborted);
+        assertFalse(a.aborted);
+        assertFalse(a.granted);
+        assertEquals(1, lm.getDeadlockCount());
+
+        lm.releaseAllLocks(younger);
+        a.join(WAIT);
+        assertTrue(a.granted);
+        assertFalse(lm.holdsLock(younger, p1));
+    }
+
+    /**
+     * Unit test for two readers both trying to upgrade.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, p0, Permissions.READ_ONLY);
+        lm.acquireLock(t2, p0, Permissions.READ_ONLY);
+        Acquirer a = new Acquirer(t1, p0, Permissions.READ_WRITE);
+        Acquirer b = new Acquirer(t2, p0, Permissions.READ_WRITE);
+        b.join(LockManager.DETECTION_INTERVAL * 20);
+        assertTrue(b.aborted);
+
+        lm.releaseAllLocks(t2);
+        a.join(WAIT);
+        assertTrue(a.granted);
+    }
+
+    /**
+     * Unit test for the per-transaction index of held locks.
+     */
+    @Test public void lockedPages() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, p0, Permissions.READ_ONLY);
+        lm.acquireLock(t1, p1, Permissions.READ_WRITE);
+        lm.acquireLock(t2, p0, Permissions.READ_ONLY);
+        assertEquals(2, lm.getLockedPages(t1).size());
+        assertEquals(1, lm.getLockedPages(t2).size());
+
+        lm.releaseAllLocks(t1);
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+        assertFalse(lm.holdsLock(t1, p1));
+        assertTrue(lm.holdsLock(t2, p0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
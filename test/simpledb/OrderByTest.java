@@ -0,0 +1,107 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    /** @return rows (random int, a string sharing a long prefix with the others, i) */
+    private static ArrayList<Tuple> tuples(int rows) {
+        Random r = new Random(7);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(r.nextInt(1000) - 500));
+            t.setField(1, new StringField("prefix" + r.nextInt(10000), Type.STRING_LEN));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /** @return the tuples of it, checking that they are in order */
+    private static ArrayList<String> sortedRows(OrderBy it) throws Exception {
+        TupleComparator cmp = new TupleComparator(it.getOrderByField(), it.isASC());
+        ArrayList<String> rows = new ArrayList<String>();
+        Tuple last = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (last != null)
+                assertTrue(cmp.compare(last, t) <= 0);
+            last = t;
+            rows.add(t.toString());
+        }
+        return rows;
+    }
+
+    private static ArrayList<String> strings(ArrayList<Tuple> tuples) {
+        ArrayList<String> rows = new ArrayList<String>();
+        for (Tuple t : tuples)
+            rows.add(t.toString());
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Sorting in memory and through runs on disk give the same order, for
+     * int and string fields in both directions.
+     */
+    @Test public void inMemoryAndSpilled() throws Exception {
+        ArrayList<Tuple> tuples = tuples(3000);
+        for (int field = 0; field < 2; field++) {
+            for (boolean asc : new boolean[] { true, false }) {
+                OrderBy inMemory = new OrderBy(field, asc, new TupleIterator(TD, tuples));
+                inMemory.open();
+                assertEquals(0, inMemory.numRuns());
+                ArrayList<String> expected = sortedRows(inMemory);
+                inMemory.close();
+
+                OrderBy spilled = new OrderBy(field, asc, new TupleIterator(TD, tuples));
+                spilled.setMemoryBudget(64 * 1024);
+                spilled.open();
+                assertTrue(spilled.numRuns() > 1);
+                ArrayList<String> actual = sortedRows(spilled);
+                ArrayList<String> sortedActual = new ArrayList<String>(actual);
+                Collections.sort(sortedActual);
+                assertEquals(strings(tuples), sortedActual);
+                // ties keep the child's order either way
+                if (field == 0)
+                    assertEquals(expected, actual);
+
+                spilled.rewind();
+                assertEquals(actual, sortedRows(spilled));
+                spilled.close();
+            }
+        }
+    }
+
+    /**
+     * More runs than the budget has buffers for are merged in several passes.
+     */
+    @Test public void multiPassMerge() throws Exception {
+        ArrayList<Tuple> tuples = tuples(2000);
+        OrderBy sort = new OrderBy(0, true, new TupleIterator(TD, tuples));
+        sort.setMemoryBudget(2 * BufferPool.getPageSize());
+        sort.open();
+        assertTrue(sort.numRuns() <= 2);
+        ArrayList<String> actual = sortedRows(sort);
+        Collections.sort(actual);
+        assertEquals(strings(tuples), actual);
+        sort.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Page read latency benchmark for HeapFile.readPage. It reads random pages
+ * straight from the DbFile, bypassing the BufferPool, and compares the
+ * persistent positional channel and the memory-mapped mode with opening a
+ * RandomAccessFile per read, which is how pages used to be read. Pages come from the OS page cache, so
+ * the difference is the per-read handle overhead; the raw numbers leave out
+ * decoding the page, which otherwise dominates.
+ * <p>
+ * Run with: ant runbench -Dbench=PageReadBenchmark [-Dargs="pages reads"]
+ */
+public class PageReadBenchmark {
+
+    /** @return nanoseconds per page read */
+    private static double readChannel(HeapFile hf, int pages, int reads) {
+        Random rand = new Random(0);
+        long begin = System.nanoTime();
+        for (int i = 0; i < reads; i++)
+            hf.readPage(new HeapPageId(hf.getId(), rand.nextInt(pages)));
+        return (System.nanoTime() - begin) / (double) reads;
+    }
+
+    /** @return nanoseconds per page read */
+    private static double readOpenPerPage(HeapFile hf, int pages, int reads, boolean decode) throws Exception {
+        Random rand = new Random(0);
+        File f = hf.getFile();
+        long begin = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), rand.nextInt(pages));
+            byte[] data = new byte[BufferPool.getPageSize()];
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            raf.seek((long) pid.getPageNumber() * BufferPool.getPageSize());
+            raf.read(data, 0, data.length);
+            raf.close();
+            if (decode)
+                new HeapPage(pid, data);
+        }
+        return (System.nanoTime() - begin) / (double) reads;
+    }
+
+    /** @return nanoseconds per raw page read through a persistent channel */
+    private static double readChannelRaw(DbFileChannel channel, int pages, int reads) throws Exception {
+        Random rand = new Random(0);
+        long begin = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            byte[] data = new byte[BufferPool.getPageSize()];
+            channel.read(data, (long) rand.nextInt(pages) * BufferPool.getPageSize());
+        }
+        return (System.nanoTime() - begin) / (double) reads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, pages * 504, null, null);
+        pages = hf.numPages();
+        DbFileChannel channel = new DbFileChannel(hf.getFile());
+        DbFileChannel mapped = new DbFileChannel(hf.getFile());
+        mapped.setMapped(true);
+        readChannel(hf, pages, reads / 10);  //warm up the JIT and the page cache
+        readOpenPerPage(hf, pages, reads / 10, true);
+        readChannelRaw(channel, pages, reads / 10);
+        readChannelRaw(mapped, pages, reads / 10);
+
+        System.out.printf("raw, open per read:          %8.0f ns/page%n", readOpenPerPage(hf, pages, reads, false));
+        System.out.printf("raw, persistent channel:     %8.0f ns/page%n", readChannelRaw(channel, pages, reads));
+        System.out.printf("raw, memory mapped:          %8.0f ns/page%n", readChannelRaw(mapped, pages, reads));
+        System.out.printf("readPage, open per read:     %8.0f ns/page%n", readOpenPerPage(hf, pages, reads, true));
+        System.out.printf("readPage, persistent channel:%8.0f ns/page%n", readChannel(hf, pages, reads));
+        hf.setMemoryMapped(true);
+        System.out.printf("readPage, memory mapped:     %8.0f ns/page%n", readChannel(hf, pages, reads));
+        channel.close();
+        mapped.close();
+        hf.close();
+    }
+}
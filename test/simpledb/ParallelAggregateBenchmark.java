@@ -0,0 +1,55 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Scaling benchmark for parallel aggregation. It runs
+ * SELECT c0, SUM(c1), AVG(c1), COUNT(c1) FROM t GROUP BY c0 over a table of a
+ * few million rows with 1, 2, 4, ... threads, by default up to the number
+ * of processors, and prints the speedup over one thread.
+ * <p>
+ * Run with: ant runbench -Dbench=ParallelAggregateBenchmark [-Dargs="rows groups runs threads"]
+ */
+public class ParallelAggregateBenchmark {
+
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    private static int query(HeapFile hf, int threads) throws Exception {
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, hf.getId()), new int[] { 1, 1, 1 }, 0, OPS);
+        agg.setParallelism(threads);
+        agg.open();
+        int groups = 0;
+        while (agg.hasNext()) {
+            agg.next();
+            groups++;
+        }
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return groups;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Database.resetBufferPool(rows / 300 + 100);  //the whole table stays cached: this measures CPU, not I/O
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, groups, null, null);
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : cpus;
+        System.out.printf("%d rows, %d pages, %d processors%n", rows, hf.numPages(), cpus);
+        query(hf, 1);  //warms up the JIT and the page cache
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < runs; i++)
+                query(hf, threads);
+            double ms = (System.nanoTime() - begin) / 1e6 / runs;
+            if (threads == 1)
+                base = ms;
+            System.out.printf("%2d threads %8.0f ms/query  speedup %5.2f%n", threads, ms, base / ms);
+        }
+        hf.close();
+    }
+}
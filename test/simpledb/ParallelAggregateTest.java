@@ -0,0 +1,174 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+    private static final Aggregator.Op[] OPS = { Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.COUNT };
+    private static final int[] FIELDS = { 1, 1, 2, 2, 1 };
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, 40000, 1000, null, tuples);
+    }
+
+    private static ArrayList<String> rows(OpIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * The pages split between threads give the same groups as one thread,
+     * with and without grouping, predicates and a memory budget to spill in.
+     */
+    @Test public void sameAsSerial() throws Exception {
+        assertTrue(hf.numPages() >= 4 * Aggregate.MIN_WORKER_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int gfield : new int[] { 0, Aggregator.NO_GROUPING }) {
+            for (long budget : new long[] { 0, 8 * BufferPool.getPageSize() }) {
+                SeqScan scan = new SeqScan(tid, hf.getId());
+                scan.addPredicate(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(100)));
+                Aggregate serial = new Aggregate(scan, FIELDS, gfield, OPS);
+                serial.setParallelism(1);
+                SeqScan scan2 = new SeqScan(tid, hf.getId());
+                scan2.addPredicate(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(100)));
+                Aggregate parallel = new Aggregate(scan2, FIELDS, gfield, OPS);
+                parallel.setParallelism(4);
+                if (budget > 0) {
+                    serial.setMemoryBudget(budget);
+                    parallel.setMemoryBudget(budget);
+                }
+
+                ArrayList<String> expected = rows(serial);
+                assertEquals(1, serial.workers());
+                assertEquals(expected, rows(parallel));
+                assertEquals(4, parallel.workers());
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The splits of a scan return the tuples of the whole scan between them.
+     */
+    @Test public void splitScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        int pages = hf.numPages();
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        for (int[] range : new int[][] { { 0, 1 }, { 1, pages / 2 }, { pages / 2, Integer.MAX_VALUE },
+                { pages, pages + 5 } }) {
+            SeqScan part = scan.split(range[0], range[1]);
+            part.open();
+            while (part.hasNext())
+                all.add(SystemTestUtil.tupleToList(part.next()));
+            part.close();
+        }
+        assertEquals(tuples.size(), all.size());
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId()), all);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the spill files in the temporary directory */
+    private static int spillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+        int n = 0;
+        for (String name : names)
+            if (name.startsWith("spill") && name.endsWith(".tmp"))
+                n++;
+        return n;
+    }
+
+    /**
+     * When the range of one thread fails, the other threads are stopped and
+     * waited for before the failure is thrown: no range is still open or
+     * read afterwards, and no spill file is left behind.
+     */
+    @Test public void splitFails() throws Exception {
+        final TransactionId tid = new TransactionId();
+        final int pages = hf.numPages();
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicBoolean thrown = new AtomicBoolean();
+        final AtomicBoolean readLate = new AtomicBoolean();
+        SeqScan scan = new SeqScan(tid, hf.getId()) {
+            private static final long serialVersionUID = 1L;
+
+            public SeqScan split(int firstPage, int endPage) {
+                final SeqScan part = super.split(firstPage, endPage);
+                final boolean fails = firstPage == pages / 4;  //the second of four ranges
+                return new SeqScan(tid, hf.getId()) {
+                    private static final long serialVersionUID = 1L;
+
+                    public void setReuseTuples(boolean reuse) {
+                        part.setReuseTuples(reuse);
+                    }
+                    public void open() throws DbException, TransactionAbortedException {
+                        open.incrementAndGet();
+                        part.open();
+                    }
+                    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+                        if (thrown.get())
+                            readLate.set(true);
+                        if (fails)
+                            throw new DbException("split failed");
+                        try {
+                            Thread.sleep(5);  //the other ranges are still running when one fails
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return part.nextBatch();
+                    }
+                    public void close() {
+                        part.close();
+                        open.decrementAndGet();
+                    }
+                };
+            }
+        };
+        int before = spillFiles();
+        Aggregate agg = new Aggregate(scan, FIELDS, 0, OPS);
+        agg.setParallelism(4);
+        agg.setMemoryBudget(8 * BufferPool.getPageSize());
+        try {
+            agg.open();
+            fail("expected the failure of a split");
+        } catch (DbException e) {
+            assertEquals("split failed", e.getMessage());
+        }
+        thrown.set(true);
+        assertEquals(0, open.get());
+        assertEquals(before, spillFiles());
+        Thread.sleep(50);
+        assertFalse(readLate.get());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+    private static final long TIMEOUT = 5000;
+
+    private TransactionId tid;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.transactionComplete(tid);
+    }
+
+    private void awaitPrefetched(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (bp.getPrefetchCount() < count) {
+            assertTrue("read-ahead did not happen", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Unit test for Prefetcher.Sequential: two pages in a row start the read-ahead.
+     */
+    @Test public void sequential() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        Prefetcher.Sequential readAhead = new Prefetcher.Sequential(hf);
+        readAhead.pageRead(0);
+        Thread.sleep(50);
+        assertEquals(0, bp.getPrefetchCount());
+        readAhead.pageRead(1);
+        awaitPrefetched(Prefetcher.DEFAULT_DEPTH);
+        for (int i = 2; i < 2 + Prefetcher.DEFAULT_DEPTH; i++)
+            assertTrue(bp.idToPage.containsKey(new HeapPageId(hf.getId(), i)));
+
+        // the prefetched pages are then served from the pool
+        long misses = bp.getMissCount();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+    }
+
+    /**
+     * Unit test for Prefetcher.LeafChain: read-ahead follows the sibling pointers.
+     */
+    @Test public void leafChain() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+        bp = Database.getBufferPool();  //building the tree resets the pool
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bp.getPage(tid, BTreeRootPtrPage.getId(bf.getId()),
+                Permissions.READ_ONLY);
+        BTreeLeafPage leaf = bf.findLeafPage(tid, rootPtr.getRootId(), Permissions.READ_ONLY, null);
+        Prefetcher.LeafChain readAhead = new Prefetcher.LeafChain(bf, true);
+        readAhead.leafRead(leaf);
+        leaf = (BTreeLeafPage) bp.getPage(tid, leaf.getRightSiblingId(), Permissions.READ_ONLY);
+        readAhead.leafRead(leaf);
+        awaitPrefetched(Prefetcher.DEFAULT_DEPTH);
+        for (int i = 0; i < Prefetcher.DEFAULT_DEPTH; i++) {
+            leaf = (BTreeLeafPage) bp.idToPage.get(leaf.getRightSiblingId());
+            assertNotNull(leaf);
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.installPrefetched: a page read before a write may be stale.
+     */
+    @Test public void staleRead() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        long writes = DbFileChannel.getWriteCount();
+        Page page = hf.readPage(new HeapPageId(hf.getId(), 1));
+        hf.writePage(hf.readPage(new HeapPageId(hf.getId(), 0)));
+        assertFalse(bp.installPrefetched(page, writes, null));
+        assertTrue(bp.installPrefetched(page, DbFileChannel.getWriteCount(), null));
+        assertFalse(bp.installPrefetched(page, DbFileChannel.getWriteCount(), null));  //cached already
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.EvictionFilter ANY = new ReplacementPolicy.EvictionFilter() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private PageId[] pids;
+
+    @Before public void createPids() {
+        pids = new PageId[8];
+        for (int i = 0; i < pids.length; i++)
+            pids[i] = new HeapPageId(1, i);
+    }
+
+    private static ReplacementPolicy.EvictionFilter except(final PageId... pinned) {
+        final Set<PageId> set = new HashSet<PageId>(Arrays.asList(pinned));
+        return new ReplacementPolicy.EvictionFilter() {
+            public boolean canEvict(PageId pid) {
+                return !set.contains(pid);
+            }
+        };
+    }
+
+    /**
+     * Unit test for LruPolicy: hits move a page to the back of the queue.
+     */
+    @Test public void lru() {
+        LruPolicy p = new LruPolicy();
+        for (int i = 0; i < 3; i++)
+            p.pageAdded(pids[i]);
+        p.pageAccessed(pids[0]);
+        assertEquals(pids[1], p.chooseVictim(ANY));
+        assertEquals(pids[0], p.chooseVictim(except(pids[2])));
+        assertEquals(1, p.size());
+        assertNull(p.chooseVictim(except(pids[2])));
+    }
+
+    /**
+     * Unit test for ClockPolicy: a referenced page gets a second chance.
+     */
+    @Test public void clock() {
+        ClockPolicy p = new ClockPolicy();
+        for (int i = 0; i < 3; i++)
+            p.pageAdded(pids[i]);
+        // first sweep clears every bit, then the hand is back at pids[0]
+        assertEquals(pids[0], p.chooseVictim(ANY));
+        p.pageAccessed(pids[1]);
+        assertEquals(pids[2], p.chooseVictim(ANY));
+        p.pageRemoved(pids[1]);
+        assertEquals(0, p.size());
+        assertNull(p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for ClockPolicy when every page is pinned.
+     */
+    @Test public void clockAllPinned() {
+        ClockPolicy p = new ClockPolicy();
+        for (int i = 0; i < 4; i++)
+            p.pageAdded(pids[i]);
+        assertNull(p.chooseVictim(except(pids[0], pids[1], pids[2], pids[3])));
+        assertEquals(4, p.size());
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages seen fewer than K times go first, then
+     * the page whose K-th most recent access is oldest.
+     */
+    @Test public void lruK() {
+        LruKPolicy p = new LruKPolicy(2);
+        for (int i = 0; i < 4; i++)
+            p.pageAdded(pids[i]);
+        p.pageAccessed(pids[0]);
+        p.pageAccessed(pids[1]);
+        p.pageAccessed(pids[0]);
+        // pids[2] and pids[3] were only seen once
+        assertEquals(pids[2], p.chooseVictim(ANY));
+        assertEquals(pids[3], p.chooseVictim(ANY));
+        // pids[0]'s second most recent access is newer than pids[1]'s
+        assertEquals(pids[1], p.chooseVictim(ANY));
+        assertEquals(pids[0], p.chooseVictim(ANY));
+        assertNull(p.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a page re-requested after leaving A1in is hot.
+     */
+    @Test public void twoQueue() {
+        TwoQueuePolicy p = new TwoQueuePolicy(4, 1, 2);
+        p.pageAdded(pids[0]);
+        p.pageAdded(pids[1]);
+        assertEquals(pids[0], p.chooseVictim(ANY));
+        p.pageAdded(pids[0]);  //remembered on A1out, so it goes to Am
+        p.pageAdded(pids[2]);
+        p.pageAdded(pids[3]);
+        // A1in is over its target, so the scan pages go before the hot page
+        assertEquals(pids[1], p.chooseVictim(ANY));
+        assertEquals(pids[2], p.chooseVictim(ANY));
+        assertEquals(pids[0], p.chooseVictim(except(pids[3])));
+        assertEquals(1, p.size());
+    }
+
+    /**
+     * Unit test for BufferPool hit and miss accounting.
+     */
+    @Test public void hitsAndMisses() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1024, null, null);
+        BufferPool bp = Database.resetBufferPool(4, new ClockPolicy());
+        TransactionId tid = new TransactionId();
+        int n = hf.numPages();
+        assertTrue(n > 1);
+        for (int i = 0; i < n; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), n - 1), Permissions.READ_ONLY);
+        assertEquals(n, bp.getMissCount());
+        assertEquals(1, bp.getHitCount());
+        assertTrue(bp.getReplacementPolicy().size() <= 4);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.util.*;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Index lookup latency benchmark for BufferAccessStrategy. One thread runs
+ * point lookups on a B+ tree whose pages fit in the BufferPool while another
+ * thread keeps scanning a heap file several times bigger than the pool. When
+ * the scan goes through a ring the index stays cached and lookup latency
+ * stays at its idle level; when it does not, the scan keeps flushing the
+ * index and lookups have to read their pages again.
+ * <p>
+ * Run with: ant runbench -Dbench=ScanResistanceBenchmark [-Dargs="poolPages lookups"]
+ */
+public class ScanResistanceBenchmark {
+
+    private static final int KEYS = 50000;
+
+    private static volatile boolean scanning;
+
+    /** Scan hf over and over until scanning is cleared */
+    private static Thread startScanner(final HeapFile hf, final boolean ring) {
+        scanning = true;
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    while (scanning) {
+                        TransactionId tid = new TransactionId();
+                        DbFileIterator it = hf.iterator(tid,
+                                ring ? BufferAccessStrategy.forScan(hf.numPages()) : null);
+                        it.open();
+                        while (scanning && it.hasNext())
+                            it.next();
+                        it.close();
+                        Database.getBufferPool().transactionComplete(tid);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    /** @return lookup latencies in microseconds, sorted */
+    private static double[] lookups(BTreeFile index, int count) throws Exception {
+        Random rand = new Random(0);
+        double[] micros = new double[count];
+        for (int i = 0; i < count; i++) {
+            TransactionId tid = new TransactionId();
+            long begin = System.nanoTime();
+            DbFileIterator it = index.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.EQUALS, new IntField(rand.nextInt(KEYS))));
+            it.open();
+            while (it.hasNext())
+                it.next();
+            it.close();
+            micros[i] = (System.nanoTime() - begin) / 1e3;
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        Arrays.sort(micros);
+        return micros;
+    }
+
+    /** @return how many pages of the index are in the BufferPool */
+    private static int cachedPages(BTreeFile index) {
+        int count = 0;
+        for (PageId pid : Database.getBufferPool().idToPage.keySet())
+            if (pid.getTableId() == index.getId())
+                count++;
+        return count;
+    }
+
+    private static void report(String name, double[] micros, int cached) {
+        System.out.printf("%-18s p50 %7.1f us  p90 %7.1f us  p99 %7.1f us  index pages cached %d%n", name,
+                micros[micros.length / 2], micros[(int) (micros.length * 0.9)],
+                micros[(int) (micros.length * 0.99)], cached);
+    }
+
+    private static void measure(String name, BTreeFile index, HeapFile table, int count, Boolean ring)
+            throws Exception {
+        lookups(index, count / 10);  //load the index again after the last phase
+        Thread scanner = ring == null ? null : startScanner(table, ring);
+        double[] micros = lookups(index, count);
+        int cached = cachedPages(index);
+        if (scanner != null) {
+            scanning = false;
+            scanner.join();
+        }
+        report(name, micros, cached);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, KEYS, KEYS, null, null, 0);
+        Database.resetBufferPool(poolPages);  //after building the tree, which resets the pool too
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * poolPages * 5, null, null);
+        System.out.printf("pool %d pages, index %d pages, table %d pages%n",
+                poolPages, index.numPages(), table.numPages());
+
+        lookups(index, count);  //warm up the JIT and load the index
+        measure("idle", index, table, count, null);
+        measure("scan without ring", index, table, count, false);
+        measure("scan with ring", index, table, count, true);
+    }
+}
@@ -0,0 +1,246 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, new String[] { "id", "name" });
+
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        pid = new HeapPageId(-1, -1);
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN, Type.VARCHAR_TYPE));
+        return t;
+    }
+
+    private static String name(int i) {
+        return "name" + i;
+    }
+
+    private static ArrayList<Tuple> contents(HeapPage page) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples;
+    }
+
+    /** @return a table file of rows (i, name(i)) in the given types */
+    private static File textTable(int rows, Type[] types) throws IOException {
+        File text = File.createTempFile("varchar", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++)
+            bw.write(i + "," + name(i) + "\n");
+        bw.close();
+        File dat = File.createTempFile("varchar", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 2, types);
+        return dat;
+    }
+
+    /**
+     * A page of zeroes is an empty page; tuples take only the bytes they need.
+     */
+    @Test public void insertTuple() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData(), TD);
+        assertFalse(page.iterator().hasNext());
+        assertEquals(SlottedHeapPage.capacity(), page.getFreeSpace());
+
+        int count = 0;
+        while (page.hasRoomFor(tuple(count, name(count)))) {
+            Tuple t = tuple(count, name(count));
+            page.insertTuple(t);
+            assertEquals(count, t.getRecordId().getTupleNumber());
+            count++;
+        }
+        // 4 + 4 + len bytes of record and 4 bytes of slot entry per tuple
+        assertTrue(count > SlottedHeapPage.capacity() / (4 + 4 + 7 + SlottedHeapPage.SLOT_SIZE));
+        assertTrue(count > 5 * (BufferPool.getPageSize() / (TD.getSize() + 1)));
+
+        ArrayList<Tuple> tuples = contents(page);
+        assertEquals(count, tuples.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, tuples.get(i).getInt(0));
+            assertEquals(name(i), ((StringField) tuples.get(i).getField(1)).getValue());
+            assertEquals(Type.VARCHAR_TYPE, tuples.get(i).getField(1).getType());
+            assertEquals(name(i), ((StringField) page.getField(i, 1)).getValue());
+        }
+
+        // the page survives a trip through its bytes
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData(), TD);
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        assertEquals(tuples.get(count - 1).toString(), copy.getTuple(count - 1).toString());
+    }
+
+    /**
+     * Deleted space is reused, and RecordIds of the other tuples stay the same.
+     */
+    @Test public void deleteTuple() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData(), TD);
+        int count = 0;
+        while (page.hasRoomFor(tuple(count, "x")))
+            page.insertTuple(tuple(count++, "x"));
+        ArrayList<Tuple> tuples = contents(page);
+
+        // free every other tuple, then refill the holes with longer strings
+        for (int i = 0; i < count; i += 2)
+            page.deleteTuple(tuples.get(i));
+        try {
+            page.deleteTuple(tuples.get(0));
+            fail("deleted a tuple twice");
+        } catch (DbException e) {
+            // expected
+        }
+        int refilled = 0;
+        while (page.hasRoomFor(tuple(-1, "xx"))) {
+            page.insertTuple(tuple(-1, "xx"));
+            refilled++;
+        }
+        assertTrue(refilled > 0);
+        assertTrue(refilled < (count + 1) / 2);  //each takes a byte more than it did
+        for (int i = 1; i < count; i += 2)
+            assertEquals(i, page.getTuple(i).getInt(0));
+    }
+
+    /**
+     * The before image is the page as it was before the first change.
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData(), TD);
+        page.insertTuple(tuple(1, "one"));
+        page.setBeforeImage();
+        byte[] before = page.getPageData();
+        page.insertTuple(tuple(2, "two"));
+        page.deleteTuple(page.iterator().next());
+        HeapPage image = page.getBeforeImage();
+        assertTrue(image instanceof SlottedHeapPage);
+        assertArrayEquals(before, image.getPageData());
+    }
+
+    /**
+     * A VARCHAR table takes far fewer pages than the same table in STRING fields.
+     */
+    @Test public void varcharTable() throws Exception {
+        int rows = 3000;
+        File padded = textTable(rows, new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File slotted = textTable(rows, new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+        assertTrue(slotted.length() * 5 < padded.length());
+
+        HeapFile hf = new HeapFile(slotted, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid, null, true);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(count, t.getInt(0));
+            assertEquals(name(count), new String(t.getStringBytes(1)));
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+
+        // inserts go to the page with room, deletes leave room
+        Tuple t = tuple(rows, "a rather longer name than the others");
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(hf.numPages() - 1, t.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A VARCHAR(n) table rejects an insert of a longer string, the encoder
+     * cuts longer strings to n characters, and scans keep n in their schema.
+     */
+    @Test public void varcharLength() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE },
+                new String[] { "id", "name" }, new int[] { Type.STRING_LEN, 5 });
+        File text = File.createTempFile("varchar", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        bw.write("1,abc\n2,abcdefgh\n");
+        bw.close();
+        File dat = File.createTempFile("varchar", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), td, ',');
+        HeapFile hf = new HeapFile(dat, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertEquals("abc", new String(it.next().getStringBytes(1)));
+        assertEquals("abcde", new String(it.next().getStringBytes(1)));
+        it.close();
+
+        // operators above the scan see the length too
+        SeqScan scan = new SeqScan(tid, hf.getId(), "v");
+        assertEquals(5, scan.getTupleDesc().getMaxLength(1));
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(1);
+        assertEquals(5, new Project(fields, new Type[] { Type.VARCHAR_TYPE }, scan).getTupleDesc().getMaxLength(0));
+        scan.setOutputFields(new int[] { 1 });
+        assertEquals(5, scan.getTupleDesc().getMaxLength(0));
+
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(3, "12345"));
+        try {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(4, "123456"));
+            fail("expected a DbException for a string longer than VARCHAR(5)");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan of only the VARCHAR column, or only the field after it, skips
+     * the other field.
+     */
+    @Test public void projectedScan() throws Exception {
+        HeapFile hf = new HeapFile(textTable(500, new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }), TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid, null, false,
+                new Predicate[] { new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)) },
+                new int[] { 1 });
+        it.open();
+        int count = 100;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            assertEquals(name(count++), ((StringField) t.getField(0)).getValue());
+        }
+        it.close();
+        assertEquals(500, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
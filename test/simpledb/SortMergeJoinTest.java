@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    /** @return a list of rows {key, i}, sorted by key, with many repeated keys */
+    private static TupleIterator sortedList(int rows, int maxKey, long seed) {
+        Random r = new Random(seed);
+        int[] keys = new int[rows];
+        for (int i = 0; i < rows; i++)
+            keys[i] = r.nextInt(maxKey);
+        java.util.Arrays.sort(keys);
+        int[] data = new int[2 * rows];
+        for (int i = 0; i < rows; i++) {
+            data[2 * i] = keys[i];
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    private static ArrayList<String> rows(OpIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        return rows;
+    }
+
+    /**
+     * For every operator it supports, SortMergeJoin returns the tuples a
+     * nested loop join does, in order of its order field.
+     */
+    @Test public void sameAsNestedLoop() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            SortMergeJoin merge = new SortMergeJoin(p, sortedList(60, 20, 1), sortedList(80, 20, 2));
+            ArrayList<String> expected = rows(new Join(p, sortedList(60, 20, 1), sortedList(80, 20, 2)));
+            assertTrue(expected.size() > 0);
+
+            merge.open();
+            ArrayList<String> actual = new ArrayList<String>();
+            int last = Integer.MIN_VALUE;
+            while (merge.hasNext()) {
+                Tuple t = merge.next();
+                int key = t.getInt(merge.getOrderField());
+                assertTrue(key >= last);
+                last = key;
+                actual.add(t.toString());
+            }
+            // and again after a rewind
+            merge.rewind();
+            int count = 0;
+            while (merge.hasNext()) {
+                merge.next();
+                count++;
+            }
+            merge.close();
+            assertEquals(expected.size(), count);
+
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Runs of equal keys on both sides join every pair, and keys on only one
+     * side join nothing.
+     */
+    @Test public void duplicateRuns() throws Exception {
+        OpIterator left = TestUtil.createTupleList(2, new int[] { 1, 0, 2, 1, 2, 2, 4, 3, 5, 4, 5, 5 });
+        OpIterator right = TestUtil.createTupleList(2, new int[] { 2, 0, 2, 1, 3, 2, 5, 3, 6, 4 });
+        SortMergeJoin merge = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right);
+        OpIterator expected = TestUtil.createTupleList(4, new int[] {
+                2, 1, 2, 0,
+                2, 1, 2, 1,
+                2, 2, 2, 0,
+                2, 2, 2, 1,
+                5, 4, 5, 3,
+                5, 5, 5, 3 });
+        assertEquals(rows(expected), rows(merge));
+    }
+
+    /**
+     * The planner merge joins B+tree scans on their keys, and sorts heap
+     * files for a merge join only when the query is ordered by its output.
+     */
+    @Test public void instantiateJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        BTreeFile bf1 = BTreeUtility.createRandomBTreeFile(2, 1000, null, null, 0);
+        BTreeFile bf2 = BTreeUtility.createRandomBTreeFile(2, 1000, null, null, 0);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        // the generated tables have no field names: "null" is the first field
+        LogicalJoinNode lj = new LogicalJoinNode("t1", "t2", "null", "null", Predicate.Op.EQUALS);
+
+        OpIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, bf1.getId(), "t1"),
+                new SeqScan(tid, bf2.getId(), "t2"));
+        assertTrue(j instanceof SortMergeJoin);
+        assertEquals(0, JoinOptimizer.sortedOn(j));
+
+        j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, hf.getId(), "t1"),
+                new SeqScan(tid, bf2.getId(), "t2"));
+        assertFalse(j instanceof SortMergeJoin);
+        j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, hf.getId(), "t1"),
+                new SeqScan(tid, bf2.getId(), "t2"), "t1.null");
+        assertTrue(j instanceof SortMergeJoin);
+        assertTrue(((SortMergeJoin) j).getChildren()[0] instanceof OrderBy);
+        assertFalse(((SortMergeJoin) j).getChildren()[1] instanceof OrderBy);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
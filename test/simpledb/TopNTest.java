@@ -0,0 +1,186 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(hf, "topn");
+    }
+
+    private static ArrayList<ArrayList<Integer>> rows(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return rows;
+    }
+
+    /**
+     * TopN returns the slice of what OrderBy returns, ties included.
+     */
+    @Test public void sameAsOrderBy() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (boolean asc : new boolean[] { true, false }) {
+            ArrayList<ArrayList<Integer>> all = rows(new OrderBy(0, asc, new SeqScan(tid, hf.getId())));
+            assertEquals(all.subList(0, 10), rows(new TopN(0, asc, 10, 0, new SeqScan(tid, hf.getId()))));
+            assertEquals(all.subList(25, 75), rows(new TopN(0, asc, 50, 25, new SeqScan(tid, hf.getId()))));
+            assertEquals(all.subList(1990, 2000), rows(new TopN(0, asc, 50, 1990, new SeqScan(tid, hf.getId()))));
+            assertEquals(0, rows(new TopN(0, asc, 0, 0, new SeqScan(tid, hf.getId()))).size());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Without an order TopN stops reading its child once it has its tuples,
+     * through a Filter and Project on top of the scan.
+     */
+    @Test public void stopsEarly() throws Exception {
+        TransactionId tid = new TransactionId();
+        final int[] read = new int[1];
+        final SeqScan scan = new SeqScan(tid, hf.getId());
+        Operator counted = new Operator() {
+            private static final long serialVersionUID = 1L;
+            public void open() throws DbException, TransactionAbortedException {
+                scan.open();
+                super.open();
+            }
+            public void close() {
+                super.close();
+                scan.close();
+            }
+            public void rewind() throws DbException, TransactionAbortedException {
+                scan.rewind();
+            }
+            protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+                if (!scan.hasNext())
+                    return null;
+                read[0]++;
+                return scan.next();
+            }
+            public TupleDesc getTupleDesc() {
+                return scan.getTupleDesc();
+            }
+            public OpIterator[] getChildren() {
+                return new OpIterator[] { scan };
+            }
+            public void setChildren(OpIterator[] children) {
+            }
+        };
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)), counted);
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(1);
+        ArrayList<Type> types = new ArrayList<Type>();
+        types.add(Type.INT_TYPE);
+        TopN limit = new TopN(TopN.NO_ORDER, true, 5, 3, new Project(fields, types, filter));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        int passed = 0;
+        int needed = 0;
+        for (int i = 0; i < tuples.size() && expected.size() < 5; i++) {
+            if (tuples.get(i).get(1) < 50 && passed++ >= 3) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(tuples.get(i).get(1));
+                expected.add(row);
+            }
+            needed = i + 1;
+        }
+        assertEquals(expected, rows(limit));
+        assertEquals(needed, read[0]);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * LIMIT and OFFSET are parsed, and planned as a TopN instead of an OrderBy.
+     */
+    @Test public void parsed() throws Exception {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        OpIterator plan = p.generateLogicalPlan(tid, "SELECT t.c0 FROM topn t ORDER BY t.c0 DESC LIMIT 7 OFFSET 2;")
+                .physicalPlan(tid, new java.util.HashMap<String, TableStats>(), false);
+        OpIterator top = ((Operator) plan).getChildren()[0];
+        assertTrue(top instanceof TopN);
+        assertEquals(7, ((TopN) top).getLimit());
+        assertEquals(2, ((TopN) top).getOffset());
+        ArrayList<ArrayList<Integer>> result = rows(plan);
+        assertEquals(7, result.size());
+        for (int i = 1; i < result.size(); i++)
+            assertTrue(result.get(i - 1).get(0) >= result.get(i).get(0));
+
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM topn t limit 3;")
+                .physicalPlan(tid, new java.util.HashMap<String, TableStats>(), false);
+        assertEquals(tuples.subList(0, 3), rows(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * LIMIT is only accepted on SELECT: a DELETE or INSERT with one is
+     * rejected instead of running on every row.
+     */
+    @Test public void limitOnlyOnSelect() throws Exception {
+        Parser p = new Parser();
+        for (String sql : new String[] { "DELETE FROM topn WHERE topn.c0 > -1 LIMIT 1;",
+                "INSERT INTO topn VALUES (1, 2) LIMIT 1;" }) {
+            try {
+                p.stripLimit(sql);
+                fail("expected a ParsingException for " + sql);
+            } catch (ParsingException e) {
+                // expected
+            }
+        }
+        p.processNextStatement("DELETE FROM topn WHERE topn.c0 > -1 LIMIT 1;");
+        TransactionId tid = new TransactionId();
+        assertEquals(tuples.size(), rows(new SeqScan(tid, hf.getId())).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A statement read from a stream is taken up to its ';', LIMIT and all,
+     * and the statements after it are left in the stream for the next call.
+     */
+    @Test public void oneStatementPerCall() throws Exception {
+        String delete = " DELETE FROM topn WHERE topn.c0 >= 0;";
+        java.io.ByteArrayInputStream is = new java.io.ByteArrayInputStream(
+                ("SELECT * FROM topn t WHERE t.c1 >= 0 LIMIT 3;" + delete).getBytes("UTF-8"));
+        assertEquals("SELECT * FROM topn t WHERE t.c1 >= 0 LIMIT 3;", Parser.readStatement(
+                new java.io.ByteArrayInputStream("SELECT * FROM topn t WHERE t.c1 >= 0 LIMIT 3; x".getBytes("UTF-8"))));
+        assertEquals("SELECT 'a;b' FROM t;", Parser.readStatement(
+                new java.io.ByteArrayInputStream("SELECT 'a;b' FROM t; x".getBytes("UTF-8"))));
+
+        TableStats.setTableStats("topn", new TableStats(hf.getId(), 1000));  //the planner looks up the filters' selectivity
+        Parser p = new Parser();
+        p.processNextStatement(is);
+        assertEquals(delete.length(), is.available());
+        TransactionId tid = new TransactionId();
+        assertEquals(tuples.size(), rows(new SeqScan(tid, hf.getId())).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        p.processNextStatement(is);
+        assertEquals(0, is.available());
+        tid = new TransactionId();
+        assertEquals(0, rows(new SeqScan(tid, hf.getId())).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, tuples);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return every row of it, read a batch at a time */
+    private static ArrayList<ArrayList<Integer>> batchRows(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null) {
+            assertTrue(b.size() > 0);
+            assertTrue(b.size() <= TupleBatch.DEFAULT_SIZE);
+            for (int i = 0; i < b.size(); i++)
+                rows.add(SystemTestUtil.tupleToList(b.getTuple(i)));
+        }
+        it.close();
+        return rows;
+    }
+
+    /** @return every row of it, read a tuple at a time */
+    private static ArrayList<ArrayList<Integer>> rows(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return rows;
+    }
+
+    /** @return rows, sorted so that results in any order can be compared */
+    private static ArrayList<ArrayList<Integer>> sorted(ArrayList<ArrayList<Integer>> rows) {
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return rows;
+    }
+
+    private Filter filter(int threshold) {
+        return new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(threshold)),
+                new SeqScan(tid, hf.getId()));
+    }
+
+    /**
+     * SeqScan, Filter and Project return the same rows in batches as one at a time.
+     */
+    @Test public void scanFilterProject() throws Exception {
+        assertEquals(tuples, batchRows(new SeqScan(tid, hf.getId())));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : tuples)
+            if (row.get(1) < 50)
+                expected.add(row);
+        assertEquals(expected, batchRows(filter(50)));
+        assertEquals(expected, rows(filter(50)));
+
+        // a filter over a filter narrows the selection of the batch again
+        Filter twice = new Filter(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)), filter(50));
+        assertEquals(rows(twice), batchRows(twice));
+
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        ArrayList<Type> types = new ArrayList<Type>();
+        types.add(Type.INT_TYPE);
+        types.add(Type.INT_TYPE);
+        Project project = new Project(fields, types, filter(50));
+        assertEquals(rows(project), batchRows(project));
+
+        assertEquals(Collections.emptyList(), batchRows(filter(-1)));
+    }
+
+    /**
+     * Aggregate gives the same answer over batches as over tuples.
+     */
+    @Test public void aggregate() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            for (int gb : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                IntegerAggregator rowAgg = new IntegerAggregator(gb,
+                        gb == Aggregator.NO_GROUPING ? null : Type.INT_TYPE, 2, op);
+                OpIterator rowInput = filter(70);
+                rowInput.open();
+                while (rowInput.hasNext())
+                    rowAgg.mergeTupleIntoGroup(rowInput.next());
+                rowInput.close();
+
+                assertEquals(sorted(rows(rowAgg.iterator())), sorted(rows(new Aggregate(filter(70), 2, gb, op))));
+            }
+        }
+    }
+
+    /**
+     * HashEquiJoin returns the same rows in batches as one at a time.
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> other = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf2 = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, other);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, hf2.getId()), new SeqScan(tid, hf.getId()));
+        ArrayList<ArrayList<Integer>> expected = rows(join);
+        assertTrue(expected.size() > TupleBatch.DEFAULT_SIZE);
+        assertEquals(sorted(expected), sorted(batchRows(join)));
+    }
+
+    /**
+     * fromRows() and RowIterator turn rows into batches and back.
+     */
+    @Test public void adapters() throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.open();
+        TupleBatch b = TupleBatch.fromRows(scan, 1000);
+        assertEquals(1000, b.size());
+        assertTrue(b.isFull());
+        assertEquals(tuples.get(999), SystemTestUtil.tupleToList(b.getTuple(999)));
+        scan.close();
+
+        // operators that only know rows still work on top of a batch plan
+        assertEquals(rows(filter(30)), rows(new TupleBatch.RowIterator(filter(30))));
+        OrderBy sorted = new OrderBy(0, true, new TupleBatch.RowIterator(new SeqScan(tid, hf.getId())));
+        assertEquals(tuples.size(), rows(sorted).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Throughput benchmark for nextBatch(). It runs
+ * SELECT SUM(c1) FROM t WHERE c0 < x over a table of a few million rows,
+ * once pulling the rows of the Filter one at a time into the aggregator, as
+ * Aggregate did before batches, and once through Aggregate, which pulls
+ * batches of the Filter's selection over the scan's int columns.
+ * <p>
+ * Run with: ant runbench -Dbench=VectorizedBenchmark [-Dargs="rows runs"]
+ */
+public class VectorizedBenchmark {
+
+    private static OpIterator filter(TransactionId tid, HeapFile hf) {
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.setReuseTuples(true);
+        return new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1 << 15)), scan);
+    }
+
+    private static int query(HeapFile hf, boolean batches) throws Exception {
+        TransactionId tid = new TransactionId();
+        int result;
+        if (batches) {
+            Aggregate sum = new Aggregate(filter(tid, hf), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+            sum.open();
+            result = sum.next().getInt(0);
+            sum.close();
+        } else {
+            IntegerAggregator sum = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.SUM);
+            OpIterator it = filter(tid, hf);
+            it.open();
+            while (it.hasNext())
+                sum.mergeTupleIntoGroup(it.next());
+            it.close();
+            OpIterator out = sum.iterator();
+            out.open();
+            result = out.next().getInt(0);
+            out.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    private static void measure(String name, HeapFile hf, int rows, int runs, boolean batches) throws Exception {
+        long begin = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            query(hf, batches);
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-14s %8.0f ms/query  %8.1f Mrows/s%n", name, seconds * 1000 / runs,
+                rows * (double) runs / seconds / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Database.resetBufferPool(rows / 400 + 100);  //the whole table stays cached: this measures CPU, not I/O
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, 1 << 16, null, null);
+        System.out.printf("%d rows, %d pages%n", rows, hf.numPages());
+        if (query(hf, false) != query(hf, true))  //also warms up the JIT and the page cache
+            throw new RuntimeException("row and batch answers differ");
+        measure("row at a time", hf, rows, runs, false);
+        measure("batches", hf, rows, runs, true);
+        hf.close();
+    }
+}
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import static org.junit.Assert.*;
+
 import org.junit.Test;
 
 import simpledb.*;
@@ -69,6 +71,64 @@ public class JoinTest extends SimpleDbTestBase {
         validateJoin(1, 3, 1, 3);
     }
 
+    /**
+     * A join on the key of a B+tree looks each outer tuple up in the index,
+     * for equality and for ranges.
+     */
+    @Test public void testIndexNestedLoop() throws Exception {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 50, 200, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile table2 = BTreeUtility.createRandomBTreeFile(COLUMNS, 2000, 200, null, t2Tuples, 0);
+
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ }) {
+            ArrayList<ArrayList<Integer>> expectedResults = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t1 : t1Tuples) {
+                for (ArrayList<Integer> t2 : t2Tuples) {
+                    if (new IntField(t1.get(0)).compare(op, new IntField(t2.get(0)))) {
+                        ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                        out.addAll(t2);
+                        expectedResults.add(out);
+                    }
+                }
+            }
+
+            TransactionId tid = new TransactionId();
+            SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+            SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            assertTrue(Join.canUseIndex(p, ss2));
+            Join joinOp = new Join(p, ss1, ss2, Join.Method.INDEX_NESTED_LOOP);
+            SystemTestUtil.matchTuples(joinOp, expectedResults);
+            joinOp.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        // the outer relation has far fewer tuples than the table has pages, so
+        // the planner looks them up in the index rather than hash the table
+        table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 5, null, null);
+        table2 = BTreeUtility.createRandomBTreeFile(COLUMNS, 20000, null, null, 0);
+        TransactionId tid = new TransactionId();
+        // the generated tables have no field names: "null" is the first field
+        LogicalJoinNode lj = new LogicalJoinNode("t1", "t2", "null", "null", Predicate.Op.EQUALS);
+        // without statistics the page of table1 is taken to be full
+        assertTrue(JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, table1.getId(), "t1"),
+                new SeqScan(tid, table2.getId(), "t2")) instanceof HashEquiJoin);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(table1.getId()), new TableStats(table1.getId(), 1000) {
+            public int estimateTableCardinality(double selectivityFactor) {
+                return (int) (5 * selectivityFactor);
+            }
+        });
+        Join j = (Join) JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, table1.getId(), "t1"),
+                new SeqScan(tid, table2.getId(), "t2"), null, stats, new HashMap<String, Double>());
+        assertEquals(Join.Method.INDEX_NESTED_LOOP, j.getMethod());
+        assertFalse(Join.canUseIndex(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), "")));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(JoinTest.class);
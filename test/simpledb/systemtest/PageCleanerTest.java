@@ -0,0 +1,69 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 20;
+    private static final long TIMEOUT = 5000;
+
+    /** Waits until the cleaner has written every page of f that was dirty. */
+    private static void awaitClean(BufferPool bp, PageCleaner cleaner, HeapFile f, Transaction t)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        for (int i = 0; i < f.numPages(); i++) {
+            Page p = bp.getPage(t.getId(), new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+            while (p.isDirty() != null) {
+                assertTrue("cleaner did not catch up", System.currentTimeMillis() < deadline);
+                Thread.sleep(PageCleaner.INTERVAL);
+            }
+        }
+        while (cleaner.getQueueDepth() > 0) {
+            assertTrue("writes did not land", System.currentTimeMillis() < deadline);
+            Thread.sleep(PageCleaner.INTERVAL);
+        }
+    }
+
+    /** The cleaner writes uncommitted pages back; abort still undoes them. */
+    @Test public void testCleanThenAbort() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        PageCleaner cleaner = bp.startCleaner(1.0, PageCleaner.DEFAULT_IO_THREADS);
+        assertTrue(bp.isSteal());
+
+        Transaction t = new Transaction();
+        t.start();
+        StealEvictionTest.insertRows(f, t);
+        awaitClean(bp, cleaner, f, t);
+        assertTrue(cleaner.getPagesWritten() >= f.numPages());
+        assertTrue(cleaner.getWriteRate() >= 0);
+        t.transactionComplete(true);
+
+        assertEquals(0, StealEvictionTest.countRows(f));
+        bp.stopCleaner();
+        assertNull(bp.getCleaner());
+    }
+
+    /** Pages written early by the cleaner and the rest written at commit add up. */
+    @Test public void testCleanThenCommit() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        PageCleaner cleaner = bp.startCleaner(1.0, PageCleaner.DEFAULT_IO_THREADS);
+
+        Transaction t = new Transaction();
+        t.start();
+        StealEvictionTest.insertRows(f, t);
+        awaitClean(bp, cleaner, f, t);
+        t.commit();
+
+        Database.resetBufferPool(POOL_PAGES);
+        assertEquals(StealEvictionTest.ROWS, StealEvictionTest.countRows(f));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class StealEvictionTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 3;
+    static final int ROWS = 504 * 6;
+
+    /** Inserts more rows than fit on POOL_PAGES pages within one transaction. */
+    static void insertRows(HeapFile f, Transaction t)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++)
+            rows.add(Utility.getHeapTuple(i, 2));
+        Insert insert = new Insert(t.getId(), new TupleIterator(Utility.getTupleDesc(2), rows), f.getId());
+        insert.open();
+        Tuple result = insert.next();
+        assertEquals(ROWS, ((IntField) result.getField(0)).getValue());
+        insert.close();
+    }
+
+    static int countRows(HeapFile f) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        int count = 0;
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        ss.close();
+        t.commit();
+        return count;
+    }
+
+    /** A transaction may dirty more pages than the pool holds; abort undoes the stolen ones. */
+    @Test public void testAbortStolenPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        Database.resetBufferPool(POOL_PAGES).setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(f, t);
+        assertTrue(f.numPages() > POOL_PAGES);
+        t.transactionComplete(true);
+
+        assertEquals(0, countRows(f));
+    }
+
+    /** Committed rows survive, whether they left the pool early or at commit. */
+    @Test public void testCommitStolenPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        Database.resetBufferPool(POOL_PAGES).setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(f, t);
+        t.commit();
+
+        Database.resetBufferPool(POOL_PAGES);
+        assertEquals(ROWS, countRows(f));
+    }
+
+    /** Without STEAL the same transaction runs out of clean pages. */
+    @Test(expected = TransactionAbortedException.class)
+    public void testNoStealRunsOut() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            insertRows(f, t);
+        } catch (DbException e) {
+            throw new TransactionAbortedException();
+        } finally {
+            t.transactionComplete(true);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealEvictionTest.class);
+    }
+}